@@ -0,0 +1,34 @@
+package org.xbib.elasticsearch.action.bulk;
+
+import org.elasticsearch.common.component.AbstractComponent;
+import org.elasticsearch.common.inject.Inject;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.common.unit.ByteSizeUnit;
+import org.elasticsearch.common.unit.ByteSizeValue;
+import org.xbib.elasticsearch.common.xcontent.Base16Cache;
+
+/**
+ * The node wide cache of transcoded hex values of <code>_bulkhex</code>, shared by all bulk requests,
+ * so values which repeat within and across bulk requests are decoded once.
+ */
+public class Base16CacheService extends AbstractComponent {
+
+    private final Base16Cache cache;
+
+    @Inject
+    public Base16CacheService(Settings settings) {
+        super(settings);
+        long size = settings.getAsBytesSize("action.bulkhex.cache.size", new ByteSizeValue(16, ByteSizeUnit.MB)).bytes();
+        int minLength = settings.getAsInt("action.bulkhex.cache.min_length", 256);
+        this.cache = size > 0 ? new Base16Cache(size, minLength) : null;
+    }
+
+    /**
+     * The cache.
+     *
+     * @return the cache, or null if it is disabled
+     */
+    public Base16Cache cache() {
+        return cache;
+    }
+}
@@ -0,0 +1,85 @@
+package org.xbib.elasticsearch.action.bulk;
+
+import org.elasticsearch.ElasticsearchIllegalArgumentException;
+import org.elasticsearch.cluster.ClusterChangedEvent;
+import org.elasticsearch.cluster.ClusterService;
+import org.elasticsearch.cluster.ClusterStateListener;
+import org.elasticsearch.common.component.AbstractComponent;
+import org.elasticsearch.common.inject.Inject;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.common.util.concurrent.ConcurrentCollections;
+import org.xbib.elasticsearch.common.xcontent.Base16Detector;
+
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * The hex detectors of the indices, for the adaptive hex mode of <code>_bulkhex</code>.
+ * Each index learns on its own which field paths hold hex strings. The detector of an index is dropped
+ * when the index is removed from the cluster state, on every node, also on nodes without shards of the index.
+ * The number of detectors is bounded, indices beyond the bound get a new detector for every request, so their
+ * values are always tried, as without detector.
+ */
+public class Base16DetectorService extends AbstractComponent {
+
+    private final int warmup;
+
+    private final int resampleInterval;
+
+    private final int maxPaths;
+
+    private final int maxIndices;
+
+    private final ConcurrentMap<String, Base16Detector> detectors = ConcurrentCollections.newConcurrentMap();
+
+    @Inject
+    public Base16DetectorService(Settings settings, ClusterService clusterService) {
+        super(settings);
+        this.warmup = settings.getAsInt("action.bulkhex.detector.warmup", 100);
+        this.resampleInterval = settings.getAsInt("action.bulkhex.detector.resample_interval", 1000);
+        if (resampleInterval < 1) {
+            throw new ElasticsearchIllegalArgumentException("action.bulkhex.detector.resample_interval must be at least 1, got ["
+                    + resampleInterval + "]");
+        }
+        this.maxPaths = settings.getAsInt("action.bulkhex.detector.max_paths", 1000);
+        this.maxIndices = settings.getAsInt("action.bulkhex.detector.max_indices", 1000);
+        clusterService.add(new ClusterStateListener() {
+            @Override
+            public void clusterChanged(ClusterChangedEvent event) {
+                for (String index : event.indicesDeleted()) {
+                    detectors.remove(index);
+                }
+            }
+        });
+    }
+
+    /**
+     * The detector of an index.
+     *
+     * @param index the index
+     * @return the detector
+     */
+    public Base16Detector detector(String index) {
+        Base16Detector detector = detectors.get(index);
+        if (detector == null) {
+            detector = new Base16Detector(warmup, resampleInterval, maxPaths);
+            if (detectors.size() >= maxIndices) {
+                return detector;
+            }
+            Base16Detector previous = detectors.putIfAbsent(index, detector);
+            if (previous != null) {
+                detector = previous;
+            }
+        }
+        return detector;
+    }
+
+    /**
+     * Whether an index has a detector.
+     *
+     * @param index the index
+     * @return true if the index has a detector
+     */
+    public boolean hasDetector(String index) {
+        return detectors.containsKey(index);
+    }
+}
@@ -0,0 +1,72 @@
+package org.xbib.elasticsearch.action.bulk;
+
+import org.elasticsearch.ElasticsearchIllegalArgumentException;
+import org.elasticsearch.action.index.IndexRequest;
+import org.elasticsearch.action.update.UpdateRequest;
+import org.elasticsearch.common.collect.Tuple;
+import org.elasticsearch.common.xcontent.XContentFactory;
+import org.elasticsearch.common.xcontent.XContentHelper;
+import org.elasticsearch.common.xcontent.XContentType;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Splices raw binary attachments into source skeletons. In a skeleton, an object <code>{"$binary":n}</code>
+ * is a placeholder for the attachment with index <code>n</code>, which is written as a binary value.
+ */
+public final class BinaryAttachments {
+
+    public static final String BINARY_FIELD = "$binary";
+
+    private BinaryAttachments() {
+    }
+
+    public static void splice(IndexRequest indexRequest, byte[][] attachments) throws IOException {
+        Tuple<XContentType, Map<String, Object>> source = XContentHelper.convertToMap(indexRequest.source(), true);
+        Map<String, Object> map = source.v2();
+        for (Map.Entry<String, Object> entry : map.entrySet()) {
+            entry.setValue(splice(entry.getValue(), attachments));
+        }
+        indexRequest.source(XContentFactory.contentBuilder(source.v1()).map(map));
+    }
+
+    /**
+     * Splices the attachments into the doc and the upsert of an update request.
+     */
+    public static void splice(UpdateRequest updateRequest, byte[][] attachments) throws IOException {
+        if (updateRequest.doc() != null) {
+            splice(updateRequest.doc(), attachments);
+        }
+        if (updateRequest.upsertRequest() != null) {
+            splice(updateRequest.upsertRequest(), attachments);
+        }
+    }
+
+    /**
+     * Replaces the placeholders in a value of the source skeleton by their attachments.
+     */
+    @SuppressWarnings("unchecked")
+    private static Object splice(Object value, byte[][] attachments) {
+        if (value instanceof Map) {
+            Map<String, Object> map = (Map<String, Object>) value;
+            if (map.size() == 1 && map.containsKey(BINARY_FIELD)) {
+                Object n = map.get(BINARY_FIELD);
+                if (!(n instanceof Number) || ((Number) n).intValue() < 0 || ((Number) n).intValue() >= attachments.length) {
+                    throw new ElasticsearchIllegalArgumentException("no attachment for placeholder " + map);
+                }
+                return attachments[((Number) n).intValue()];
+            }
+            for (Map.Entry<String, Object> entry : map.entrySet()) {
+                entry.setValue(splice(entry.getValue(), attachments));
+            }
+        } else if (value instanceof List) {
+            List<Object> list = (List<Object>) value;
+            for (int i = 0; i < list.size(); i++) {
+                list.set(i, splice(list.get(i), attachments));
+            }
+        }
+        return value;
+    }
+}
@@ -0,0 +1,39 @@
+package org.xbib.elasticsearch.action.bulk;
+
+import org.elasticsearch.action.ClientAction;
+import org.elasticsearch.client.Client;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.transport.TransportRequestOptions;
+
+/**
+ * A bulk action for Java clients whose items carry a source skeleton and raw binary attachments,
+ * without any hex encoding, see {@link BinaryBulkRequest}.
+ */
+public class BinaryBulkAction extends ClientAction<BinaryBulkRequest, BulkResponse, BinaryBulkRequestBuilder> {
+
+    public static final BinaryBulkAction INSTANCE = new BinaryBulkAction();
+
+    public static final String NAME = "indices:data/write/bulkhex/binary";
+
+    private BinaryBulkAction() {
+        super(NAME);
+    }
+
+    @Override
+    public BulkResponse newResponse() {
+        return new BulkResponse();
+    }
+
+    @Override
+    public BinaryBulkRequestBuilder newRequestBuilder(Client client) {
+        return new BinaryBulkRequestBuilder(client);
+    }
+
+    @Override
+    public TransportRequestOptions transportOptions(Settings settings) {
+        return TransportRequestOptions.options()
+                .withType(TransportRequestOptions.Type.BULK)
+                .withCompress(settings.getAsBoolean("action.bulk.compress", true)
+                );
+    }
+}
@@ -0,0 +1,123 @@
+package org.xbib.elasticsearch.action.bulk;
+
+import org.elasticsearch.action.ActionRequest;
+import org.elasticsearch.action.ActionRequestValidationException;
+import org.elasticsearch.action.CompositeIndicesRequest;
+import org.elasticsearch.action.IndicesRequest;
+import org.elasticsearch.action.delete.DeleteRequest;
+import org.elasticsearch.action.index.IndexRequest;
+import org.elasticsearch.action.update.UpdateRequest;
+import org.elasticsearch.common.io.stream.StreamInput;
+import org.elasticsearch.common.io.stream.StreamOutput;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.elasticsearch.action.ValidateActions.addValidationError;
+
+/**
+ * A bulk request whose index and update items carry a source skeleton plus raw binary attachments.
+ * In the skeleton, an object <code>{"$binary":n}</code> is a placeholder for the attachment with
+ * index <code>n</code> of the item, see {@link BinaryAttachments}. The attachments are spliced into the
+ * source as binary values before the bulk request is executed, so the bytes are never hex encoded and decoded.
+ * <pre>
+ *     binaryBulkRequest.add(new IndexRequest("test", "test", "1").source("{\"blob\":{\"$binary\":0}}"), bytes);
+ * </pre>
+ */
+public class BinaryBulkRequest extends ActionRequest<BinaryBulkRequest> implements CompositeIndicesRequest {
+
+    private static final byte[][] NO_ATTACHMENTS = new byte[0][];
+
+    private BulkRequest bulkRequest = new BulkRequest();
+
+    private final List<byte[][]> attachments = new ArrayList<>();
+
+    /**
+     * Adds an index request, with the attachments for the placeholders of its source.
+     */
+    public BinaryBulkRequest add(IndexRequest request, byte[]... attachments) {
+        bulkRequest.add(request);
+        this.attachments.add(attachments);
+        return this;
+    }
+
+    /**
+     * Adds an update request, with the attachments for the placeholders of its doc and upsert.
+     */
+    public BinaryBulkRequest add(UpdateRequest request, byte[]... attachments) {
+        bulkRequest.add(request);
+        this.attachments.add(attachments);
+        return this;
+    }
+
+    public BinaryBulkRequest add(DeleteRequest request) {
+        bulkRequest.add(request);
+        this.attachments.add(NO_ATTACHMENTS);
+        return this;
+    }
+
+    /**
+     * The bulk request with the source skeletons. The refresh, replication, consistency and timeout
+     * options are set on it.
+     */
+    public BulkRequest bulkRequest() {
+        return bulkRequest;
+    }
+
+    /**
+     * The attachments of the item at the given position.
+     */
+    public byte[][] attachments(int pos) {
+        return attachments.get(pos);
+    }
+
+    public int numberOfActions() {
+        return bulkRequest.numberOfActions();
+    }
+
+    @Override
+    public List<? extends IndicesRequest> subRequests() {
+        return bulkRequest.subRequests();
+    }
+
+    @Override
+    public ActionRequestValidationException validate() {
+        ActionRequestValidationException validationException = bulkRequest.validate();
+        for (int i = 0; i < attachments.size(); i++) {
+            for (byte[] attachment : attachments.get(i)) {
+                if (attachment == null) {
+                    validationException = addValidationError("attachment of item " + i + " is missing", validationException);
+                }
+            }
+        }
+        return validationException;
+    }
+
+    @Override
+    public void readFrom(StreamInput in) throws IOException {
+        super.readFrom(in);
+        bulkRequest = new BulkRequest();
+        bulkRequest.readFrom(in);
+        attachments.clear();
+        for (int i = 0; i < bulkRequest.numberOfActions(); i++) {
+            byte[][] b = new byte[in.readVInt()][];
+            for (int j = 0; j < b.length; j++) {
+                b[j] = in.readByteArray();
+            }
+            attachments.add(b);
+        }
+    }
+
+    @Override
+    public void writeTo(StreamOutput out) throws IOException {
+        super.writeTo(out);
+        bulkRequest.writeTo(out);
+        for (byte[][] b : attachments) {
+            out.writeVInt(b.length);
+            for (byte[] attachment : b) {
+                out.writeByteArray(attachment);
+            }
+        }
+    }
+}
@@ -0,0 +1,54 @@
+package org.xbib.elasticsearch.action.bulk;
+
+import org.elasticsearch.action.ActionListener;
+import org.elasticsearch.action.ActionRequestBuilder;
+import org.elasticsearch.action.delete.DeleteRequest;
+import org.elasticsearch.action.index.IndexRequest;
+import org.elasticsearch.action.update.UpdateRequest;
+import org.elasticsearch.client.Client;
+
+/**
+ * A builder for bulk requests with binary attachments.
+ */
+public class BinaryBulkRequestBuilder extends ActionRequestBuilder<BinaryBulkRequest, BulkResponse, BinaryBulkRequestBuilder, Client> {
+
+    public BinaryBulkRequestBuilder(Client client) {
+        super(client, new BinaryBulkRequest());
+    }
+
+    /**
+     * Adds an {@link IndexRequest} with the attachments for the placeholders of its source.
+     */
+    public BinaryBulkRequestBuilder add(IndexRequest request, byte[]... attachments) {
+        super.request.add(request, attachments);
+        return this;
+    }
+
+    /**
+     * Adds an {@link UpdateRequest} with the attachments for the placeholders of its doc and upsert.
+     */
+    public BinaryBulkRequestBuilder add(UpdateRequest request, byte[]... attachments) {
+        super.request.add(request, attachments);
+        return this;
+    }
+
+    /**
+     * Adds a {@link DeleteRequest}.
+     */
+    public BinaryBulkRequestBuilder add(DeleteRequest request) {
+        super.request.add(request);
+        return this;
+    }
+
+    /**
+     * The number of actions currently in the bulk.
+     */
+    public int numberOfActions() {
+        return request.numberOfActions();
+    }
+
+    @Override
+    protected void doExecute(ActionListener<BulkResponse> listener) {
+        client.execute(BinaryBulkAction.INSTANCE, request, listener);
+    }
+}
@@ -0,0 +1,197 @@
+package org.xbib.elasticsearch.action.bulk;
+
+import org.elasticsearch.common.component.AbstractComponent;
+import org.elasticsearch.common.inject.Inject;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.common.unit.ByteSizeValue;
+import org.elasticsearch.common.unit.TimeValue;
+import org.elasticsearch.common.util.concurrent.EsRejectedExecutionException;
+import org.elasticsearch.index.shard.ShardId;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Admission control for bulk requests on the coordinating node. Request bodies are admitted against
+ * the bytes of all bodies in flight before they are parsed, and parsed bulk requests are admitted
+ * against the actions and bytes in flight per target node and per shard before they are sent.
+ * A request which does not fit is rejected, with a hint when to retry, instead of being queued,
+ * so an overloaded cluster does not cost parsing and memory for requests it can not take.
+ * A single request is always admitted when nothing is in flight, so oversized requests do not starve.
+ * Negative limits disable the check.
+ */
+public class BulkAdmissionController extends AbstractComponent {
+
+    private final long maxBytes;
+
+    private final long nodeMaxActions;
+
+    private final long nodeMaxBytes;
+
+    private final long shardMaxActions;
+
+    private final long shardMaxBytes;
+
+    private final TimeValue retryAfter;
+
+    private final AtomicLong inFlightBytes = new AtomicLong();
+
+    private final Map<String, Usage> inFlightByNode = new HashMap<>();
+
+    private final Map<ShardId, Usage> inFlightByShard = new HashMap<>();
+
+    @Inject
+    public BulkAdmissionController(Settings settings) {
+        super(settings);
+        this.maxBytes = settings.getAsBytesSize("action.bulkhex.admission.max_bytes", new ByteSizeValue(-1)).bytes();
+        this.nodeMaxActions = settings.getAsLong("action.bulkhex.admission.node.max_actions", -1L);
+        this.nodeMaxBytes = settings.getAsBytesSize("action.bulkhex.admission.node.max_bytes", new ByteSizeValue(-1)).bytes();
+        this.shardMaxActions = settings.getAsLong("action.bulkhex.admission.shard.max_actions", -1L);
+        this.shardMaxBytes = settings.getAsBytesSize("action.bulkhex.admission.shard.max_bytes", new ByteSizeValue(-1)).bytes();
+        this.retryAfter = settings.getAsTime("action.bulkhex.admission.retry_after", TimeValue.timeValueSeconds(1));
+    }
+
+    /**
+     * The time after which a rejected request should be retried.
+     */
+    public TimeValue retryAfter() {
+        return retryAfter;
+    }
+
+    /**
+     * Admits a request body of the given size.
+     *
+     * @return true if admitted, then {@link #releaseBytes(long)} must be called when the request is done
+     */
+    public boolean tryAcquireBytes(long bytes) {
+        return tryAcquireMoreBytes(0L, bytes);
+    }
+
+    /**
+     * Admits more bytes of a request which already holds admitted bytes, such as the inflated bytes of a
+     * compressed body. The request is admitted when it is alone in flight.
+     *
+     * @param heldBytes the bytes the request holds
+     * @param bytes the additional bytes
+     * @return true if admitted, then the bytes must be released with the held bytes
+     */
+    public boolean tryAcquireMoreBytes(long heldBytes, long bytes) {
+        if (maxBytes < 0) {
+            return true;
+        }
+        while (true) {
+            long current = inFlightBytes.get();
+            if (current > heldBytes && current + bytes > maxBytes) {
+                return false;
+            }
+            if (inFlightBytes.compareAndSet(current, current + bytes)) {
+                return true;
+            }
+        }
+    }
+
+    public void releaseBytes(long bytes) {
+        if (maxBytes >= 0) {
+            inFlightBytes.addAndGet(-bytes);
+        }
+    }
+
+    boolean isEnabled() {
+        return nodeMaxActions >= 0 || nodeMaxBytes >= 0 || shardMaxActions >= 0 || shardMaxBytes >= 0;
+    }
+
+    /**
+     * Admits the actions of a bulk request, all or nothing.
+     *
+     * @throws EsRejectedExecutionException if a node or shard limit would be exceeded
+     */
+    synchronized void acquire(Admission admission) {
+        for (Map.Entry<String, Usage> entry : admission.byNode.entrySet()) {
+            if (exceeds(inFlightByNode.get(entry.getKey()), entry.getValue(), nodeMaxActions, nodeMaxBytes)) {
+                throw new EsRejectedExecutionException("rejected bulk, too many operations in flight to node ["
+                        + entry.getKey() + "], retry after [" + retryAfter + "]");
+            }
+        }
+        for (Map.Entry<ShardId, Usage> entry : admission.byShard.entrySet()) {
+            if (exceeds(inFlightByShard.get(entry.getKey()), entry.getValue(), shardMaxActions, shardMaxBytes)) {
+                throw new EsRejectedExecutionException("rejected bulk, too many operations in flight to shard "
+                        + entry.getKey() + ", retry after [" + retryAfter + "]");
+            }
+        }
+        for (Map.Entry<String, Usage> entry : admission.byNode.entrySet()) {
+            add(inFlightByNode, entry.getKey(), entry.getValue(), 1);
+        }
+        for (Map.Entry<ShardId, Usage> entry : admission.byShard.entrySet()) {
+            add(inFlightByShard, entry.getKey(), entry.getValue(), 1);
+        }
+    }
+
+    synchronized void release(Admission admission) {
+        for (Map.Entry<String, Usage> entry : admission.byNode.entrySet()) {
+            add(inFlightByNode, entry.getKey(), entry.getValue(), -1);
+        }
+        for (Map.Entry<ShardId, Usage> entry : admission.byShard.entrySet()) {
+            add(inFlightByShard, entry.getKey(), entry.getValue(), -1);
+        }
+    }
+
+    private static boolean exceeds(Usage inFlight, Usage usage, long maxActions, long maxBytes) {
+        if (inFlight == null) {
+            return false;
+        }
+        return (maxActions >= 0 && inFlight.actions + usage.actions > maxActions)
+                || (maxBytes >= 0 && inFlight.bytes + usage.bytes > maxBytes);
+    }
+
+    private static <K> void add(Map<K, Usage> inFlight, K key, Usage usage, int sign) {
+        Usage current = inFlight.get(key);
+        if (current == null) {
+            current = new Usage();
+            inFlight.put(key, current);
+        }
+        current.actions += sign * usage.actions;
+        current.bytes += sign * usage.bytes;
+        if (current.actions <= 0) {
+            inFlight.remove(key);
+        }
+    }
+
+    /**
+     * The actions and bytes a bulk request sends to each node and shard.
+     */
+    static class Admission {
+
+        final Map<String, Usage> byNode = new HashMap<>();
+
+        final Map<ShardId, Usage> byShard = new HashMap<>();
+
+        void add(String nodeId, ShardId shardId, int actions, long bytes) {
+            if (nodeId != null) {
+                usage(byNode, nodeId).add(actions, bytes);
+            }
+            usage(byShard, shardId).add(actions, bytes);
+        }
+
+        private static <K> Usage usage(Map<K, Usage> map, K key) {
+            Usage usage = map.get(key);
+            if (usage == null) {
+                usage = new Usage();
+                map.put(key, usage);
+            }
+            return usage;
+        }
+    }
+
+    static class Usage {
+
+        long actions;
+
+        long bytes;
+
+        void add(int actions, long bytes) {
+            this.actions += actions;
+            this.bytes += bytes;
+        }
+    }
+}
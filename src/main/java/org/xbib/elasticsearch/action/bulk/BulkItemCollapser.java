@@ -0,0 +1,239 @@
+package org.xbib.elasticsearch.action.bulk;
+
+import org.elasticsearch.action.ActionRequest;
+import org.elasticsearch.action.ActionResponse;
+import org.elasticsearch.action.DocumentRequest;
+import org.elasticsearch.action.index.IndexRequest;
+import org.elasticsearch.action.index.IndexResponse;
+import org.elasticsearch.action.update.UpdateRequest;
+import org.elasticsearch.action.update.UpdateResponse;
+import org.elasticsearch.common.collect.Tuple;
+import org.elasticsearch.common.lucene.uid.Versions;
+import org.elasticsearch.common.xcontent.XContentHelper;
+import org.elasticsearch.common.xcontent.XContentType;
+import org.elasticsearch.index.VersionType;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * Collapses successive index and update operations on the same document within the items for a shard
+ * into a single operation, so the shard parses and applies the document only once.
+ * A run starting with an index operation is last-write-wins, and the docs of partial updates following
+ * the last index operation are merged into its source. A run of partial updates is merged into a single
+ * partial update, with the docs merged in order. Operations which depend on the state of the document,
+ * like creates, deletes, scripted updates, and versioned operations, end a run, and so does an operation with
+ * another timestamp or ttl than the first operation of the run.
+ * After execution, the response of the collapsed operation is handed out to every item of the run, so every
+ * item reports the version of the document after the whole run.
+ */
+class BulkItemCollapser {
+
+    private final List<Run> runs = new ArrayList<>();
+
+    /**
+     * Collapses the items for a shard.
+     *
+     * @return the items to execute, which is the given list if nothing could be collapsed
+     */
+    List<BulkItemRequest> collapse(List<BulkItemRequest> items) {
+        Map<String, Run> open = new HashMap<>();
+        List<Run> slots = new ArrayList<>(items.size());
+        for (BulkItemRequest item : items) {
+            if (!(item.request() instanceof DocumentRequest)) {
+                slots.add(new Run(item));
+                continue;
+            }
+            DocumentRequest request = (DocumentRequest) item.request();
+            String key = request.type() + '#' + request.id();
+            if (!isCollapsible(item.request())) {
+                open.remove(key);
+                slots.add(new Run(item));
+                continue;
+            }
+            Run run = open.get(key);
+            if (run != null && run.add(item)) {
+                continue;
+            }
+            run = new Run(item);
+            open.put(key, run);
+            slots.add(run);
+        }
+        if (slots.size() == items.size()) {
+            return items;
+        }
+        List<BulkItemRequest> collapsed = new ArrayList<>(slots.size());
+        for (Run run : slots) {
+            collapsed.add(run.build());
+            if (run.items.size() > 1) {
+                runs.add(run);
+            }
+        }
+        return collapsed;
+    }
+
+    /**
+     * Fills in the responses of the collapsed items from the response of the operation they were collapsed into.
+     */
+    void expand(BulkItemResponse[] responses) {
+        for (Run run : runs) {
+            BulkItemResponse response = responses[run.survivor];
+            if (response == null) {
+                continue;
+            }
+            boolean created = isCreated(response);
+            for (int i = 0; i < run.items.size(); i++) {
+                BulkItemRequest item = run.items.get(i);
+                // only the first operation of a run can have created the document
+                responses[item.id()] = response(item, response, i == 0 && created);
+            }
+        }
+    }
+
+    private static boolean isCollapsible(ActionRequest request) {
+        if (request instanceof IndexRequest) {
+            IndexRequest indexRequest = (IndexRequest) request;
+            return indexRequest.opType() == IndexRequest.OpType.INDEX
+                    && indexRequest.version() == Versions.MATCH_ANY
+                    && indexRequest.versionType() == VersionType.INTERNAL;
+        } else if (request instanceof UpdateRequest) {
+            UpdateRequest updateRequest = (UpdateRequest) request;
+            return updateRequest.doc() != null
+                    && updateRequest.script() == null
+                    && updateRequest.upsertRequest() == null
+                    && (updateRequest.fields() == null || updateRequest.fields().length == 0)
+                    && updateRequest.version() == Versions.MATCH_ANY
+                    && updateRequest.versionType() == VersionType.INTERNAL;
+        }
+        return false;
+    }
+
+    private static boolean isCreated(BulkItemResponse response) {
+        if (response.isFailed()) {
+            return false;
+        }
+        ActionResponse actionResponse = response.getResponse();
+        if (actionResponse instanceof IndexResponse) {
+            return ((IndexResponse) actionResponse).isCreated();
+        } else if (actionResponse instanceof UpdateResponse) {
+            return ((UpdateResponse) actionResponse).isCreated();
+        }
+        return false;
+    }
+
+    private static BulkItemResponse response(BulkItemRequest item, BulkItemResponse response, boolean created) {
+        DocumentRequest request = (DocumentRequest) item.request();
+        if (item.request() instanceof IndexRequest) {
+            String opType = ((IndexRequest) item.request()).opType().toString().toLowerCase(Locale.ENGLISH);
+            if (response.isFailed()) {
+                return new BulkItemResponse(item.id(), opType, new BulkItemResponse.Failure(response.getIndex(),
+                        request.type(), request.id(), response.getFailureMessage(), response.getFailure().getStatus()));
+            }
+            return new BulkItemResponse(item.id(), opType,
+                    new IndexResponse(response.getIndex(), request.type(), request.id(), response.getVersion(), created));
+        } else {
+            if (response.isFailed()) {
+                return new BulkItemResponse(item.id(), "update", new BulkItemResponse.Failure(response.getIndex(),
+                        request.type(), request.id(), response.getFailureMessage(), response.getFailure().getStatus()));
+            }
+            return new BulkItemResponse(item.id(), "update",
+                    new UpdateResponse(response.getIndex(), request.type(), request.id(), response.getVersion(), created));
+        }
+    }
+
+    /**
+     * Successive collapsible operations on one document.
+     */
+    private static class Run {
+
+        final List<BulkItemRequest> items = new ArrayList<>();
+
+        int survivor;
+
+        Run(BulkItemRequest item) {
+            items.add(item);
+        }
+
+        boolean add(BulkItemRequest item) {
+            ActionRequest first = items.get(0).request();
+            IndexRequest doc = doc(item.request());
+            IndexRequest firstDoc = doc(first);
+            if (!Objects.equals(doc.timestamp(), firstDoc.timestamp()) || doc.ttl() != firstDoc.ttl()) {
+                return false;
+            }
+            if (item.request() instanceof IndexRequest) {
+                // an index operation following partial updates would hide whether the updates failed
+                if (!(first instanceof IndexRequest)) {
+                    return false;
+                }
+            } else if (first instanceof UpdateRequest) {
+                UpdateRequest updateRequest = (UpdateRequest) item.request();
+                UpdateRequest firstUpdateRequest = (UpdateRequest) first;
+                if (updateRequest.docAsUpsert() != firstUpdateRequest.docAsUpsert()
+                        || updateRequest.detectNoop() != firstUpdateRequest.detectNoop()) {
+                    return false;
+                }
+            }
+            items.add(item);
+            return true;
+        }
+
+        BulkItemRequest build() {
+            if (items.size() == 1) {
+                survivor = items.get(0).id();
+                return items.get(0);
+            }
+            if (items.get(0).request() instanceof IndexRequest) {
+                int base = items.size() - 1;
+                while (!(items.get(base).request() instanceof IndexRequest)) {
+                    base--;
+                }
+                BulkItemRequest baseItem = items.get(base);
+                survivor = baseItem.id();
+                if (base == items.size() - 1) {
+                    return baseItem;
+                }
+                IndexRequest indexRequest = (IndexRequest) baseItem.request();
+                Tuple<XContentType, Map<String, Object>> source = XContentHelper.convertToMap(indexRequest.source(), true);
+                for (int i = base + 1; i < items.size(); i++) {
+                    XContentHelper.update(source.v2(), ((UpdateRequest) items.get(i).request()).doc().sourceAsMap(), false);
+                }
+                return new BulkItemRequest(survivor, new IndexRequest(indexRequest, indexRequest).source(source.v2(), source.v1()));
+            }
+            UpdateRequest first = (UpdateRequest) items.get(0).request();
+            survivor = items.get(0).id();
+            Tuple<XContentType, Map<String, Object>> doc = XContentHelper.convertToMap(first.doc().source(), true);
+            int retryOnConflict = first.retryOnConflict();
+            for (int i = 1; i < items.size(); i++) {
+                UpdateRequest updateRequest = (UpdateRequest) items.get(i).request();
+                XContentHelper.update(doc.v2(), updateRequest.doc().sourceAsMap(), false);
+                retryOnConflict = Math.max(retryOnConflict, updateRequest.retryOnConflict());
+            }
+            UpdateRequest updateRequest = new UpdateRequest(first.index(), first.type(), first.id())
+                    .routing(first.routing())
+                    .parent(first.parent())
+                    .retryOnConflict(retryOnConflict)
+                    .detectNoop(first.detectNoop())
+                    .doc(doc.v2(), doc.v1());
+            updateRequest.docAsUpsert(first.docAsUpsert());
+            updateRequest.doc().timestamp(first.doc().timestamp());
+            if (first.doc().ttl() != -1L) {
+                updateRequest.doc().ttl(first.doc().ttl());
+            }
+            updateRequest.timeout(first.timeout());
+            updateRequest.consistencyLevel(first.consistencyLevel());
+            return new BulkItemRequest(survivor, updateRequest);
+        }
+
+        /**
+         * The document of an index operation, or of a partial update.
+         */
+        private static IndexRequest doc(ActionRequest request) {
+            return request instanceof IndexRequest ? (IndexRequest) request : ((UpdateRequest) request).doc();
+        }
+    }
+}
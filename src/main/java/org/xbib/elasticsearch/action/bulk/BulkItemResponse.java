@@ -27,6 +27,8 @@ import org.elasticsearch.action.update.UpdateResponse;
 import org.elasticsearch.common.io.stream.StreamInput;
 import org.elasticsearch.common.io.stream.StreamOutput;
 import org.elasticsearch.common.io.stream.Streamable;
+import org.elasticsearch.index.engine.DocumentAlreadyExistsException;
+import org.elasticsearch.index.engine.VersionConflictEngineException;
 import org.elasticsearch.rest.RestStatus;
 
 import java.io.IOException;
@@ -51,8 +53,14 @@ public class BulkItemResponse implements Streamable {
             this.index = index;
             this.type = type;
             this.id = id;
-            this.message = ExceptionsHelper.detailedMessage(t);
-            this.status = ExceptionsHelper.status(t);
+            if (t.getCause() == null && (t instanceof DocumentAlreadyExistsException || t instanceof VersionConflictEngineException)) {
+                // expected conflicts may come by the million, build the same message as detailedMessage() does, the cheap way
+                this.message = t.getClass().getSimpleName() + "[" + t.getMessage() + "]";
+                this.status = RestStatus.CONFLICT;
+            } else {
+                this.message = ExceptionsHelper.detailedMessage(t);
+                this.status = ExceptionsHelper.status(t);
+            }
         }
 
 
@@ -0,0 +1,554 @@
+package org.xbib.elasticsearch.action.bulk;
+
+import org.elasticsearch.ExceptionsHelper;
+import org.elasticsearch.action.ActionListener;
+import org.elasticsearch.action.ActionRequest;
+import org.elasticsearch.action.ActionResponse;
+import org.elasticsearch.action.DocumentRequest;
+import org.elasticsearch.action.delete.DeleteRequest;
+import org.elasticsearch.action.index.IndexRequest;
+import org.elasticsearch.action.update.UpdateRequest;
+import org.elasticsearch.client.Client;
+import org.elasticsearch.common.Nullable;
+import org.elasticsearch.common.unit.ByteSizeUnit;
+import org.elasticsearch.common.unit.ByteSizeValue;
+import org.elasticsearch.common.unit.TimeValue;
+import org.elasticsearch.common.util.concurrent.EsExecutors;
+import org.elasticsearch.common.util.concurrent.EsRejectedExecutionException;
+import org.elasticsearch.rest.RestStatus;
+import org.elasticsearch.threadpool.ThreadPool;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A bulk processor for {@link BulkAction}, which executes bulk requests once the number of actions,
+ * the size in bytes, or the flush interval is reached. The number of concurrently executing bulk
+ * requests is limited, and items rejected by an overloaded cluster are retried with exponential backoff.
+ * <p>
+ * In order to create a new bulk processor, use the {@link Builder}.
+ */
+public class BulkProcessor implements Closeable {
+
+    /**
+     * A listener for the execution.
+     */
+    public static interface Listener {
+
+        /**
+         * Callback before the bulk is executed.
+         */
+        void beforeBulk(long executionId, BulkRequest request);
+
+        /**
+         * Callback after a successful execution of bulk request. Items which were retried carry the
+         * response of their last attempt.
+         */
+        void afterBulk(long executionId, BulkRequest request, BulkResponse response);
+
+        /**
+         * Callback after a failed execution of bulk request.
+         */
+        void afterBulk(long executionId, BulkRequest request, Throwable failure);
+    }
+
+    /**
+     * A builder used to create a build an instance of a bulk processor.
+     */
+    public static class Builder {
+
+        private final Client client;
+        private final Listener listener;
+
+        private String name;
+        private int concurrentRequests = 1;
+        private int bulkActions = 1000;
+        private ByteSizeValue bulkSize = new ByteSizeValue(5, ByteSizeUnit.MB);
+        private TimeValue flushInterval = null;
+        private int maxRetries = 0;
+        private TimeValue retryInitialDelay = TimeValue.timeValueMillis(50);
+        private TimeValue retryMaxDelay = TimeValue.timeValueSeconds(5);
+
+        /**
+         * Creates a builder of bulk processor with the client to use and the listener that will be used
+         * to be notified on the completion of bulk requests.
+         */
+        public Builder(Client client, Listener listener) {
+            this.client = client;
+            this.listener = listener;
+        }
+
+        /**
+         * Sets an optional name to identify this bulk processor.
+         */
+        public Builder setName(String name) {
+            this.name = name;
+            return this;
+        }
+
+        /**
+         * Sets the number of concurrent requests allowed to be executed. A value of 0 means that only a single
+         * request will be allowed to be executed. A value of 1 means 1 concurrent request is allowed to be executed
+         * while accumulating new bulk requests. Defaults to <tt>1</tt>.
+         */
+        public Builder setConcurrentRequests(int concurrentRequests) {
+            this.concurrentRequests = concurrentRequests;
+            return this;
+        }
+
+        /**
+         * Sets when to flush a new bulk request based on the number of actions currently added. Defaults to
+         * <tt>1000</tt>. Can be set to <tt>-1</tt> to disable it.
+         */
+        public Builder setBulkActions(int bulkActions) {
+            this.bulkActions = bulkActions;
+            return this;
+        }
+
+        /**
+         * Sets when to flush a new bulk request based on the size of actions currently added. Defaults to
+         * <tt>5mb</tt>. Can be set to <tt>-1</tt> to disable it.
+         */
+        public Builder setBulkSize(ByteSizeValue bulkSize) {
+            this.bulkSize = bulkSize;
+            return this;
+        }
+
+        /**
+         * Sets a flush interval flushing *any* bulk actions pending if the interval passes. Defaults to not set.
+         * <p>
+         * Note, both {@link #setBulkActions(int)} and {@link #setBulkSize(org.elasticsearch.common.unit.ByteSizeValue)}
+         * can be set to <tt>-1</tt> with the flush interval set allowing for complete async processing of bulk actions.
+         */
+        public Builder setFlushInterval(TimeValue flushInterval) {
+            this.flushInterval = flushInterval;
+            return this;
+        }
+
+        /**
+         * Sets how many times items rejected with <tt>429 Too Many Requests</tt> are sent again. Defaults to <tt>0</tt>.
+         */
+        public Builder setMaxRetries(int maxRetries) {
+            this.maxRetries = maxRetries;
+            return this;
+        }
+
+        /**
+         * Sets the delay before the first retry, which doubles with every further retry. Defaults to <tt>50ms</tt>.
+         */
+        public Builder setRetryInitialDelay(TimeValue retryInitialDelay) {
+            this.retryInitialDelay = retryInitialDelay;
+            return this;
+        }
+
+        /**
+         * Sets the upper bound of the delay between retries. Defaults to <tt>5s</tt>.
+         */
+        public Builder setRetryMaxDelay(TimeValue retryMaxDelay) {
+            this.retryMaxDelay = retryMaxDelay;
+            return this;
+        }
+
+        /**
+         * Builds a new bulk processor.
+         */
+        public BulkProcessor build() {
+            return new BulkProcessor(client, listener, name, concurrentRequests, bulkActions, bulkSize, flushInterval,
+                    maxRetries, retryInitialDelay, retryMaxDelay);
+        }
+    }
+
+    public static Builder builder(Client client, Listener listener) {
+        if (client == null) {
+            throw new NullPointerException("The client you specified while building a BulkProcessor is null");
+        }
+        return new Builder(client, listener);
+    }
+
+    private final Client client;
+    private final Listener listener;
+
+    private final int concurrentRequests;
+    private final int bulkActions;
+    private final long bulkSize;
+    private final int maxRetries;
+    private final TimeValue retryInitialDelay;
+    private final TimeValue retryMaxDelay;
+
+    private final Semaphore semaphore;
+    private final ScheduledThreadPoolExecutor scheduler;
+    private final ScheduledFuture scheduledFuture;
+
+    private final AtomicLong executionIdGen = new AtomicLong();
+
+    private BulkRequest bulkRequest;
+
+    private volatile boolean closed = false;
+
+    BulkProcessor(Client client, Listener listener, @Nullable String name, int concurrentRequests, int bulkActions,
+                  ByteSizeValue bulkSize, @Nullable TimeValue flushInterval, int maxRetries, TimeValue retryInitialDelay,
+                  TimeValue retryMaxDelay) {
+        this.client = client;
+        this.listener = listener;
+        this.concurrentRequests = concurrentRequests;
+        this.bulkActions = bulkActions;
+        this.bulkSize = bulkSize.bytes();
+        this.maxRetries = maxRetries;
+        this.retryInitialDelay = retryInitialDelay;
+        this.retryMaxDelay = retryMaxDelay;
+
+        this.semaphore = new Semaphore(Math.max(1, concurrentRequests));
+        this.bulkRequest = new BulkRequest();
+
+        // retries are scheduled on the thread pool of the client, the own scheduler only flushes
+        if (flushInterval != null) {
+            this.scheduler = (ScheduledThreadPoolExecutor) Executors.newScheduledThreadPool(1,
+                    EsExecutors.daemonThreadFactory(client.settings(), (name != null ? "[" + name + "]" : "") + "bulkhex_processor"));
+            this.scheduler.setExecuteExistingDelayedTasksAfterShutdownPolicy(false);
+            this.scheduler.setContinueExistingPeriodicTasksAfterShutdownPolicy(false);
+            this.scheduledFuture = this.scheduler.scheduleWithFixedDelay(new Flush(), flushInterval.millis(),
+                    flushInterval.millis(), TimeUnit.MILLISECONDS);
+        } else {
+            this.scheduler = null;
+            this.scheduledFuture = null;
+        }
+    }
+
+    /**
+     * Closes the processor. If flushing by time is enabled, then it's shutdown. Any remaining bulk actions are flushed.
+     */
+    @Override
+    public void close() {
+        try {
+            awaitClose(0, TimeUnit.NANOSECONDS);
+        } catch (InterruptedException exc) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Closes the processor. If flushing by time is enabled, then it's shutdown. Any remaining bulk actions are flushed.
+     * <p>
+     * If concurrent requests are not enabled, returns {@code true} immediately.
+     * If concurrent requests are enabled, waits for up to the specified timeout for all bulk requests to complete,
+     * including their retries, then returns {@code true}.
+     * If the specified waiting time elapses before all bulk requests complete, {@code false} is returned.
+     *
+     * @param timeout The maximum time to wait for the bulk requests to complete
+     * @param unit    The time unit of the {@code timeout} argument
+     * @return {@code true} if all bulk requests completed and {@code false} if the waiting time elapsed before all the bulk requests completed
+     * @throws InterruptedException If the current thread is interrupted
+     */
+    public synchronized boolean awaitClose(long timeout, TimeUnit unit) throws InterruptedException {
+        if (closed) {
+            return true;
+        }
+        closed = true;
+        if (this.scheduledFuture != null) {
+            this.scheduledFuture.cancel(false);
+            this.scheduler.shutdown();
+        }
+        if (bulkRequest.numberOfActions() > 0) {
+            execute();
+        }
+        // the permits of bulk requests are released when they are done, including their retries
+        if (concurrentRequests > 0) {
+            if (semaphore.tryAcquire(this.concurrentRequests, timeout, unit)) {
+                semaphore.release(this.concurrentRequests);
+                return true;
+            }
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Adds an {@link IndexRequest} to the list of actions to execute. Follows the same behavior of {@link IndexRequest}
+     * (for example, if no id is provided, one will be generated, or usage of the create flag).
+     */
+    public BulkProcessor add(IndexRequest request) {
+        return add((ActionRequest) request);
+    }
+
+    /**
+     * Adds an {@link DeleteRequest} to the list of actions to execute.
+     */
+    public BulkProcessor add(DeleteRequest request) {
+        return add((ActionRequest) request);
+    }
+
+    /**
+     * Adds an {@link UpdateRequest} to the list of actions to execute.
+     */
+    public BulkProcessor add(UpdateRequest request) {
+        return add((ActionRequest) request);
+    }
+
+    /**
+     * Adds either a delete, an index, or an update request.
+     */
+    public BulkProcessor add(ActionRequest request) {
+        return add(request, null);
+    }
+
+    public BulkProcessor add(ActionRequest request, @Nullable Object payload) {
+        internalAdd(request, payload);
+        return this;
+    }
+
+    private synchronized void internalAdd(ActionRequest request, @Nullable Object payload) {
+        ensureOpen();
+        bulkRequest.add(request, payload);
+        executeIfNeeded();
+    }
+
+    /**
+     * Flush pending delete or index requests.
+     */
+    public synchronized void flush() {
+        ensureOpen();
+        if (bulkRequest.numberOfActions() > 0) {
+            execute();
+        }
+    }
+
+    protected void ensureOpen() {
+        if (closed) {
+            throw new IllegalStateException("bulk process already closed");
+        }
+    }
+
+    private void executeIfNeeded() {
+        ensureOpen();
+        if (!isOverTheLimit()) {
+            return;
+        }
+        execute();
+    }
+
+    // (currently) needs to be executed under a lock
+    private void execute() {
+        final BulkRequest bulkRequest = this.bulkRequest;
+        final long executionId = executionIdGen.incrementAndGet();
+        this.bulkRequest = new BulkRequest();
+
+        boolean success = false;
+        try {
+            listener.beforeBulk(executionId, bulkRequest);
+            semaphore.acquire();
+            Execution execution = new Execution(executionId, bulkRequest);
+            execution.start();
+            success = true;
+            if (concurrentRequests == 0) {
+                execution.latch.await();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            if (!success) {
+                listener.afterBulk(executionId, bulkRequest, e);
+            }
+        } catch (Throwable t) {
+            listener.afterBulk(executionId, bulkRequest, t);
+        } finally {
+            if (!success) {
+                semaphore.release();
+            }
+        }
+    }
+
+    private boolean isOverTheLimit() {
+        if (bulkActions != -1 && bulkRequest.numberOfActions() >= bulkActions) {
+            return true;
+        }
+        if (bulkSize != -1 && bulkRequest.estimatedSizeInBytes() >= bulkSize) {
+            return true;
+        }
+        return false;
+    }
+
+    private TimeValue retryDelay(int retry) {
+        long delay = Math.min(retryInitialDelay.millis() << Math.min(retry, 30), retryMaxDelay.millis());
+        long half = Math.max(1, delay / 2);
+        return TimeValue.timeValueMillis(delay - half + ThreadLocalRandom.current().nextLong(half + 1));
+    }
+
+    class Flush implements Runnable {
+
+        @Override
+        public void run() {
+            synchronized (BulkProcessor.this) {
+                if (closed) {
+                    return;
+                }
+                if (bulkRequest.numberOfActions() == 0) {
+                    return;
+                }
+                execute();
+            }
+        }
+    }
+
+    /**
+     * The execution of a bulk request, including the retries of its rejected items. The responses of
+     * all attempts are merged into one response, with the item ids of the original bulk request.
+     */
+    private class Execution implements ActionListener<BulkResponse> {
+
+        final long executionId;
+
+        final BulkRequest bulkRequest;
+
+        final BulkItemResponse[] responses;
+
+        final CountDownLatch latch = new CountDownLatch(1);
+
+        // the positions in the original bulk request of the items of the current attempt
+        int[] positions;
+
+        BulkRequest current;
+
+        int retries;
+
+        long tookInMillis;
+
+        Execution(long executionId, BulkRequest bulkRequest) {
+            this.executionId = executionId;
+            this.bulkRequest = bulkRequest;
+            this.responses = new BulkItemResponse[bulkRequest.numberOfActions()];
+            this.current = bulkRequest;
+            this.positions = new int[bulkRequest.numberOfActions()];
+            for (int i = 0; i < positions.length; i++) {
+                positions[i] = i;
+            }
+        }
+
+        void start() {
+            client.execute(BulkAction.INSTANCE, current, this);
+        }
+
+        @Override
+        public void onResponse(BulkResponse response) {
+            tookInMillis += response.getTookInMillis();
+            List<Integer> rejected = new ArrayList<>();
+            for (BulkItemResponse item : response.getItems()) {
+                int pos = positions[item.getItemId()];
+                responses[pos] = withItemId(pos, item);
+                if (item.isFailed() && item.getFailure().getStatus() == RestStatus.TOO_MANY_REQUESTS) {
+                    rejected.add(pos);
+                }
+            }
+            if (!rejected.isEmpty() && retries < maxRetries) {
+                BulkRequest retryRequest = retryRequest();
+                int[] retryPositions = new int[rejected.size()];
+                for (int i = 0; i < retryPositions.length; i++) {
+                    retryPositions[i] = rejected.get(i);
+                    retryRequest.add(bulkRequest.requests().get(retryPositions[i]),
+                            bulkRequest.payloads() != null ? bulkRequest.payloads().get(retryPositions[i]) : null);
+                }
+                current = retryRequest;
+                positions = retryPositions;
+                if (retry()) {
+                    return;
+                }
+            }
+            finish(null);
+        }
+
+        @Override
+        public void onFailure(Throwable e) {
+            if (ExceptionsHelper.unwrapCause(e) instanceof EsRejectedExecutionException && retries < maxRetries && retry()) {
+                return;
+            }
+            if (current == bulkRequest) {
+                finish(e);
+                return;
+            }
+            // a retry failed as a whole, the items of the retry fail with it
+            for (int pos : positions) {
+                responses[pos] = failure(pos, bulkRequest.requests().get(pos), e);
+            }
+            finish(null);
+        }
+
+        /**
+         * A new bulk request with the settings of the original bulk request.
+         */
+        private BulkRequest retryRequest() {
+            BulkRequest retryRequest = new BulkRequest();
+            retryRequest.replicationType(bulkRequest.replicationType());
+            retryRequest.consistencyLevel(bulkRequest.consistencyLevel());
+            retryRequest.timeout(bulkRequest.timeout());
+            if (bulkRequest.waitForRefresh()) {
+                retryRequest.waitForRefresh(true);
+            } else {
+                retryRequest.refresh(bulkRequest.refresh());
+            }
+            retryRequest.collapse(bulkRequest.collapse());
+            return retryRequest;
+        }
+
+        private boolean retry() {
+            try {
+                // not on our own scheduler, its single thread may be blocked by a flush waiting for a permit
+                client.threadPool().schedule(retryDelay(retries++), ThreadPool.Names.SAME, new Runnable() {
+                    @Override
+                    public void run() {
+                        start();
+                    }
+                });
+                return true;
+            } catch (RejectedExecutionException | EsRejectedExecutionException e) {
+                // closed, report what we have got
+                return false;
+            }
+        }
+
+        private void finish(Throwable failure) {
+            try {
+                if (failure != null) {
+                    listener.afterBulk(executionId, bulkRequest, failure);
+                } else {
+                    listener.afterBulk(executionId, bulkRequest, new BulkResponse(responses, tookInMillis));
+                }
+            } finally {
+                semaphore.release();
+                latch.countDown();
+            }
+        }
+    }
+
+    private static BulkItemResponse withItemId(int id, BulkItemResponse response) {
+        if (response.getItemId() == id) {
+            return response;
+        }
+        if (response.isFailed()) {
+            return new BulkItemResponse(id, response.getOpType(), response.getFailure());
+        }
+        return new BulkItemResponse(id, response.getOpType(), (ActionResponse) response.getResponse());
+    }
+
+    private static BulkItemResponse failure(int id, ActionRequest request, Throwable e) {
+        DocumentRequest documentRequest = (DocumentRequest) request;
+        String opType;
+        if (request instanceof IndexRequest) {
+            opType = ((IndexRequest) request).opType().toString().toLowerCase(Locale.ENGLISH);
+        } else if (request instanceof DeleteRequest) {
+            opType = "delete";
+        } else {
+            opType = "update";
+        }
+        return new BulkItemResponse(id, opType, new BulkItemResponse.Failure(documentRequest.index(),
+                documentRequest.type(), documentRequest.id(), e));
+    }
+}
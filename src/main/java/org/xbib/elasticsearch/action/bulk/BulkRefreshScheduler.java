@@ -0,0 +1,133 @@
+package org.xbib.elasticsearch.action.bulk;
+
+import org.elasticsearch.action.ActionListener;
+import org.elasticsearch.action.WriteConsistencyLevel;
+import org.elasticsearch.common.logging.ESLogger;
+import org.elasticsearch.common.logging.Loggers;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.common.unit.TimeValue;
+import org.elasticsearch.index.shard.ShardId;
+import org.elasticsearch.threadpool.ThreadPool;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Holds the responses of bulk requests which wait for a refresh, and releases them together after
+ * a single shared refresh of the shards they have written to. The refresh is scheduled when the first
+ * bulk request starts waiting, so there is at most one refresh per interval, no matter how many
+ * bulk requests are waiting. Each written shard is refreshed by an empty shard bulk request with the
+ * refresh flag, so the primary and the replicas of the written shards are refreshed, and no other shard.
+ */
+class BulkRefreshScheduler {
+
+    private final ESLogger logger;
+
+    private final ThreadPool threadPool;
+
+    private final TransportShardBulkAction shardBulkAction;
+
+    private final TimeValue interval;
+
+    private final Object mutex = new Object();
+
+    private Set<ShardId> shardIds = new HashSet<>();
+
+    private List<Runnable> waiters = new ArrayList<>();
+
+    private boolean scheduled;
+
+    BulkRefreshScheduler(Settings settings, ThreadPool threadPool, TransportShardBulkAction shardBulkAction) {
+        this.logger = Loggers.getLogger(getClass(), settings);
+        this.threadPool = threadPool;
+        this.shardBulkAction = shardBulkAction;
+        this.interval = settings.getAsTime("action.bulkhex.refresh.interval", TimeValue.timeValueSeconds(1));
+    }
+
+    /**
+     * Wraps the listener of a bulk request, so the response is held until the next refresh of the given shards.
+     */
+    ActionListener<BulkResponse> wrap(final Set<ShardId> shardIds, final ActionListener<BulkResponse> listener) {
+        return new ActionListener<BulkResponse>() {
+            @Override
+            public void onResponse(final BulkResponse bulkResponse) {
+                waitForRefresh(shardIds, new Runnable() {
+                    @Override
+                    public void run() {
+                        listener.onResponse(bulkResponse);
+                    }
+                });
+            }
+
+            @Override
+            public void onFailure(Throwable e) {
+                listener.onFailure(e);
+            }
+        };
+    }
+
+    private void waitForRefresh(Set<ShardId> shardIds, Runnable waiter) {
+        synchronized (mutex) {
+            this.shardIds.addAll(shardIds);
+            this.waiters.add(waiter);
+            if (scheduled) {
+                return;
+            }
+            scheduled = true;
+        }
+        threadPool.schedule(interval, ThreadPool.Names.SAME, new Runnable() {
+            @Override
+            public void run() {
+                refresh();
+            }
+        });
+    }
+
+    private void refresh() {
+        final Set<ShardId> shardIds;
+        final List<Runnable> waiters;
+        synchronized (mutex) {
+            shardIds = this.shardIds;
+            waiters = this.waiters;
+            this.shardIds = new HashSet<>();
+            this.waiters = new ArrayList<>();
+            scheduled = false;
+        }
+        final AtomicInteger counter = new AtomicInteger(shardIds.size());
+        for (final ShardId shardId : shardIds) {
+            BulkShardRequest refreshRequest = new BulkShardRequest(new BulkRequest(), shardId.index().name(), shardId.id(),
+                    true, new BulkItemRequest[0]);
+            refreshRequest.consistencyLevel(WriteConsistencyLevel.ONE);
+            shardBulkAction.execute(refreshRequest, new ActionListener<BulkShardResponse>() {
+                @Override
+                public void onResponse(BulkShardResponse bulkShardResponse) {
+                    if (counter.decrementAndGet() == 0) {
+                        release(waiters);
+                    }
+                }
+
+                @Override
+                public void onFailure(Throwable e) {
+                    // like a failed refresh after a shard bulk, this does not fail the bulk requests
+                    logger.debug("failed to refresh {} after bulk", e, shardId);
+                    if (counter.decrementAndGet() == 0) {
+                        release(waiters);
+                    }
+                }
+            });
+        }
+    }
+
+    private void release(List<Runnable> waiters) {
+        for (Runnable waiter : waiters) {
+            try {
+                waiter.run();
+            } catch (Throwable t) {
+                logger.warn("failed to release bulk response after refresh", t);
+            }
+        }
+    }
+}
@@ -5,6 +5,7 @@ import org.elasticsearch.ElasticsearchIllegalArgumentException;
 import org.elasticsearch.action.*;
 import org.elasticsearch.action.delete.DeleteRequest;
 import org.elasticsearch.action.index.IndexRequest;
+import org.elasticsearch.action.support.replication.ReplicationType;
 import org.elasticsearch.action.update.UpdateRequest;
 import org.elasticsearch.common.Nullable;
 import org.elasticsearch.common.io.stream.StreamInput;
@@ -30,9 +31,15 @@ public class BulkRequest extends ActionRequest<BulkRequest> implements Composite
     List<Object> payloads = null;
 
     protected TimeValue timeout = BulkShardRequest.DEFAULT_TIMEOUT;
+    private ReplicationType replicationType = ReplicationType.DEFAULT;
+
     private WriteConsistencyLevel consistencyLevel = WriteConsistencyLevel.DEFAULT;
     private boolean refresh = false;
 
+    private boolean waitForRefresh = false;
+
+    private boolean collapse = false;
+
     private long sizeInBytes = 0;
 
     /**
@@ -87,7 +94,7 @@ public class BulkRequest extends ActionRequest<BulkRequest> implements Composite
     BulkRequest internalAdd(IndexRequest request, @Nullable Object payload) {
         requests.add(request);
         addPayload(payload);
-        sizeInBytes += request.source().length() + REQUEST_OVERHEAD;
+        sizeInBytes += estimatedSizeInBytes(request);
         return this;
     }
 
@@ -107,15 +114,7 @@ public class BulkRequest extends ActionRequest<BulkRequest> implements Composite
     BulkRequest internalAdd(UpdateRequest request, @Nullable Object payload) {
         requests.add(request);
         addPayload(payload);
-        if (request.doc() != null) {
-            sizeInBytes += request.doc().source().length();
-        }
-        if (request.upsertRequest() != null) {
-            sizeInBytes += request.upsertRequest().source().length();
-        }
-        if (request.script() != null) {
-            sizeInBytes += request.script().length() * 2;
-        }
+        sizeInBytes += estimatedSizeInBytes(request);
         return this;
     }
 
@@ -129,10 +128,34 @@ public class BulkRequest extends ActionRequest<BulkRequest> implements Composite
     public BulkRequest add(DeleteRequest request, @Nullable Object payload) {
         requests.add(request);
         addPayload(payload);
-        sizeInBytes += REQUEST_OVERHEAD;
+        sizeInBytes += estimatedSizeInBytes(request);
         return this;
     }
 
+    /**
+     * The estimated size in bytes of a single index, update or delete request, as it is accounted for
+     * in {@link #estimatedSizeInBytes()}.
+     */
+    static long estimatedSizeInBytes(ActionRequest request) {
+        if (request instanceof IndexRequest) {
+            return ((IndexRequest) request).source().length() + REQUEST_OVERHEAD;
+        } else if (request instanceof UpdateRequest) {
+            UpdateRequest updateRequest = (UpdateRequest) request;
+            long size = 0;
+            if (updateRequest.doc() != null) {
+                size += updateRequest.doc().source().length();
+            }
+            if (updateRequest.upsertRequest() != null) {
+                size += updateRequest.upsertRequest().source().length();
+            }
+            if (updateRequest.script() != null) {
+                size += updateRequest.script().length() * 2;
+            }
+            return size;
+        }
+        return REQUEST_OVERHEAD;
+    }
+
     private void addPayload(Object payload) {
         if (payloads == null) {
             if (payload == null) {
@@ -189,6 +212,19 @@ public class BulkRequest extends ActionRequest<BulkRequest> implements Composite
         return sizeInBytes;
     }
 
+    /**
+     * Sets the replication type. With {@link org.elasticsearch.action.support.replication.ReplicationType#ASYNC},
+     * the response returns after the write on the primary shards, and the replicas are updated in the background.
+     */
+    public BulkRequest replicationType(ReplicationType replicationType) {
+        this.replicationType = replicationType;
+        return this;
+    }
+
+    public ReplicationType replicationType() {
+        return this.replicationType;
+    }
+
     /**
      * Sets the consistency level of write. Defaults to {@link org.elasticsearch.action.WriteConsistencyLevel#DEFAULT}
      */
@@ -208,6 +244,9 @@ public class BulkRequest extends ActionRequest<BulkRequest> implements Composite
      */
     public BulkRequest refresh(boolean refresh) {
         this.refresh = refresh;
+        if (refresh) {
+            this.waitForRefresh = false;
+        }
         return this;
     }
 
@@ -215,6 +254,38 @@ public class BulkRequest extends ActionRequest<BulkRequest> implements Composite
         return this.refresh;
     }
 
+    /**
+     * Should the response be held until the next shared refresh of the written indices, instead of
+     * refreshing the shards after this bulk operation. The operations are searchable when the response
+     * returns, but concurrent bulk requests share one refresh. Overrides {@link #refresh(boolean)}.
+     * Defaults to <tt>false</tt>.
+     */
+    public BulkRequest waitForRefresh(boolean waitForRefresh) {
+        this.waitForRefresh = waitForRefresh;
+        if (waitForRefresh) {
+            this.refresh = false;
+        }
+        return this;
+    }
+
+    public boolean waitForRefresh() {
+        return this.waitForRefresh;
+    }
+
+    /**
+     * Should successive index and update operations on the same document be collapsed into a single
+     * operation before they are sent to the shard. Index operations are last-write-wins, and the docs of
+     * partial updates are merged in order. Every item still receives its own response. Defaults to <tt>false</tt>.
+     */
+    public BulkRequest collapse(boolean collapse) {
+        this.collapse = collapse;
+        return this;
+    }
+
+    public boolean collapse() {
+        return this.collapse;
+    }
+
     /**
      * A timeout to wait if the index operation can't be performed immediately. Defaults to <tt>1m</tt>.
      */
@@ -256,6 +327,7 @@ public class BulkRequest extends ActionRequest<BulkRequest> implements Composite
     @Override
     public void readFrom(StreamInput in) throws IOException {
         super.readFrom(in);
+        replicationType = ReplicationType.fromId(in.readByte());
         consistencyLevel = WriteConsistencyLevel.fromId(in.readByte());
         int size = in.readVInt();
         for (int i = 0; i < size; i++) {
@@ -276,11 +348,14 @@ public class BulkRequest extends ActionRequest<BulkRequest> implements Composite
         }
         refresh = in.readBoolean();
         timeout = TimeValue.readTimeValue(in);
+        collapse = in.readBoolean();
+        waitForRefresh = in.readBoolean();
     }
 
     @Override
     public void writeTo(StreamOutput out) throws IOException {
         super.writeTo(out);
+        out.writeByte(replicationType.id());
         out.writeByte(consistencyLevel.id());
         out.writeVInt(requests.size());
         for (ActionRequest request : requests) {
@@ -295,5 +370,7 @@ public class BulkRequest extends ActionRequest<BulkRequest> implements Composite
         }
         out.writeBoolean(refresh);
         timeout.writeTo(out);
+        out.writeBoolean(collapse);
+        out.writeBoolean(waitForRefresh);
     }
 }
@@ -7,6 +7,7 @@ import org.elasticsearch.action.delete.DeleteRequest;
 import org.elasticsearch.action.delete.DeleteRequestBuilder;
 import org.elasticsearch.action.index.IndexRequest;
 import org.elasticsearch.action.index.IndexRequestBuilder;
+import org.elasticsearch.action.support.replication.ReplicationType;
 import org.elasticsearch.action.update.UpdateRequest;
 import org.elasticsearch.action.update.UpdateRequestBuilder;
 import org.elasticsearch.client.Client;
@@ -73,6 +74,14 @@ public class BulkRequestBuilder extends ActionRequestBuilder<BulkRequest, BulkRe
         return this;
     }
 
+    /**
+     * Set the replication type for this operation.
+     */
+    public BulkRequestBuilder setReplicationType(ReplicationType replicationType) {
+        request.replicationType(replicationType);
+        return this;
+    }
+
     /**
      * Sets the consistency level. Defaults to {@link org.elasticsearch.action.WriteConsistencyLevel#DEFAULT}.
      */
@@ -91,6 +100,24 @@ public class BulkRequestBuilder extends ActionRequestBuilder<BulkRequest, BulkRe
         return this;
     }
 
+    /**
+     * Should the response be held until the next shared refresh of the written indices, instead of
+     * refreshing the shards after this bulk operation. Defaults to <tt>false</tt>.
+     */
+    public BulkRequestBuilder setWaitForRefresh(boolean waitForRefresh) {
+        request.waitForRefresh(waitForRefresh);
+        return this;
+    }
+
+    /**
+     * Should successive index and update operations on the same document be collapsed into a single
+     * operation before they are sent to the shard. Defaults to <tt>false</tt>.
+     */
+    public BulkRequestBuilder setCollapse(boolean collapse) {
+        request.collapse(collapse);
+        return this;
+    }
+
     /**
      * A timeout to wait if the index operation can't be performed immediately. Defaults to <tt>1m</tt>.
      */
@@ -0,0 +1,160 @@
+package org.xbib.elasticsearch.action.bulk;
+
+import org.elasticsearch.ElasticsearchException;
+import org.elasticsearch.action.index.IndexRequest;
+import org.elasticsearch.common.component.AbstractLifecycleComponent;
+import org.elasticsearch.common.inject.Inject;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.common.util.concurrent.EsExecutors;
+import org.elasticsearch.common.util.concurrent.EsRejectedExecutionException;
+import org.elasticsearch.index.engine.Engine;
+import org.elasticsearch.index.mapper.SourceToParse;
+import org.elasticsearch.index.shard.IndexShard;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Parses the sources of the index items of a shard bulk request into engine operations, using several threads.
+ * The calling thread takes part in parsing, so parsing never waits for a free worker thread.
+ * The operations are returned in item order, and the caller applies them to the engine one after another,
+ * which keeps the version semantics of a sequential execution.
+ * The parser is a plugin service, so its threads are shut down when the node is closed.
+ */
+public class ParallelDocumentParser extends AbstractLifecycleComponent<ParallelDocumentParser> {
+
+    private final int primaryParallelism;
+
+    private final int replicaParallelism;
+
+    private final ExecutorService executor;
+
+    @Inject
+    public ParallelDocumentParser(Settings settings) {
+        super(settings);
+        this.primaryParallelism = settings.getAsInt("action.bulkhex.primary.parse_parallelism", 1);
+        this.replicaParallelism = settings.getAsInt("action.bulkhex.replica.parse_parallelism", 1);
+        int maxParallelism = Math.max(primaryParallelism, replicaParallelism);
+        this.executor = maxParallelism > 1 ? EsExecutors.newScaling(0, maxParallelism - 1, 5, TimeUnit.MINUTES,
+                EsExecutors.daemonThreadFactory(settings, "bulkhex_parse")) : null;
+    }
+
+    /**
+     * The number of threads parsing a shard bulk request on the primary, 1 means no parallel parsing.
+     */
+    public int primaryParallelism() {
+        return primaryParallelism;
+    }
+
+    /**
+     * The number of threads parsing a shard bulk request on a replica, 1 means no parallel parsing.
+     */
+    public int replicaParallelism() {
+        return replicaParallelism;
+    }
+
+    @Override
+    protected void doStart() throws ElasticsearchException {
+    }
+
+    @Override
+    protected void doStop() throws ElasticsearchException {
+    }
+
+    @Override
+    protected void doClose() throws ElasticsearchException {
+        if (executor != null) {
+            executor.shutdown();
+        }
+    }
+
+    /**
+     * Parses the index items of the shard bulk request.
+     *
+     * @return the prepared operations by item position, <tt>null</tt> at positions of items which are not parsed ahead
+     * and have to be parsed by the caller
+     */
+    PreparedOperation[] parse(final IndexShard indexShard, final BulkShardRequest request, final Engine.Operation.Origin origin, int parallelism) {
+        final BulkItemRequest[] items = request.items();
+        final PreparedOperation[] operations = new PreparedOperation[items.length];
+        final AtomicInteger cursor = new AtomicInteger();
+        final CountDownLatch latch = new CountDownLatch(items.length);
+        Runnable task = new Runnable() {
+            @Override
+            public void run() {
+                int i;
+                while ((i = cursor.getAndIncrement()) < items.length) {
+                    try {
+                        operations[i] = prepare(indexShard, request, items[i], origin);
+                    } finally {
+                        latch.countDown();
+                    }
+                }
+            }
+        };
+        int workers = Math.min(parallelism, items.length) - 1;
+        for (int i = 0; i < workers && executor != null; i++) {
+            try {
+                executor.execute(task);
+            } catch (EsRejectedExecutionException e) {
+                // closed or busy, the calling thread parses what is left
+                break;
+            }
+        }
+        task.run();
+        boolean interrupted = false;
+        while (true) {
+            try {
+                latch.await();
+                break;
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+        return operations;
+    }
+
+    private static PreparedOperation prepare(IndexShard indexShard, BulkShardRequest request, BulkItemRequest item, Engine.Operation.Origin origin) {
+        if (item == null || !(item.request() instanceof IndexRequest)) {
+            return null;
+        }
+        if (origin == Engine.Operation.Origin.REPLICA && item.isIgnoreOnReplica()) {
+            return null;
+        }
+        IndexRequest indexRequest = (IndexRequest) item.request();
+        SourceToParse.Origin sourceOrigin = origin == Engine.Operation.Origin.PRIMARY ? SourceToParse.Origin.PRIMARY : SourceToParse.Origin.REPLICA;
+        try {
+            SourceToParse sourceToParse = SourceToParse.source(sourceOrigin, indexRequest.source()).type(indexRequest.type()).id(indexRequest.id())
+                    .routing(indexRequest.routing()).parent(indexRequest.parent()).timestamp(indexRequest.timestamp()).ttl(indexRequest.ttl());
+            if (indexRequest.opType() == IndexRequest.OpType.INDEX) {
+                return new PreparedOperation(indexShard.prepareIndex(sourceToParse, indexRequest.version(), indexRequest.versionType(),
+                        origin, request.canHaveDuplicates() || indexRequest.canHaveDuplicates()), null);
+            } else {
+                return new PreparedOperation(indexShard.prepareCreate(sourceToParse, indexRequest.version(), indexRequest.versionType(),
+                        origin, request.canHaveDuplicates() || indexRequest.canHaveDuplicates(), indexRequest.autoGeneratedId()), null);
+            }
+        } catch (RuntimeException e) {
+            return new PreparedOperation(null, e);
+        }
+    }
+
+    /**
+     * An engine operation which is ready to be applied, or the failure from preparing it.
+     */
+    static class PreparedOperation {
+
+        final Engine.IndexingOperation operation;
+
+        final RuntimeException failure;
+
+        PreparedOperation(Engine.IndexingOperation operation, RuntimeException failure) {
+            this.operation = operation;
+            this.failure = failure;
+        }
+    }
+}
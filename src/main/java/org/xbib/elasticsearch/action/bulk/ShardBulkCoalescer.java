@@ -0,0 +1,261 @@
+package org.xbib.elasticsearch.action.bulk;
+
+import org.elasticsearch.action.ActionListener;
+import org.elasticsearch.action.ActionResponse;
+import org.elasticsearch.action.WriteConsistencyLevel;
+import org.elasticsearch.action.support.replication.ReplicationType;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.common.unit.ByteSizeUnit;
+import org.elasticsearch.common.unit.ByteSizeValue;
+import org.elasticsearch.common.unit.TimeValue;
+import org.elasticsearch.common.util.concurrent.ConcurrentCollections;
+import org.elasticsearch.index.shard.ShardId;
+import org.elasticsearch.threadpool.ThreadPool;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Merges the shard bulk requests of concurrent bulk requests which are bound for the same shard
+ * into a single {@link BulkShardRequest}. Items are collected per shard until the flush interval
+ * has elapsed, or until the maximum number of actions or bytes is reached, whatever comes first.
+ * The shard response is split up again, so every caller receives the responses of its own items,
+ * with its own item ids.
+ */
+class ShardBulkCoalescer {
+
+    private final ThreadPool threadPool;
+
+    private final TransportShardBulkAction shardBulkAction;
+
+    private final TimeValue interval;
+
+    private final int maxActions;
+
+    private final long maxSizeInBytes;
+
+    private final ConcurrentMap<Key, Batch> batches = ConcurrentCollections.newConcurrentMap();
+
+    ShardBulkCoalescer(Settings settings, ThreadPool threadPool, TransportShardBulkAction shardBulkAction) {
+        this.threadPool = threadPool;
+        this.shardBulkAction = shardBulkAction;
+        this.interval = settings.getAsTime("action.bulkhex.coalesce.interval", TimeValue.timeValueMillis(5));
+        this.maxActions = settings.getAsInt("action.bulkhex.coalesce.max_actions", 1000);
+        this.maxSizeInBytes = settings.getAsBytesSize("action.bulkhex.coalesce.max_size",
+                new ByteSizeValue(5, ByteSizeUnit.MB)).bytes();
+    }
+
+    /**
+     * Adds the items of a bulk request which are bound for the given shard to the pending batch of the shard.
+     * Bulk requests carrying headers or context are executed on their own, because a merged shard request
+     * can only carry the headers and context of one of them.
+     */
+    void execute(BulkRequest bulkRequest, ShardId shardId, List<BulkItemRequest> items, ActionListener<BulkShardResponse> listener) {
+        if (!bulkRequest.getHeaders().isEmpty() || !bulkRequest.isContextEmpty()) {
+            BulkShardRequest bulkShardRequest = new BulkShardRequest(bulkRequest, shardId.index().name(), shardId.id(),
+                    bulkRequest.refresh(), items.toArray(new BulkItemRequest[items.size()]));
+            bulkShardRequest.replicationType(bulkRequest.replicationType());
+            bulkShardRequest.consistencyLevel(bulkRequest.consistencyLevel());
+            bulkShardRequest.timeout(bulkRequest.timeout());
+            shardBulkAction.execute(bulkShardRequest, listener);
+            return;
+        }
+        Key key = new Key(shardId, bulkRequest.refresh(), bulkRequest.replicationType(), bulkRequest.consistencyLevel());
+        Entry entry = new Entry(bulkRequest, items, listener);
+        while (true) {
+            Batch batch = batches.get(key);
+            if (batch == null) {
+                batch = new Batch(key);
+                Batch existing = batches.putIfAbsent(key, batch);
+                if (existing != null) {
+                    batch = existing;
+                } else {
+                    final Batch scheduled = batch;
+                    threadPool.schedule(interval, ThreadPool.Names.SAME, new Runnable() {
+                        @Override
+                        public void run() {
+                            flush(scheduled);
+                        }
+                    });
+                }
+            }
+            if (batch.add(entry)) {
+                if (batch.isFull()) {
+                    flush(batch);
+                }
+                return;
+            }
+            // the batch has been flushed concurrently, start over with a new one
+        }
+    }
+
+    private void flush(Batch batch) {
+        if (!batch.close()) {
+            return;
+        }
+        batches.remove(batch.key, batch);
+        final List<Entry> entries = batch.entries;
+        if (entries.size() == 1) {
+            Entry entry = entries.get(0);
+            BulkShardRequest bulkShardRequest = new BulkShardRequest(entry.bulkRequest, batch.key.shardId.index().name(),
+                    batch.key.shardId.id(), batch.key.refresh, entry.items.toArray(new BulkItemRequest[entry.items.size()]));
+            bulkShardRequest.replicationType(batch.key.replicationType);
+            bulkShardRequest.consistencyLevel(batch.key.consistencyLevel);
+            bulkShardRequest.timeout(entry.bulkRequest.timeout());
+            shardBulkAction.execute(bulkShardRequest, entry.listener);
+            return;
+        }
+        // renumber the items by their position in the merged request, and remember where they came from
+        final BulkItemRequest[] items = new BulkItemRequest[batch.actions];
+        final Entry[] owners = new Entry[batch.actions];
+        final int[] itemIds = new int[batch.actions];
+        TimeValue timeout = entries.get(0).bulkRequest.timeout();
+        int pos = 0;
+        for (Entry entry : entries) {
+            for (BulkItemRequest item : entry.items) {
+                items[pos] = new BulkItemRequest(pos, item.request());
+                owners[pos] = entry;
+                itemIds[pos] = item.id();
+                pos++;
+            }
+            if (entry.bulkRequest.timeout().millis() > timeout.millis()) {
+                timeout = entry.bulkRequest.timeout();
+            }
+        }
+        final ShardId shardId = batch.key.shardId;
+        BulkShardRequest bulkShardRequest = new BulkShardRequest(entries.get(0).bulkRequest, shardId.index().name(),
+                shardId.id(), batch.key.refresh, items);
+        bulkShardRequest.replicationType(batch.key.replicationType);
+        bulkShardRequest.consistencyLevel(batch.key.consistencyLevel);
+        bulkShardRequest.timeout(timeout);
+        shardBulkAction.execute(bulkShardRequest, new ActionListener<BulkShardResponse>() {
+            @Override
+            public void onResponse(BulkShardResponse bulkShardResponse) {
+                for (Entry entry : entries) {
+                    entry.responses = new ArrayList<>(entry.items.size());
+                }
+                for (BulkItemResponse response : bulkShardResponse.getResponses()) {
+                    int pos = response.getItemId();
+                    owners[pos].responses.add(withItemId(itemIds[pos], response));
+                }
+                for (Entry entry : entries) {
+                    entry.listener.onResponse(new BulkShardResponse(shardId,
+                            entry.responses.toArray(new BulkItemResponse[entry.responses.size()])));
+                }
+            }
+
+            @Override
+            public void onFailure(Throwable e) {
+                for (Entry entry : entries) {
+                    entry.listener.onFailure(e);
+                }
+            }
+        });
+    }
+
+    private static BulkItemResponse withItemId(int id, BulkItemResponse response) {
+        if (response.isFailed()) {
+            return new BulkItemResponse(id, response.getOpType(), response.getFailure());
+        }
+        return new BulkItemResponse(id, response.getOpType(), (ActionResponse) response.getResponse());
+    }
+
+    private static class Key {
+
+        final ShardId shardId;
+
+        final boolean refresh;
+
+        final ReplicationType replicationType;
+
+        final WriteConsistencyLevel consistencyLevel;
+
+        Key(ShardId shardId, boolean refresh, ReplicationType replicationType, WriteConsistencyLevel consistencyLevel) {
+            this.shardId = shardId;
+            this.refresh = refresh;
+            this.replicationType = replicationType;
+            this.consistencyLevel = consistencyLevel;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (o == null || getClass() != o.getClass()) {
+                return false;
+            }
+            Key key = (Key) o;
+            return refresh == key.refresh && shardId.equals(key.shardId)
+                    && replicationType == key.replicationType && consistencyLevel == key.consistencyLevel;
+        }
+
+        @Override
+        public int hashCode() {
+            int result = shardId.hashCode();
+            result = 31 * result + (refresh ? 1 : 0);
+            result = 31 * result + replicationType.hashCode();
+            result = 31 * result + consistencyLevel.hashCode();
+            return result;
+        }
+    }
+
+    private static class Entry {
+
+        final BulkRequest bulkRequest;
+
+        final List<BulkItemRequest> items;
+
+        final ActionListener<BulkShardResponse> listener;
+
+        List<BulkItemResponse> responses;
+
+        Entry(BulkRequest bulkRequest, List<BulkItemRequest> items, ActionListener<BulkShardResponse> listener) {
+            this.bulkRequest = bulkRequest;
+            this.items = items;
+            this.listener = listener;
+        }
+    }
+
+    private class Batch {
+
+        final Key key;
+
+        final List<Entry> entries = new ArrayList<>();
+
+        int actions;
+
+        long sizeInBytes;
+
+        boolean closed;
+
+        Batch(Key key) {
+            this.key = key;
+        }
+
+        synchronized boolean add(Entry entry) {
+            if (closed) {
+                return false;
+            }
+            entries.add(entry);
+            actions += entry.items.size();
+            for (BulkItemRequest item : entry.items) {
+                sizeInBytes += BulkRequest.estimatedSizeInBytes(item.request());
+            }
+            return true;
+        }
+
+        synchronized boolean isFull() {
+            return actions >= maxActions || sizeInBytes >= maxSizeInBytes;
+        }
+
+        synchronized boolean close() {
+            if (closed) {
+                return false;
+            }
+            closed = true;
+            return true;
+        }
+    }
+}
@@ -0,0 +1,64 @@
+package org.xbib.elasticsearch.action.bulk;
+
+import org.elasticsearch.action.ActionListener;
+import org.elasticsearch.action.ActionRequest;
+import org.elasticsearch.action.index.IndexRequest;
+import org.elasticsearch.action.support.ActionFilters;
+import org.elasticsearch.action.support.HandledTransportAction;
+import org.elasticsearch.action.update.UpdateRequest;
+import org.elasticsearch.common.inject.Inject;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.threadpool.ThreadPool;
+import org.elasticsearch.transport.TransportService;
+
+import java.util.List;
+
+/**
+ * Splices the binary attachments of a {@link BinaryBulkRequest} into the sources of its items,
+ * and executes the resulting bulk request with {@link TransportBulkAction}.
+ */
+public class TransportBinaryBulkAction extends HandledTransportAction<BinaryBulkRequest, BulkResponse> {
+
+    private final TransportBulkAction bulkAction;
+
+    @Inject
+    public TransportBinaryBulkAction(Settings settings, ThreadPool threadPool, TransportService transportService,
+                                     TransportBulkAction bulkAction, ActionFilters actionFilters) {
+        super(settings, BinaryBulkAction.NAME, threadPool, transportService, actionFilters);
+        this.bulkAction = bulkAction;
+    }
+
+    @Override
+    public BinaryBulkRequest newRequestInstance() {
+        return new BinaryBulkRequest();
+    }
+
+    @Override
+    protected void doExecute(BinaryBulkRequest request, ActionListener<BulkResponse> listener) {
+        BulkRequest bulkRequest = request.bulkRequest();
+        try {
+            List<ActionRequest> requests = bulkRequest.requests();
+            for (int i = 0; i < requests.size(); i++) {
+                byte[][] attachments = request.attachments(i);
+                if (attachments.length == 0) {
+                    continue;
+                }
+                ActionRequest actionRequest = requests.get(i);
+                if (actionRequest instanceof IndexRequest) {
+                    BinaryAttachments.splice((IndexRequest) actionRequest, attachments);
+                } else if (actionRequest instanceof UpdateRequest) {
+                    BinaryAttachments.splice((UpdateRequest) actionRequest, attachments);
+                }
+            }
+        } catch (Throwable t) {
+            listener.onFailure(t);
+            return;
+        }
+        // the inner bulk request runs with the headers and the context of the outer request
+        for (String name : request.getHeaders()) {
+            bulkRequest.putHeader(name, request.getHeader(name));
+        }
+        bulkRequest.copyContextFrom(request);
+        bulkAction.execute(bulkRequest, listener);
+    }
+}
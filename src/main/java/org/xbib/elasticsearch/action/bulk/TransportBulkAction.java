@@ -17,6 +17,7 @@ import org.elasticsearch.action.support.ActionFilters;
 import org.elasticsearch.action.support.AutoCreateIndex;
 import org.elasticsearch.action.support.HandledTransportAction;
 import org.elasticsearch.action.support.IndicesOptions;
+import org.elasticsearch.action.support.TransportActions;
 import org.elasticsearch.action.update.UpdateRequest;
 import org.elasticsearch.cluster.ClusterService;
 import org.elasticsearch.cluster.ClusterState;
@@ -25,10 +26,16 @@ import org.elasticsearch.cluster.metadata.IndexMetaData;
 import org.elasticsearch.cluster.metadata.MappingMetaData;
 import org.elasticsearch.cluster.metadata.MetaData;
 import org.elasticsearch.cluster.routing.GroupShardsIterator;
+import org.elasticsearch.cluster.routing.IndexRoutingTable;
 import org.elasticsearch.cluster.routing.ShardIterator;
+import org.elasticsearch.cluster.routing.ShardRouting;
 import org.elasticsearch.common.inject.Inject;
 import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.common.unit.ByteSizeValue;
+import org.elasticsearch.common.unit.TimeValue;
 import org.elasticsearch.common.util.concurrent.AtomicArray;
+import org.elasticsearch.common.util.concurrent.ConcurrentCollections;
+import org.elasticsearch.common.util.concurrent.EsRejectedExecutionException;
 import org.elasticsearch.index.Index;
 import org.elasticsearch.index.shard.ShardId;
 import org.elasticsearch.indices.IndexAlreadyExistsException;
@@ -44,7 +51,9 @@ import java.util.HashSet;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
+import java.util.Queue;
 import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
 import java.util.concurrent.atomic.AtomicInteger;
 
 public class TransportBulkAction extends HandledTransportAction<BulkRequest, BulkResponse> {
@@ -59,9 +68,29 @@ public class TransportBulkAction extends HandledTransportAction<BulkRequest, Bul
 
     private final TransportCreateIndexAction createIndexAction;
 
+    private final ShardBulkCoalescer shardBulkCoalescer;
+
+    private final BulkRefreshScheduler refreshScheduler;
+
+    private final BulkAdmissionController admissionController;
+
+    private final int shardMaxActions;
+
+    private final long shardMaxSizeInBytes;
+
+    private final int shardConcurrentRequests;
+
+    private final int shardMaxRetries;
+
+    private final TimeValue shardRetryInitialDelay;
+
+    private final TimeValue shardRetryMaxDelay;
+
     @Inject
     public TransportBulkAction(Settings settings, ThreadPool threadPool, TransportService transportService, ClusterService clusterService,
-                               TransportShardBulkAction shardBulkAction, TransportCreateIndexAction createIndexAction, ActionFilters actionFilters) {
+                               TransportShardBulkAction shardBulkAction, TransportCreateIndexAction createIndexAction,
+                               BulkAdmissionController admissionController,
+                               ActionFilters actionFilters) {
         super(settings, BulkAction.NAME, threadPool, transportService, actionFilters);
         this.clusterService = clusterService;
         this.shardBulkAction = shardBulkAction;
@@ -69,6 +98,16 @@ public class TransportBulkAction extends HandledTransportAction<BulkRequest, Bul
 
         this.autoCreateIndex = new AutoCreateIndex(settings);
         this.allowIdGeneration = componentSettings.getAsBoolean("action.allow_id_generation", true);
+        this.shardBulkCoalescer = settings.getAsBoolean("action.bulkhex.coalesce.enabled", false) ?
+                new ShardBulkCoalescer(settings, threadPool, shardBulkAction) : null;
+        this.refreshScheduler = new BulkRefreshScheduler(settings, threadPool, shardBulkAction);
+        this.admissionController = admissionController;
+        this.shardMaxActions = settings.getAsInt("action.bulkhex.shard.max_actions", -1);
+        this.shardMaxSizeInBytes = settings.getAsBytesSize("action.bulkhex.shard.max_size", new ByteSizeValue(-1)).bytes();
+        this.shardConcurrentRequests = Math.max(1, settings.getAsInt("action.bulkhex.shard.concurrent_requests", 1));
+        this.shardMaxRetries = settings.getAsInt("action.bulkhex.shard.max_retries", 0);
+        this.shardRetryInitialDelay = settings.getAsTime("action.bulkhex.shard.retry_initial_delay", TimeValue.timeValueMillis(50));
+        this.shardRetryMaxDelay = settings.getAsTime("action.bulkhex.shard.retry_max_delay", TimeValue.timeValueSeconds(5));
     }
 
     @Override
@@ -295,54 +334,220 @@ public class TransportBulkAction extends HandledTransportAction<BulkRequest, Bul
             return;
         }
 
-        final AtomicInteger counter = new AtomicInteger(requestsByShard.size());
+        ActionListener<BulkResponse> bulkListener = listener;
+        if (bulkRequest.waitForRefresh()) {
+            bulkListener = refreshScheduler.wrap(new HashSet<>(requestsByShard.keySet()), bulkListener);
+        }
+        BulkItemCollapser collapser = null;
+        if (bulkRequest.collapse()) {
+            collapser = new BulkItemCollapser();
+            bulkListener = collapsingListener(collapser, bulkListener);
+        }
+        if (admissionController.isEnabled()) {
+            BulkAdmissionController.Admission admission = new BulkAdmissionController.Admission();
+            for (Map.Entry<ShardId, List<BulkItemRequest>> entry : requestsByShard.entrySet()) {
+                ShardId shardId = entry.getKey();
+                IndexRoutingTable indexRoutingTable = clusterState.routingTable().index(shardId.index().name());
+                ShardRouting primary = indexRoutingTable != null ? indexRoutingTable.shard(shardId.id()).primaryShard() : null;
+                long sizeInBytes = 0;
+                for (BulkItemRequest request : entry.getValue()) {
+                    sizeInBytes += BulkRequest.estimatedSizeInBytes(request.request());
+                }
+                admission.add(primary != null ? primary.currentNodeId() : null, shardId, entry.getValue().size(), sizeInBytes);
+            }
+            try {
+                admissionController.acquire(admission);
+            } catch (EsRejectedExecutionException e) {
+                listener.onFailure(e);
+                return;
+            }
+            bulkListener = admittedListener(admission, bulkListener);
+        }
+
+        // split oversized shard batches into chunks, which are executed sequentially or with bounded parallelism
+        int numberOfChunks = 0;
+        Map<ShardId, Queue<List<BulkItemRequest>>> chunksByShard = new HashMap<>();
         for (Map.Entry<ShardId, List<BulkItemRequest>> entry : requestsByShard.entrySet()) {
-            final ShardId shardId = entry.getKey();
-            final List<BulkItemRequest> requests = entry.getValue();
-            BulkShardRequest bulkShardRequest = new BulkShardRequest(bulkRequest, shardId.index().name(), shardId.id(), bulkRequest.refresh(), requests.toArray(new BulkItemRequest[requests.size()]));
-            bulkShardRequest.consistencyLevel(bulkRequest.consistencyLevel());
-            bulkShardRequest.timeout(bulkRequest.timeout());
-            shardBulkAction.execute(bulkShardRequest, new ActionListener<BulkShardResponse>() {
-                @Override
-                public void onResponse(BulkShardResponse bulkShardResponse) {
-                    for (BulkItemResponse bulkItemResponse : bulkShardResponse.getResponses()) {
-                        responses.set(bulkItemResponse.getItemId(), bulkItemResponse);
-                    }
-                    if (counter.decrementAndGet() == 0) {
-                        finishHim();
-                    }
+            List<BulkItemRequest> requests = collapser != null ? collapser.collapse(entry.getValue()) : entry.getValue();
+            Queue<List<BulkItemRequest>> chunks = split(requests);
+            numberOfChunks += chunks.size();
+            chunksByShard.put(entry.getKey(), chunks);
+        }
+
+        final AtomicInteger counter = new AtomicInteger(numberOfChunks);
+        for (Map.Entry<ShardId, Queue<List<BulkItemRequest>>> entry : chunksByShard.entrySet()) {
+            int concurrentChunks = Math.min(shardConcurrentRequests, entry.getValue().size());
+            for (int i = 0; i < concurrentChunks; i++) {
+                executeShardChunks(bulkRequest, entry.getKey(), entry.getValue(), concreteIndices, startTime, bulkListener, responses, counter);
+            }
+        }
+    }
+
+    /**
+     * Wraps the listener so the admitted actions are released when the bulk request is done.
+     */
+    private ActionListener<BulkResponse> admittedListener(final BulkAdmissionController.Admission admission, final ActionListener<BulkResponse> listener) {
+        return new ActionListener<BulkResponse>() {
+            @Override
+            public void onResponse(BulkResponse bulkResponse) {
+                admissionController.release(admission);
+                listener.onResponse(bulkResponse);
+            }
+
+            @Override
+            public void onFailure(Throwable e) {
+                admissionController.release(admission);
+                listener.onFailure(e);
+            }
+        };
+    }
+
+    /**
+     * Wraps the listener so the items collapsed into other items receive their responses.
+     */
+    private static ActionListener<BulkResponse> collapsingListener(final BulkItemCollapser collapser, final ActionListener<BulkResponse> listener) {
+        return new ActionListener<BulkResponse>() {
+            @Override
+            public void onResponse(BulkResponse bulkResponse) {
+                collapser.expand(bulkResponse.getItems());
+                listener.onResponse(bulkResponse);
+            }
+
+            @Override
+            public void onFailure(Throwable e) {
+                listener.onFailure(e);
+            }
+        };
+    }
+
+    /**
+     * Splits the items for a shard into chunks which do not exceed the configured number of actions
+     * and bytes per shard request. A single item exceeding the byte limit forms a chunk of its own.
+     */
+    private Queue<List<BulkItemRequest>> split(List<BulkItemRequest> requests) {
+        Queue<List<BulkItemRequest>> chunks = ConcurrentCollections.newQueue();
+        if ((shardMaxActions < 0 || requests.size() <= shardMaxActions) && shardMaxSizeInBytes < 0) {
+            chunks.add(requests);
+            return chunks;
+        }
+        List<BulkItemRequest> chunk = new ArrayList<>();
+        long chunkSizeInBytes = 0;
+        for (BulkItemRequest request : requests) {
+            long sizeInBytes = BulkRequest.estimatedSizeInBytes(request.request());
+            if (!chunk.isEmpty() && ((shardMaxActions >= 0 && chunk.size() >= shardMaxActions)
+                    || (shardMaxSizeInBytes >= 0 && chunkSizeInBytes + sizeInBytes > shardMaxSizeInBytes))) {
+                chunks.add(chunk);
+                chunk = new ArrayList<>();
+                chunkSizeInBytes = 0;
+            }
+            chunk.add(request);
+            chunkSizeInBytes += sizeInBytes;
+        }
+        chunks.add(chunk);
+        return chunks;
+    }
+
+    /**
+     * Executes the next pending chunk of a shard. When the chunk returns, the next pending chunk of the same
+     * shard is executed, until there are no more chunks.
+     */
+    private void executeShardChunks(final BulkRequest bulkRequest, final ShardId shardId, final Queue<List<BulkItemRequest>> chunks,
+                                    final ConcreteIndices concreteIndices, final long startTime, final ActionListener<BulkResponse> listener,
+                                    final AtomicArray<BulkItemResponse> responses, final AtomicInteger counter) {
+        final List<BulkItemRequest> requests = chunks.poll();
+        if (requests == null) {
+            return;
+        }
+        executeShardBulk(bulkRequest, shardId, requests, new ActionListener<BulkShardResponse>() {
+
+            private int retries;
+
+            @Override
+            public void onResponse(BulkShardResponse bulkShardResponse) {
+                for (BulkItemResponse bulkItemResponse : bulkShardResponse.getResponses()) {
+                    responses.set(bulkItemResponse.getItemId(), bulkItemResponse);
                 }
+                next();
+            }
 
-                @Override
-                public void onFailure(Throwable e) {
-                    // create failures for all relevant requests
-                    String message = ExceptionsHelper.detailedMessage(e);
-                    RestStatus status = ExceptionsHelper.status(e);
-                    for (BulkItemRequest request : requests) {
-                        if (request.request() instanceof IndexRequest) {
-                            IndexRequest indexRequest = (IndexRequest) request.request();
-                            responses.set(request.id(), new BulkItemResponse(request.id(), indexRequest.opType().toString().toLowerCase(Locale.ENGLISH),
-                                    new BulkItemResponse.Failure(concreteIndices.getConcreteIndex(indexRequest.index()), indexRequest.type(), indexRequest.id(), message, status)));
-                        } else if (request.request() instanceof DeleteRequest) {
-                            DeleteRequest deleteRequest = (DeleteRequest) request.request();
-                            responses.set(request.id(), new BulkItemResponse(request.id(), "delete",
-                                    new BulkItemResponse.Failure(concreteIndices.getConcreteIndex(deleteRequest.index()), deleteRequest.type(), deleteRequest.id(), message, status)));
-                        } else if (request.request() instanceof UpdateRequest) {
-                            UpdateRequest updateRequest = (UpdateRequest) request.request();
-                            responses.set(request.id(), new BulkItemResponse(request.id(), "update",
-                                    new BulkItemResponse.Failure(concreteIndices.getConcreteIndex(updateRequest.index()), updateRequest.type(), updateRequest.id(), message, status)));
+            @Override
+            public void onFailure(Throwable e) {
+                if (retries < shardMaxRetries && isRetryable(e)) {
+                    final ActionListener<BulkShardResponse> listener = this;
+                    TimeValue delay = retryDelay(retries++);
+                    logger.debug("retrying bulk request for shard {} in [{}] after failure", e, shardId, delay);
+                    threadPool.schedule(delay, ThreadPool.Names.SAME, new Runnable() {
+                        @Override
+                        public void run() {
+                            executeShardBulk(bulkRequest, shardId, requests, listener);
                         }
-                    }
-                    if (counter.decrementAndGet() == 0) {
-                        finishHim();
+                    });
+                    return;
+                }
+                // create failures for all relevant requests
+                String message = ExceptionsHelper.detailedMessage(e);
+                RestStatus status = ExceptionsHelper.status(e);
+                for (BulkItemRequest request : requests) {
+                    if (request.request() instanceof IndexRequest) {
+                        IndexRequest indexRequest = (IndexRequest) request.request();
+                        responses.set(request.id(), new BulkItemResponse(request.id(), indexRequest.opType().toString().toLowerCase(Locale.ENGLISH),
+                                new BulkItemResponse.Failure(concreteIndices.getConcreteIndex(indexRequest.index()), indexRequest.type(), indexRequest.id(), message, status)));
+                    } else if (request.request() instanceof DeleteRequest) {
+                        DeleteRequest deleteRequest = (DeleteRequest) request.request();
+                        responses.set(request.id(), new BulkItemResponse(request.id(), "delete",
+                                new BulkItemResponse.Failure(concreteIndices.getConcreteIndex(deleteRequest.index()), deleteRequest.type(), deleteRequest.id(), message, status)));
+                    } else if (request.request() instanceof UpdateRequest) {
+                        UpdateRequest updateRequest = (UpdateRequest) request.request();
+                        responses.set(request.id(), new BulkItemResponse(request.id(), "update",
+                                new BulkItemResponse.Failure(concreteIndices.getConcreteIndex(updateRequest.index()), updateRequest.type(), updateRequest.id(), message, status)));
                     }
                 }
+                next();
+            }
 
-                private void finishHim() {
-                    listener.onResponse(new BulkResponse(responses.toArray(new BulkItemResponse[responses.length()]), buildTookInMillis(startTime)));
+            private void next() {
+                if (counter.decrementAndGet() == 0) {
+                    finishHim();
+                } else {
+                    executeShardChunks(bulkRequest, shardId, chunks, concreteIndices, startTime, listener, responses, counter);
                 }
-            });
+            }
+
+            private void finishHim() {
+                listener.onResponse(new BulkResponse(responses.toArray(new BulkItemResponse[responses.length()]), buildTookInMillis(startTime)));
+            }
+        });
+    }
+
+    /**
+     * Shard requests which fail because the shard could not take them, or because the primary was not available,
+     * have not been executed on the primary, so they can be sent again.
+     */
+    private static boolean isRetryable(Throwable e) {
+        return ExceptionsHelper.unwrapCause(e) instanceof EsRejectedExecutionException
+                || TransportActions.isShardNotAvailableException(e);
+    }
+
+    /**
+     * Exponential backoff, with half of the delay randomized, so shard requests rejected at the same time
+     * are not retried at the same time.
+     */
+    private TimeValue retryDelay(int retry) {
+        long delay = Math.min(shardRetryInitialDelay.millis() << Math.min(retry, 30), shardRetryMaxDelay.millis());
+        long half = Math.max(1, delay / 2);
+        return TimeValue.timeValueMillis(delay - half + ThreadLocalRandom.current().nextLong(half + 1));
+    }
+
+    private void executeShardBulk(BulkRequest bulkRequest, ShardId shardId, List<BulkItemRequest> requests, ActionListener<BulkShardResponse> listener) {
+        if (shardBulkCoalescer != null) {
+            shardBulkCoalescer.execute(bulkRequest, shardId, requests, listener);
+            return;
         }
+        BulkShardRequest bulkShardRequest = new BulkShardRequest(bulkRequest, shardId.index().name(), shardId.id(), bulkRequest.refresh(), requests.toArray(new BulkItemRequest[requests.size()]));
+        bulkShardRequest.replicationType(bulkRequest.replicationType());
+        bulkShardRequest.consistencyLevel(bulkRequest.consistencyLevel());
+        bulkShardRequest.timeout(bulkRequest.timeout());
+        shardBulkAction.execute(bulkShardRequest, listener);
     }
 
     private boolean addFailureIfIndexIsUnavailable(DocumentRequest request, BulkRequest bulkRequest, AtomicArray<BulkItemResponse> responses, int idx,
@@ -26,6 +26,7 @@ import org.elasticsearch.common.bytes.BytesReference;
 import org.elasticsearch.common.collect.Tuple;
 import org.elasticsearch.common.inject.Inject;
 import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.common.unit.TimeValue;
 import org.elasticsearch.common.xcontent.XContentHelper;
 import org.elasticsearch.common.xcontent.XContentType;
 import org.elasticsearch.index.IndexService;
@@ -36,15 +37,18 @@ import org.elasticsearch.index.engine.VersionConflictEngineException;
 import org.elasticsearch.index.mapper.DocumentMapper;
 import org.elasticsearch.index.mapper.SourceToParse;
 import org.elasticsearch.index.shard.IndexShard;
+import org.elasticsearch.index.shard.ShardId;
 import org.elasticsearch.indices.IndicesService;
 import org.elasticsearch.rest.RestStatus;
 import org.elasticsearch.threadpool.ThreadPool;
 import org.elasticsearch.transport.TransportRequestOptions;
 import org.elasticsearch.transport.TransportService;
+import org.xbib.elasticsearch.action.bulk.ParallelDocumentParser.PreparedOperation;
 
 import java.util.HashSet;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * Performs the index operation.
@@ -59,15 +63,27 @@ public class TransportShardBulkAction extends TransportShardReplicationOperation
     private final MappingUpdatedAction mappingUpdatedAction;
     private final UpdateHelper updateHelper;
     private final boolean allowIdGeneration;
+    private final int primaryParseParallelism;
+    private final int replicaParseParallelism;
+    private final ParallelDocumentParser documentParser;
+    private final long conflictLogIntervalNanos;
+    private final AtomicLong lastConflictLog;
+    private final AtomicLong suppressedConflicts = new AtomicLong();
 
     @Inject
     public TransportShardBulkAction(Settings settings, TransportService transportService, ClusterService clusterService,
                                     IndicesService indicesService, ThreadPool threadPool, ShardStateAction shardStateAction,
-                                    MappingUpdatedAction mappingUpdatedAction, UpdateHelper updateHelper, ActionFilters actionFilters) {
+                                    MappingUpdatedAction mappingUpdatedAction, UpdateHelper updateHelper, ActionFilters actionFilters,
+                                    ParallelDocumentParser documentParser) {
         super(settings, ACTION_NAME, transportService, clusterService, indicesService, threadPool, shardStateAction, actionFilters);
         this.mappingUpdatedAction = mappingUpdatedAction;
         this.updateHelper = updateHelper;
         this.allowIdGeneration = settings.getAsBoolean("action.allow_id_generation", true);
+        this.primaryParseParallelism = documentParser.primaryParallelism();
+        this.replicaParseParallelism = documentParser.replicaParallelism();
+        this.documentParser = documentParser;
+        this.conflictLogIntervalNanos = settings.getAsTime("action.bulkhex.shard.conflict_log_interval", TimeValue.timeValueSeconds(1)).nanos();
+        this.lastConflictLog = new AtomicLong(System.nanoTime() - conflictLogIntervalNanos);
     }
 
     @Override
@@ -117,6 +133,12 @@ public class TransportShardBulkAction extends TransportShardReplicationOperation
         IndexShard indexShard = indexService.shardSafe(shardRequest.shardId.id());
         final Set<String> mappingTypesToUpdate = new HashSet<>();
 
+        // parse the sources of index items ahead in parallel, the engine operations are still applied in item order
+        PreparedOperation[] preparedOperations = null;
+        if (primaryParseParallelism > 1 && request.items().length > 1) {
+            preparedOperations = documentParser.parse(indexShard, request, Engine.Operation.Origin.PRIMARY, primaryParseParallelism);
+        }
+
         long[] preVersions = new long[request.items().length];
         VersionType[] preVersionTypes = new VersionType[request.items().length];
         for (int requestIndex = 0; requestIndex < request.items().length; requestIndex++) {
@@ -127,7 +149,8 @@ public class TransportShardBulkAction extends TransportShardReplicationOperation
                 preVersionTypes[requestIndex] = indexRequest.versionType();
                 try {
                     try {
-                        WriteResult result = shardIndexOperation(request, indexRequest, clusterState, indexShard, true);
+                        WriteResult result = shardIndexOperation(request, indexRequest, clusterState, indexShard, true,
+                                preparedOperations != null ? preparedOperations[requestIndex] : null);
                         // add the response
                         IndexResponse indexResponse = result.response();
                         setResponse(item, new BulkItemResponse(item.id(), indexRequest.opType().lowercase(), indexResponse));
@@ -155,11 +178,7 @@ public class TransportShardBulkAction extends TransportShardReplicationOperation
                         }
                         throw (ElasticsearchException) e;
                     }
-                    if (e instanceof ElasticsearchException && ((ElasticsearchException) e).status() == RestStatus.CONFLICT) {
-                        logger.trace("{} failed to execute bulk item (index) {}", e, shardRequest.shardId, indexRequest);
-                    } else {
-                        logger.debug("{} failed to execute bulk item (index) {}", e, shardRequest.shardId, indexRequest);
-                    }
+                    logFailure("index", e, shardRequest.shardId, indexRequest);
                     // if its a conflict failure, and we already executed the request on a primary (and we execute it
                     // again, due to primary relocation and only processing up to N bulk items when the shard gets closed)
                     // then just use the response we got from the successful execution
@@ -188,11 +207,7 @@ public class TransportShardBulkAction extends TransportShardReplicationOperation
                         }
                         throw (ElasticsearchException) e;
                     }
-                    if (e instanceof ElasticsearchException && ((ElasticsearchException) e).status() == RestStatus.CONFLICT) {
-                        logger.trace("{} failed to execute bulk item (delete) {}", e, shardRequest.shardId, deleteRequest);
-                    } else {
-                        logger.debug("{} failed to execute bulk item (delete) {}", e, shardRequest.shardId, deleteRequest);
-                    }
+                    logFailure("delete", e, shardRequest.shardId, deleteRequest);
                     // if its a conflict failure, and we already executed the request on a primary (and we execute it
                     // again, due to primary relocation and only processing up to N bulk items when the shard gets closed)
                     // then just use the response we got from the successful execution
@@ -281,21 +296,13 @@ public class TransportShardBulkAction extends TransportShardReplicationOperation
                                     case UPSERT:
                                     case INDEX:
                                         IndexRequest indexRequest = updateResult.request();
-                                        if (t instanceof ElasticsearchException && ((ElasticsearchException) t).status() == RestStatus.CONFLICT) {
-                                            logger.trace("{} failed to execute bulk item (index) {}", t, shardRequest.shardId, indexRequest);
-                                        } else {
-                                            logger.debug("{} failed to execute bulk item (index) {}", t, shardRequest.shardId, indexRequest);
-                                        }
+                                        logFailure("index", t, shardRequest.shardId, indexRequest);
                                         setResponse(item, new BulkItemResponse(item.id(), OP_TYPE_UPDATE,
                                                 new BulkItemResponse.Failure(request.index(), indexRequest.type(), indexRequest.id(), t)));
                                         break;
                                     case DELETE:
                                         DeleteRequest deleteRequest = updateResult.request();
-                                        if (t instanceof ElasticsearchException && ((ElasticsearchException) t).status() == RestStatus.CONFLICT) {
-                                            logger.trace("{} failed to execute bulk item (delete) {}", t, shardRequest.shardId, deleteRequest);
-                                        } else {
-                                            logger.debug("{} failed to execute bulk item (delete) {}", t, shardRequest.shardId, deleteRequest);
-                                        }
+                                        logFailure("delete", t, shardRequest.shardId, deleteRequest);
                                         setResponse(item, new BulkItemResponse(item.id(), OP_TYPE_DELETE,
                                                 new BulkItemResponse.Failure(request.index(), deleteRequest.type(), deleteRequest.id(), t)));
                                         break;
@@ -363,7 +370,7 @@ public class TransportShardBulkAction extends TransportShardReplicationOperation
     }
 
     private WriteResult shardIndexOperation(BulkShardRequest request, IndexRequest indexRequest, ClusterState clusterState,
-                                            IndexShard indexShard, boolean processed) {
+                                            IndexShard indexShard, boolean processed, PreparedOperation prepared) {
 
         // validate, if routing is required, that we got routing
         MappingMetaData mappingMd = clusterState.metaData().index(request.index()).mappingOrDefault(indexRequest.type());
@@ -387,8 +394,12 @@ public class TransportShardBulkAction extends TransportShardReplicationOperation
         boolean created;
         Engine.IndexingOperation op;
         try {
+            if (prepared != null && prepared.failure != null) {
+                throw prepared.failure;
+            }
             if (indexRequest.opType() == IndexRequest.OpType.INDEX) {
-                Engine.Index index = indexShard.prepareIndex(sourceToParse, indexRequest.version(), indexRequest.versionType(), Engine.Operation.Origin.PRIMARY, request.canHaveDuplicates() || indexRequest.canHaveDuplicates());
+                Engine.Index index = prepared != null ? (Engine.Index) prepared.operation :
+                        indexShard.prepareIndex(sourceToParse, indexRequest.version(), indexRequest.versionType(), Engine.Operation.Origin.PRIMARY, request.canHaveDuplicates() || indexRequest.canHaveDuplicates());
                 if (index.parsedDoc().mappingsModified()) {
                     mappingTypeToUpdate = indexRequest.type();
                 }
@@ -397,7 +408,8 @@ public class TransportShardBulkAction extends TransportShardReplicationOperation
                 op = index;
                 created = index.created();
             } else {
-                Engine.Create create = indexShard.prepareCreate(sourceToParse, indexRequest.version(), indexRequest.versionType(), Engine.Operation.Origin.PRIMARY,
+                Engine.Create create = prepared != null ? (Engine.Create) prepared.operation :
+                        indexShard.prepareCreate(sourceToParse, indexRequest.version(), indexRequest.versionType(), Engine.Operation.Origin.PRIMARY,
                         request.canHaveDuplicates() || indexRequest.canHaveDuplicates(), indexRequest.autoGeneratedId());
                 if (create.parsedDoc().mappingsModified()) {
                     mappingTypeToUpdate = indexRequest.type();
@@ -411,6 +423,10 @@ public class TransportShardBulkAction extends TransportShardReplicationOperation
             indexRequest.versionType(indexRequest.versionType().versionTypeForReplicationAndRecovery());
             indexRequest.version(version);
         } catch (Throwable t) {
+            // expected conflicts are frequent in create-only and versioned loads, don't pay for a wrapping exception
+            if (mappingTypeToUpdate == null && (t instanceof DocumentAlreadyExistsException || t instanceof VersionConflictEngineException)) {
+                throw (ElasticsearchException) t;
+            }
             throw new WriteFailureException(t, mappingTypeToUpdate);
         }
 
@@ -421,6 +437,25 @@ public class TransportShardBulkAction extends TransportShardReplicationOperation
         return new WriteResult(indexResponse, mappingTypeToUpdate, op);
     }
 
+    private void logFailure(String opType, Throwable e, ShardId shardId, ActionRequest request) {
+        if (e instanceof ElasticsearchException && ((ElasticsearchException) e).status() == RestStatus.CONFLICT) {
+            if (!logger.isTraceEnabled()) {
+                return;
+            }
+            // conflicts may come by the million, log a sample of them
+            long now = System.nanoTime();
+            long last = lastConflictLog.get();
+            if (now - last < conflictLogIntervalNanos || !lastConflictLog.compareAndSet(last, now)) {
+                suppressedConflicts.incrementAndGet();
+                return;
+            }
+            logger.trace("{} failed to execute bulk item ({}) {}, {} more conflicts since the last one logged", e,
+                    shardId, opType, request, suppressedConflicts.getAndSet(0));
+        } else {
+            logger.debug("{} failed to execute bulk item ({}) {}", e, shardId, opType, request);
+        }
+    }
+
     private WriteResult shardDeleteOperation(BulkShardRequest request, DeleteRequest deleteRequest, IndexShard indexShard) {
         Engine.Delete delete = indexShard.prepareDelete(deleteRequest.type(), deleteRequest.id(), deleteRequest.version(), deleteRequest.versionType(), Engine.Operation.Origin.PRIMARY);
         indexShard.delete(delete);
@@ -494,7 +529,7 @@ public class TransportShardBulkAction extends TransportShardReplicationOperation
             case INDEX:
                 IndexRequest indexRequest = translate.action();
                 try {
-                    WriteResult result = shardIndexOperation(bulkShardRequest, indexRequest, clusterState, indexShard, false);
+                    WriteResult result = shardIndexOperation(bulkShardRequest, indexRequest, clusterState, indexShard, false, null);
                     return new UpdateResult(translate, indexRequest, result);
                 } catch (Throwable t) {
                     t = ExceptionsHelper.unwrapCause(t);
@@ -530,6 +565,11 @@ public class TransportShardBulkAction extends TransportShardReplicationOperation
     protected void shardOperationOnReplica(ReplicaOperationRequest shardRequest) {
         IndexShard indexShard = indicesService.indexServiceSafe(shardRequest.shardId.getIndex()).shardSafe(shardRequest.shardId.id());
         final BulkShardRequest request = shardRequest.request;
+        // parse the sources of index items ahead in parallel, the engine operations are still applied in item order
+        PreparedOperation[] preparedOperations = null;
+        if (replicaParseParallelism > 1 && request.items().length > 1) {
+            preparedOperations = documentParser.parse(indexShard, request, Engine.Operation.Origin.REPLICA, replicaParseParallelism);
+        }
         for (int i = 0; i < request.items().length; i++) {
             BulkItemRequest item = request.items()[i];
             if (item == null || item.isIgnoreOnReplica()) {
@@ -538,14 +578,20 @@ public class TransportShardBulkAction extends TransportShardReplicationOperation
             if (item.request() instanceof IndexRequest) {
                 IndexRequest indexRequest = (IndexRequest) item.request();
                 try {
+                    PreparedOperation prepared = preparedOperations != null ? preparedOperations[i] : null;
+                    if (prepared != null && prepared.failure != null) {
+                        throw prepared.failure;
+                    }
                     SourceToParse sourceToParse = SourceToParse.source(SourceToParse.Origin.REPLICA, indexRequest.source()).type(indexRequest.type()).id(indexRequest.id())
                             .routing(indexRequest.routing()).parent(indexRequest.parent()).timestamp(indexRequest.timestamp()).ttl(indexRequest.ttl());
 
                     if (indexRequest.opType() == IndexRequest.OpType.INDEX) {
-                        Engine.Index index = indexShard.prepareIndex(sourceToParse, indexRequest.version(), indexRequest.versionType(), Engine.Operation.Origin.REPLICA, request.canHaveDuplicates() || indexRequest.canHaveDuplicates());
+                        Engine.Index index = prepared != null ? (Engine.Index) prepared.operation :
+                                indexShard.prepareIndex(sourceToParse, indexRequest.version(), indexRequest.versionType(), Engine.Operation.Origin.REPLICA, request.canHaveDuplicates() || indexRequest.canHaveDuplicates());
                         indexShard.index(index);
                     } else {
-                        Engine.Create create = indexShard.prepareCreate(sourceToParse,
+                        Engine.Create create = prepared != null ? (Engine.Create) prepared.operation :
+                                indexShard.prepareCreate(sourceToParse,
                                 indexRequest.version(), indexRequest.versionType(),
                                 Engine.Operation.Origin.REPLICA, request.canHaveDuplicates() || indexRequest.canHaveDuplicates(), indexRequest.autoGeneratedId());
                         indexShard.create(create);
@@ -0,0 +1,333 @@
+package org.xbib.elasticsearch.action.hexconvert;
+
+import org.elasticsearch.common.unit.TimeValue;
+import org.elasticsearch.common.xcontent.ToXContent;
+import org.elasticsearch.common.xcontent.XContentBuilder;
+import org.elasticsearch.common.xcontent.XContentBuilderString;
+import org.elasticsearch.common.xcontent.support.XContentMapValues;
+import org.elasticsearch.index.shard.ShardId;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A conversion of hex string fields of the documents of an index into binary fields of a target index.
+ * The shards of the indices are converted one after the other. The job state is written as checkpoint after every
+ * batch, a job can be resumed from its last checkpoint. The checkpoint names the node which runs the job, the shards
+ * which are completed, and the shard and scroll the job reads the documents from.
+ */
+public class HexConvertJob implements ToXContent {
+
+    public enum Status {
+        RUNNING, DONE, CANCELLED, FAILED
+    }
+
+    private final String id;
+
+    private final String[] indices;
+
+    private final String[] types;
+
+    private final String target;
+
+    private final Set<String> fields;
+
+    private final int size;
+
+    private final float docsPerSecond;
+
+    private final long startTime;
+
+    private final AtomicLong processed = new AtomicLong();
+
+    private final AtomicLong failed = new AtomicLong();
+
+    private final AtomicLong shardProcessed = new AtomicLong();
+
+    // the completed shard ids by index
+    private final Map<String, Set<Integer>> completedShards = new TreeMap<>();
+
+    private volatile String node;
+
+    private volatile ShardId shard;
+
+    private volatile String scrollId;
+
+    private volatile Status status = Status.RUNNING;
+
+    private volatile String failure;
+
+    private volatile boolean cancelled;
+
+    public HexConvertJob(String id, String[] indices, String[] types, String target, Set<String> fields, int size, float docsPerSecond) {
+        this(id, indices, types, target, fields, size, docsPerSecond, System.currentTimeMillis());
+    }
+
+    private HexConvertJob(String id, String[] indices, String[] types, String target, Set<String> fields, int size, float docsPerSecond,
+                          long startTime) {
+        this.id = id;
+        this.indices = indices;
+        this.types = types;
+        this.target = target;
+        this.fields = fields;
+        this.size = size;
+        this.docsPerSecond = docsPerSecond;
+        this.startTime = startTime;
+    }
+
+    public String id() {
+        return id;
+    }
+
+    public String[] indices() {
+        return indices;
+    }
+
+    public String[] types() {
+        return types;
+    }
+
+    public String target() {
+        return target;
+    }
+
+    public Set<String> fields() {
+        return fields;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * The throttle of the job, a value of zero or less means no throttle.
+     */
+    public float docsPerSecond() {
+        return docsPerSecond;
+    }
+
+    /**
+     * The id of the node which runs the job.
+     */
+    public String node() {
+        return node;
+    }
+
+    void node(String node) {
+        this.node = node;
+    }
+
+    public long processed() {
+        return processed.get();
+    }
+
+    public long failed() {
+        return failed.get();
+    }
+
+    /**
+     * The shard the job reads the documents from, or null between two shards.
+     */
+    public ShardId shard() {
+        return shard;
+    }
+
+    /**
+     * The scroll of the job, the job continues with the documents of the next page of the scroll.
+     * A job without scroll starts a new scan of its next shard which is not completed.
+     */
+    public String scrollId() {
+        return scrollId;
+    }
+
+    void scrollId(String scrollId) {
+        this.scrollId = scrollId;
+    }
+
+    /**
+     * Whether all documents of a shard are converted.
+     *
+     * @param index the index
+     * @param shardId the shard id
+     * @return true if the shard is completed
+     */
+    public boolean isCompleted(String index, int shardId) {
+        synchronized (completedShards) {
+            Set<Integer> shardIds = completedShards.get(index);
+            return shardIds != null && shardIds.contains(shardId);
+        }
+    }
+
+    public Status status() {
+        return status;
+    }
+
+    public String failure() {
+        return failure;
+    }
+
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+    void cancel() {
+        this.cancelled = true;
+    }
+
+    void scan(ShardId shard, String scrollId) {
+        this.shard = shard;
+        this.scrollId = scrollId;
+        this.shardProcessed.set(0L);
+    }
+
+    void progress(int processed, String scrollId) {
+        this.processed.addAndGet(processed);
+        this.shardProcessed.addAndGet(processed);
+        this.scrollId = scrollId;
+    }
+
+    void failed(int failed) {
+        this.failed.addAndGet(failed);
+    }
+
+    /**
+     * Marks the current shard as completed.
+     */
+    void completeShard() {
+        synchronized (completedShards) {
+            Set<Integer> shardIds = completedShards.get(shard.index().name());
+            if (shardIds == null) {
+                shardIds = new TreeSet<>();
+                completedShards.put(shard.index().name(), shardIds);
+            }
+            shardIds.add(shard.id());
+        }
+        this.shard = null;
+        this.scrollId = null;
+        this.shardProcessed.set(0L);
+    }
+
+    /**
+     * Starts the current shard over, with a new scan. The completed shards are kept.
+     */
+    void restartShard() {
+        this.processed.addAndGet(-shardProcessed.getAndSet(0L));
+        this.failed.set(0L);
+        this.shard = null;
+        this.scrollId = null;
+    }
+
+    void finish(Status status, String failure) {
+        this.status = status;
+        this.failure = failure;
+    }
+
+    @Override
+    public XContentBuilder toXContent(XContentBuilder builder, Params params) throws IOException {
+        builder.startObject();
+        builder.field(Fields.ID, id);
+        builder.array(Fields.INDICES, indices);
+        builder.array(Fields.TYPES, types);
+        builder.field(Fields.TARGET, target);
+        builder.array(Fields.HEX_FIELDS, fields.toArray(new String[fields.size()]));
+        builder.field(Fields.SIZE, size);
+        builder.field(Fields.DOCS_PER_SECOND, docsPerSecond);
+        builder.field(Fields.STATUS, status.name().toLowerCase(Locale.ROOT));
+        builder.field(Fields.NODE, node);
+        if (failure != null) {
+            builder.field(Fields.FAILURE, failure);
+        }
+        builder.field(Fields.PROCESSED, processed.get());
+        builder.field(Fields.FAILED, failed.get());
+        synchronized (completedShards) {
+            builder.startObject(Fields.COMPLETED_SHARDS);
+            for (Map.Entry<String, Set<Integer>> entry : completedShards.entrySet()) {
+                builder.field(entry.getKey(), entry.getValue());
+            }
+            builder.endObject();
+        }
+        ShardId shard = this.shard;
+        if (shard != null) {
+            builder.startObject(Fields.SHARD);
+            builder.field(Fields.INDEX, shard.index().name());
+            builder.field(Fields.ID, shard.id());
+            builder.field(Fields.PROCESSED, shardProcessed.get());
+            builder.endObject();
+        }
+        builder.field(Fields.SCROLL_ID, scrollId);
+        builder.field(Fields.START_TIME, startTime);
+        builder.field(Fields.TOOK, new TimeValue(System.currentTimeMillis() - startTime).format());
+        builder.endObject();
+        return builder;
+    }
+
+    /**
+     * Creates a job from its checkpoint. The job skips the completed shards of the checkpoint, and continues with
+     * the shard and scroll of the checkpoint.
+     *
+     * @param id the job id
+     * @param checkpoint the checkpoint
+     * @return the job
+     */
+    public static HexConvertJob fromCheckpoint(String id, Map<String, Object> checkpoint) {
+        HexConvertJob job = new HexConvertJob(id,
+                XContentMapValues.nodeStringArrayValue(checkpoint.get(Fields.INDICES.underscore().getValue())),
+                XContentMapValues.nodeStringArrayValue(checkpoint.get(Fields.TYPES.underscore().getValue())),
+                XContentMapValues.nodeStringValue(checkpoint.get(Fields.TARGET.underscore().getValue()), null),
+                new LinkedHashSet<>(Arrays.asList(XContentMapValues.nodeStringArrayValue(checkpoint.get(Fields.HEX_FIELDS.underscore().getValue())))),
+                XContentMapValues.nodeIntegerValue(checkpoint.get(Fields.SIZE.underscore().getValue())),
+                XContentMapValues.nodeFloatValue(checkpoint.get(Fields.DOCS_PER_SECOND.underscore().getValue()), 0f),
+                XContentMapValues.nodeLongValue(checkpoint.get(Fields.START_TIME.underscore().getValue())));
+        job.processed.set(XContentMapValues.nodeLongValue(checkpoint.get(Fields.PROCESSED.underscore().getValue()), 0L));
+        job.failed.set(XContentMapValues.nodeLongValue(checkpoint.get(Fields.FAILED.underscore().getValue()), 0L));
+        Object completedShards = checkpoint.get(Fields.COMPLETED_SHARDS.underscore().getValue());
+        if (completedShards instanceof Map) {
+            for (Map.Entry<?, ?> entry : ((Map<?, ?>) completedShards).entrySet()) {
+                Set<Integer> shardIds = new TreeSet<>();
+                for (Object shardId : (List<?>) entry.getValue()) {
+                    shardIds.add(XContentMapValues.nodeIntegerValue(shardId));
+                }
+                job.completedShards.put(entry.getKey().toString(), shardIds);
+            }
+        }
+        Object shard = checkpoint.get(Fields.SHARD.underscore().getValue());
+        if (shard instanceof Map) {
+            Map<?, ?> map = (Map<?, ?>) shard;
+            job.shard = new ShardId(XContentMapValues.nodeStringValue(map.get(Fields.INDEX.underscore().getValue()), null),
+                    XContentMapValues.nodeIntegerValue(map.get(Fields.ID.underscore().getValue())));
+            job.shardProcessed.set(XContentMapValues.nodeLongValue(map.get(Fields.PROCESSED.underscore().getValue()), 0L));
+            job.scrollId = XContentMapValues.nodeStringValue(checkpoint.get(Fields.SCROLL_ID.underscore().getValue()), null);
+        }
+        job.node = XContentMapValues.nodeStringValue(checkpoint.get(Fields.NODE.underscore().getValue()), null);
+        return job;
+    }
+
+    static final class Fields {
+        static final XContentBuilderString ID = new XContentBuilderString("id");
+        static final XContentBuilderString INDICES = new XContentBuilderString("indices");
+        static final XContentBuilderString TYPES = new XContentBuilderString("types");
+        static final XContentBuilderString TARGET = new XContentBuilderString("target");
+        static final XContentBuilderString HEX_FIELDS = new XContentBuilderString("hex_fields");
+        static final XContentBuilderString SIZE = new XContentBuilderString("size");
+        static final XContentBuilderString DOCS_PER_SECOND = new XContentBuilderString("docs_per_second");
+        static final XContentBuilderString STATUS = new XContentBuilderString("status");
+        static final XContentBuilderString NODE = new XContentBuilderString("node");
+        static final XContentBuilderString FAILURE = new XContentBuilderString("failure");
+        static final XContentBuilderString PROCESSED = new XContentBuilderString("processed");
+        static final XContentBuilderString FAILED = new XContentBuilderString("failed");
+        static final XContentBuilderString COMPLETED_SHARDS = new XContentBuilderString("completed_shards");
+        static final XContentBuilderString SHARD = new XContentBuilderString("shard");
+        static final XContentBuilderString INDEX = new XContentBuilderString("index");
+        static final XContentBuilderString SCROLL_ID = new XContentBuilderString("scroll_id");
+        static final XContentBuilderString START_TIME = new XContentBuilderString("start_time");
+        static final XContentBuilderString TOOK = new XContentBuilderString("took");
+    }
+}
@@ -0,0 +1,534 @@
+package org.xbib.elasticsearch.action.hexconvert;
+
+import org.elasticsearch.ExceptionsHelper;
+import org.elasticsearch.action.ActionListener;
+import org.elasticsearch.action.get.GetResponse;
+import org.elasticsearch.action.index.IndexRequest;
+import org.elasticsearch.action.index.IndexResponse;
+import org.elasticsearch.action.search.ClearScrollResponse;
+import org.elasticsearch.action.search.SearchResponse;
+import org.elasticsearch.action.search.SearchType;
+import org.elasticsearch.action.search.ShardSearchFailure;
+import org.elasticsearch.action.support.IndicesOptions;
+import org.elasticsearch.client.Client;
+import org.elasticsearch.cluster.ClusterService;
+import org.elasticsearch.cluster.metadata.MetaData;
+import org.elasticsearch.common.Strings;
+import org.elasticsearch.common.bytes.BytesReference;
+import org.elasticsearch.common.component.AbstractComponent;
+import org.elasticsearch.common.inject.Inject;
+import org.elasticsearch.common.lucene.uid.Versions;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.common.unit.TimeValue;
+import org.elasticsearch.common.util.concurrent.ConcurrentCollections;
+import org.elasticsearch.common.xcontent.ToXContent;
+import org.elasticsearch.common.xcontent.XContentFactory;
+import org.elasticsearch.common.xcontent.support.XContentMapValues;
+import org.elasticsearch.index.engine.VersionConflictEngineException;
+import org.elasticsearch.index.shard.ShardId;
+import org.elasticsearch.index.query.QueryBuilders;
+import org.elasticsearch.search.SearchHit;
+import org.elasticsearch.search.SearchHitField;
+import org.elasticsearch.threadpool.ThreadPool;
+import org.xbib.elasticsearch.action.bulk.BulkItemResponse;
+import org.xbib.elasticsearch.action.bulk.BulkRequest;
+import org.xbib.elasticsearch.action.bulk.BulkResponse;
+import org.xbib.elasticsearch.action.bulk.TransportBulkAction;
+import org.xbib.elasticsearch.common.xcontent.XContentBuilder;
+import org.xbib.elasticsearch.common.xcontent.XContentHelper;
+import org.xbib.elasticsearch.common.xcontent.XContentParser;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentMap;
+
+import static org.xbib.elasticsearch.common.xcontent.XContentFactory.jsonBuilder;
+
+/**
+ * Runs hex conversion jobs on this node. A job reads the documents of the source indices shard by shard, in batches
+ * by scan and scroll with a <code>_shards</code> preference, decodes the hex strings of the chosen fields, and writes
+ * the documents into the target index with the internal bulk action. After every batch, the job state with the
+ * completed shards and the scroll id is written as checkpoint into the <code>.hexconvert</code> index, and the next
+ * batch is delayed to keep the throttle of the job.
+ * A resumed job takes over its checkpoint with a versioned write, so a checkpoint is resumed by one node only.
+ * A resumed job skips the completed shards. A cancelled job continues the scroll of its checkpoint while the scroll
+ * is kept alive, and starts its shard over with a new scan otherwise. A batch with failed documents, failed shards,
+ * or documents without source fails the job. A failed job, or a job of a node which left the cluster, starts its
+ * shard over when it is resumed, so no document is skipped.
+ */
+public class HexConvertService extends AbstractComponent {
+
+    public static final String CHECKPOINT_INDEX = ".hexconvert";
+
+    public static final String CHECKPOINT_TYPE = "checkpoint";
+
+    private static final TimeValue KEEP_ALIVE = TimeValue.timeValueMinutes(5);
+
+    private final Client client;
+
+    private final ClusterService clusterService;
+
+    private final ThreadPool threadPool;
+
+    private final TransportBulkAction bulkAction;
+
+    private final ConcurrentMap<String, HexConvertJob> jobs = ConcurrentCollections.newConcurrentMap();
+
+    private final Queue<HexConvertJob> finished = ConcurrentCollections.newQueue();
+
+    private final int maxFinishedJobs;
+
+    @Inject
+    public HexConvertService(Settings settings, Client client, ClusterService clusterService, ThreadPool threadPool,
+                             TransportBulkAction bulkAction) {
+        super(settings);
+        this.client = client;
+        this.clusterService = clusterService;
+        this.threadPool = threadPool;
+        this.bulkAction = bulkAction;
+        this.maxFinishedJobs = settings.getAsInt("action.hexconvert.max_finished_jobs", 100);
+    }
+
+    /**
+     * Starts a job.
+     *
+     * @param job the job
+     */
+    public void start(HexConvertJob job) {
+        if (jobs.putIfAbsent(job.id(), job) != null) {
+            throw new IllegalStateException("hex conversion [" + job.id() + "] already exists");
+        }
+        job.node(clusterService.localNode().id());
+        logger.info("starting hex conversion [{}] of {} into [{}]", job.id(), job.indices(), job.target());
+        next(job, false);
+    }
+
+    /**
+     * Resumes a job from its checkpoint. Jobs which are done, or still running on this node or on another node
+     * of the cluster, can not be resumed. A running job must be cancelled on its node before it is resumed.
+     *
+     * @param id the job id
+     * @param listener the listener, called with the resumed job
+     */
+    public void resume(final String id, final ActionListener<HexConvertJob> listener) {
+        HexConvertJob running = jobs.get(id);
+        if (running != null && running.status() == HexConvertJob.Status.RUNNING) {
+            listener.onFailure(new IllegalStateException("hex conversion [" + id + "] is running"));
+            return;
+        }
+        client.prepareGet(CHECKPOINT_INDEX, CHECKPOINT_TYPE, id).execute(new ActionListener<GetResponse>() {
+            @Override
+            public void onResponse(GetResponse response) {
+                if (!response.isExists()) {
+                    listener.onFailure(new IllegalArgumentException("no checkpoint of hex conversion [" + id + "]"));
+                    return;
+                }
+                Map<String, Object> checkpoint = response.getSource();
+                Object status = checkpoint.get("status");
+                if (HexConvertJob.Status.DONE.name().toLowerCase(Locale.ROOT).equals(status)) {
+                    listener.onFailure(new IllegalStateException("hex conversion [" + id + "] is done"));
+                    return;
+                }
+                String localNode = clusterService.localNode().id();
+                String node = XContentMapValues.nodeStringValue(checkpoint.get("node"), null);
+                // a running job of a node which left the cluster can be resumed
+                if (HexConvertJob.Status.RUNNING.name().toLowerCase(Locale.ROOT).equals(status) && node != null
+                        && !node.equals(localNode) && clusterService.state().nodes().nodeExists(node)) {
+                    listener.onFailure(new IllegalStateException("hex conversion [" + id + "] is running on node [" + node + "]"));
+                    return;
+                }
+                final HexConvertJob job = HexConvertJob.fromCheckpoint(id, checkpoint);
+                if (!HexConvertJob.Status.CANCELLED.name().toLowerCase(Locale.ROOT).equals(status)) {
+                    // the node may have read a batch from the scroll which it did not write
+                    job.restartShard();
+                }
+                job.node(localNode);
+                checkpoint(job, response.getVersion(), new ActionListener<IndexResponse>() {
+                    @Override
+                    public void onResponse(IndexResponse response) {
+                        HexConvertJob previous = jobs.put(id, job);
+                        if (previous != null && previous.status() == HexConvertJob.Status.RUNNING) {
+                            jobs.put(id, previous);
+                            listener.onFailure(new IllegalStateException("hex conversion [" + id + "] is running"));
+                            return;
+                        }
+                        logger.info("resuming hex conversion [{}] after {} documents", id, job.processed());
+                        next(job, true);
+                        listener.onResponse(job);
+                    }
+
+                    @Override
+                    public void onFailure(Throwable e) {
+                        if (ExceptionsHelper.unwrapCause(e) instanceof VersionConflictEngineException) {
+                            listener.onFailure(new IllegalStateException("hex conversion [" + id + "] was resumed concurrently"));
+                        } else {
+                            listener.onFailure(e);
+                        }
+                    }
+                });
+            }
+
+            @Override
+            public void onFailure(Throwable e) {
+                listener.onFailure(e);
+            }
+        });
+    }
+
+    /**
+     * Cancels a running job, the job stops after the current batch.
+     *
+     * @param id the job id
+     * @return the job, or null if there is no such job on this node
+     */
+    public HexConvertJob cancel(String id) {
+        HexConvertJob job = jobs.get(id);
+        if (job != null) {
+            job.cancel();
+        }
+        return job;
+    }
+
+    /**
+     * The job with the given id which was started or resumed on this node. Finished jobs are kept until
+     * more than <code>action.hexconvert.max_finished_jobs</code> jobs finished after them.
+     *
+     * @param id the job id
+     * @return the job, or null
+     */
+    public HexConvertJob job(String id) {
+        return jobs.get(id);
+    }
+
+    public Collection<HexConvertJob> jobs() {
+        return jobs.values();
+    }
+
+    private void next(final HexConvertJob job, boolean resumed) {
+        if (job.isCancelled()) {
+            finish(job, HexConvertJob.Status.CANCELLED, null);
+            return;
+        }
+        if (job.scrollId() == null) {
+            ShardId shard;
+            try {
+                shard = nextShard(job);
+            } catch (Throwable t) {
+                finish(job, HexConvertJob.Status.FAILED, t);
+                return;
+            }
+            if (shard == null) {
+                finish(job, HexConvertJob.Status.DONE, null);
+            } else {
+                scan(job, shard);
+            }
+        } else {
+            scroll(job, resumed);
+        }
+    }
+
+    /**
+     * The first shard of the indices of the job which is not completed, or null if all shards are completed.
+     */
+    private ShardId nextShard(HexConvertJob job) {
+        MetaData metaData = clusterService.state().metaData();
+        String[] indices = metaData.concreteIndices(IndicesOptions.lenientExpandOpen(), job.indices());
+        Arrays.sort(indices);
+        for (String index : indices) {
+            for (int i = 0; i < metaData.index(index).numberOfShards(); i++) {
+                if (!job.isCompleted(index, i)) {
+                    return new ShardId(index, i);
+                }
+            }
+        }
+        return null;
+    }
+
+    private void scan(final HexConvertJob job, final ShardId shard) {
+        client.prepareSearch(shard.index().name())
+                .setTypes(job.types())
+                .setPreference("_shards:" + shard.id())
+                .setSearchType(SearchType.SCAN)
+                .setScroll(keepAlive(job))
+                .setQuery(QueryBuilders.matchAllQuery())
+                .setSize(job.size())
+                .addFields("_routing", "_parent")
+                .setFetchSource(true)
+                .execute(new ActionListener<SearchResponse>() {
+                    @Override
+                    public void onResponse(SearchResponse response) {
+                        // a scan returns no hits on the first round trip
+                        job.scan(shard, response.getScrollId());
+                        if (response.getFailedShards() > 0 || response.getSuccessfulShards() == 0) {
+                            // the documents of the shard would be skipped
+                            ShardSearchFailure[] shardFailures = response.getShardFailures();
+                            finish(job, HexConvertJob.Status.FAILED, new IllegalStateException("failed to scan shard " + shard
+                                    + (shardFailures.length > 0 ? ": " + shardFailures[0].reason() : "")));
+                            return;
+                        }
+                        scroll(job, false);
+                    }
+
+                    @Override
+                    public void onFailure(Throwable e) {
+                        finish(job, HexConvertJob.Status.FAILED, e);
+                    }
+                });
+    }
+
+    private void scroll(final HexConvertJob job, final boolean resumed) {
+        final long startTime = System.currentTimeMillis();
+        client.prepareSearchScroll(job.scrollId())
+                .setScroll(keepAlive(job))
+                .execute(new ActionListener<SearchResponse>() {
+                    @Override
+                    public void onResponse(SearchResponse response) {
+                        ShardSearchFailure[] shardFailures = response.getShardFailures();
+                        if (shardFailures.length > 0) {
+                            // the documents of the failed shard would be skipped
+                            onFailure(new IllegalStateException("failed to read shard " + job.shard() + ": "
+                                    + shardFailures[0].reason()));
+                            return;
+                        }
+                        SearchHit[] hits = response.getHits().getHits();
+                        if (hits.length == 0) {
+                            completeShard(job);
+                            return;
+                        }
+                        BulkRequest bulkRequest;
+                        try {
+                            bulkRequest = convert(job, hits);
+                        } catch (Throwable t) {
+                            // not a lost scroll, a resumed job must not start over
+                            finish(job, HexConvertJob.Status.FAILED, t);
+                            return;
+                        }
+                        write(job, bulkRequest, hits.length, response.getScrollId(), startTime);
+                    }
+
+                    @Override
+                    public void onFailure(Throwable e) {
+                        if (resumed) {
+                            logger.info("scroll of hex conversion [{}] is gone, starting shard {} over", e, job.id(), job.shard());
+                            clearScroll(job.scrollId());
+                            job.restartShard();
+                            next(job, false);
+                        } else {
+                            finish(job, HexConvertJob.Status.FAILED, e);
+                        }
+                    }
+                });
+    }
+
+    private void completeShard(final HexConvertJob job) {
+        logger.debug("hex conversion [{}] completed shard {}", job.id(), job.shard());
+        clearScroll(job.scrollId());
+        job.completeShard();
+        checkpoint(job, new ActionListener<IndexResponse>() {
+            @Override
+            public void onResponse(IndexResponse response) {
+                schedule(job, 0L);
+            }
+
+            @Override
+            public void onFailure(Throwable e) {
+                finish(job, HexConvertJob.Status.FAILED, e);
+            }
+        });
+    }
+
+    private BulkRequest convert(HexConvertJob job, SearchHit[] hits) throws IOException {
+        BulkRequest bulkRequest = new BulkRequest();
+        for (SearchHit hit : hits) {
+            BytesReference source = hit.sourceRef();
+            if (source == null) {
+                // the document would be lost in the target index
+                throw new IllegalStateException("document [" + hit.index() + "][" + hit.type() + "][" + hit.id()
+                        + "] has no source and can not be converted");
+            }
+            byte[] b = source.toBytes();
+            XContentParser parser = XContentHelper.createParser(b, 0, b.length);
+            XContentBuilder builder = jsonBuilder();
+            try {
+                parser.nextToken();
+                XContentHelper.copyCurrentStructure(builder.generator(), parser, job.fields());
+            } finally {
+                parser.close();
+            }
+            // order is important, parent after routing, so routing is set to parent if not set explicitly
+            IndexRequest indexRequest = new IndexRequest(job.target(), hit.type(), hit.id())
+                    .routing(fieldValue(hit, "_routing"))
+                    .parent(fieldValue(hit, "_parent"))
+                    .source(builder.bytes());
+            bulkRequest.add(indexRequest);
+        }
+        return bulkRequest;
+    }
+
+    private static String fieldValue(SearchHit hit, String name) {
+        SearchHitField field = hit.field(name);
+        return field != null ? field.getValue().toString() : null;
+    }
+
+    private void write(final HexConvertJob job, BulkRequest bulkRequest, final int count, final String scrollId, final long startTime) {
+        bulkAction.execute(bulkRequest, new ActionListener<BulkResponse>() {
+            @Override
+            public void onResponse(BulkResponse response) {
+                int failed = 0;
+                BulkItemResponse firstFailure = null;
+                for (BulkItemResponse item : response) {
+                    if (item.isFailed()) {
+                        failed++;
+                        if (firstFailure == null) {
+                            firstFailure = item;
+                        }
+                    }
+                }
+                if (failed > 0) {
+                    // the scroll is past the failed documents, the job must not continue it
+                    job.failed(failed);
+                    finish(job, HexConvertJob.Status.FAILED, new IllegalStateException("failed to write " + failed
+                            + " documents, first failure: [" + firstFailure.getId() + "]: " + firstFailure.getFailureMessage()));
+                    return;
+                }
+                job.progress(count, scrollId);
+                checkpoint(job, new ActionListener<IndexResponse>() {
+                    @Override
+                    public void onResponse(IndexResponse response) {
+                        schedule(job, throttle(job, count, startTime));
+                    }
+
+                    @Override
+                    public void onFailure(Throwable e) {
+                        finish(job, HexConvertJob.Status.FAILED, e);
+                    }
+                });
+            }
+
+            @Override
+            public void onFailure(Throwable e) {
+                finish(job, HexConvertJob.Status.FAILED, e);
+            }
+        });
+    }
+
+    /**
+     * The time a scroll is kept alive between two batches, long enough for the throttle delay of a batch
+     * of <code>size</code> documents.
+     */
+    private static TimeValue keepAlive(HexConvertJob job) {
+        long millis = KEEP_ALIVE.millis();
+        if (job.docsPerSecond() > 0f) {
+            millis += (long) (job.size() * 1000L / job.docsPerSecond());
+        }
+        return TimeValue.timeValueMillis(millis);
+    }
+
+    /**
+     * The delay before the next batch, so the batch took at least the time the throttle allows for its documents.
+     */
+    private static long throttle(HexConvertJob job, int count, long startTime) {
+        if (job.docsPerSecond() <= 0f) {
+            return 0L;
+        }
+        long wanted = (long) (count * 1000L / job.docsPerSecond());
+        return Math.max(0L, wanted - (System.currentTimeMillis() - startTime));
+    }
+
+    private void schedule(final HexConvertJob job, long delay) {
+        Runnable runnable = new Runnable() {
+            @Override
+            public void run() {
+                next(job, false);
+            }
+        };
+        try {
+            if (delay > 0L) {
+                threadPool.schedule(TimeValue.timeValueMillis(delay), ThreadPool.Names.GENERIC, runnable);
+            } else {
+                threadPool.generic().execute(runnable);
+            }
+        } catch (Throwable t) {
+            finish(job, HexConvertJob.Status.FAILED, t);
+        }
+    }
+
+    private void checkpoint(HexConvertJob job, ActionListener<IndexResponse> listener) {
+        checkpoint(job, Versions.MATCH_ANY, listener);
+    }
+
+    private void checkpoint(HexConvertJob job, long version, ActionListener<IndexResponse> listener) {
+        try {
+            client.prepareIndex(CHECKPOINT_INDEX, CHECKPOINT_TYPE, job.id())
+                    .setSource(job.toXContent(XContentFactory.jsonBuilder(), ToXContent.EMPTY_PARAMS))
+                    .setVersion(version)
+                    .execute(listener);
+        } catch (IOException e) {
+            listener.onFailure(e);
+        }
+    }
+
+    private void finish(final HexConvertJob job, final HexConvertJob.Status status, Throwable t) {
+        if (t != null) {
+            logger.warn("hex conversion [{}] failed", t, job.id());
+        } else {
+            logger.info("hex conversion [{}] {} after {} documents", job.id(), status.name().toLowerCase(Locale.ROOT), job.processed());
+        }
+        // a cancelled job keeps its scroll, so it can be resumed after its last batch
+        if (status != HexConvertJob.Status.CANCELLED && job.scrollId() != null) {
+            clearScroll(job.scrollId());
+            job.scrollId(null);
+        }
+        job.finish(status, t != null ? ExceptionsHelper.detailedMessage(t) : null);
+        checkpoint(job, new ActionListener<IndexResponse>() {
+            @Override
+            public void onResponse(IndexResponse response) {
+                retire(job);
+            }
+
+            @Override
+            public void onFailure(Throwable e) {
+                logger.warn("failed to write checkpoint of hex conversion [{}]", e, job.id());
+                retire(job);
+            }
+        });
+    }
+
+    /**
+     * Keeps a finished job for its status, and drops the oldest finished jobs.
+     */
+    private void retire(HexConvertJob job) {
+        finished.add(job);
+        while (finished.size() > maxFinishedJobs) {
+            HexConvertJob oldest = finished.poll();
+            if (oldest != null) {
+                // a job which was resumed on this node in the meantime is kept
+                jobs.remove(oldest.id(), oldest);
+            }
+        }
+    }
+
+    private void clearScroll(final String scrollId) {
+        client.prepareClearScroll().addScrollId(scrollId).execute(new ActionListener<ClearScrollResponse>() {
+            @Override
+            public void onResponse(ClearScrollResponse response) {
+            }
+
+            @Override
+            public void onFailure(Throwable e) {
+                logger.debug("failed to clear scroll [{}]", e, scrollId);
+            }
+        });
+    }
+
+    /**
+     * A new job id.
+     */
+    public static String newId() {
+        return Strings.randomBase64UUID();
+    }
+}
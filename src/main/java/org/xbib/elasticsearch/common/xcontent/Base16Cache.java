@@ -0,0 +1,175 @@
+package org.xbib.elasticsearch.common.xcontent;
+
+import org.elasticsearch.common.Base64;
+import org.elasticsearch.common.cache.Cache;
+import org.elasticsearch.common.cache.CacheBuilder;
+import org.elasticsearch.common.cache.Weigher;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A bounded, concurrent LRU cache of transcoded hex values. The key is a 64 bit fingerprint of the hex
+ * characters, the entry holds the hex characters and the base64 text, so a repeated value is written without
+ * being decoded and encoded again. The cache is shared by all indices of a node, so the hex characters of
+ * an entry are compared on every hit, a colliding fingerprint is a miss and never returns another value.
+ * Only values of a minimum length are cached, shorter values are cheaper to transcode than to look up.
+ */
+public class Base16Cache {
+
+    private static final int ENTRY_OVERHEAD = 64;
+
+    private final int minLength;
+
+    private final Cache<Key, Entry> cache;
+
+    private final AtomicLong collisions = new AtomicLong();
+
+    /**
+     * @param maxSizeInBytes the maximum size of the cached hex characters and base64 values
+     * @param minLength the minimum number of hex characters of a cached value
+     */
+    public Base16Cache(long maxSizeInBytes, int minLength) {
+        this.minLength = minLength;
+        this.cache = CacheBuilder.newBuilder()
+                .maximumWeight(maxSizeInBytes)
+                .weigher(new Weigher<Key, Entry>() {
+                    @Override
+                    public int weigh(Key key, Entry entry) {
+                        return (entry.text.length << 1) + entry.encoded.length + ENTRY_OVERHEAD;
+                    }
+                })
+                .recordStats()
+                .build();
+    }
+
+    public int minLength() {
+        return minLength;
+    }
+
+    /**
+     * The base64 text of hex characters, as UTF-8 bytes, from the cache, or decoded and encoded and put into the cache.
+     *
+     * @param text the characters
+     * @param offset the offset
+     * @param length the length
+     * @return the base64 text, or null if the characters are not hex
+     */
+    public byte[] encode(char[] text, int offset, int length) {
+        Key key = new Key(fingerprint(text, offset, length), length);
+        Entry entry = cache.getIfPresent(key);
+        if (entry != null) {
+            if (entry.matches(text, offset, length)) {
+                return entry.encoded;
+            }
+            collisions.incrementAndGet();
+        }
+        byte[] b = XContentHelper.decodeBase16(text, offset, length);
+        if (b == null) {
+            return null;
+        }
+        byte[] encoded = Base64.encodeBytesToBytes(b);
+        cache.put(key, new Entry(Arrays.copyOfRange(text, offset, offset + length), encoded));
+        return encoded;
+    }
+
+    /**
+     * The number of lookups which returned a cached value.
+     */
+    public long hits() {
+        return cache.stats().hitCount() - collisions.get();
+    }
+
+    /**
+     * The number of lookups which transcoded the value, including the lookups of colliding fingerprints.
+     */
+    public long misses() {
+        return cache.stats().missCount() + collisions.get();
+    }
+
+    /**
+     * The number of lookups of colliding fingerprints.
+     */
+    public long collisions() {
+        return collisions.get();
+    }
+
+    public long evictions() {
+        return cache.stats().evictionCount();
+    }
+
+    public long size() {
+        return cache.size();
+    }
+
+    /**
+     * A 64 bit fingerprint of the characters.
+     *
+     * @param text the characters
+     * @param offset the offset
+     * @param length the length
+     * @return the fingerprint
+     */
+    protected long fingerprint(char[] text, int offset, int length) {
+        long h = 0xcbf29ce484222325L;
+        for (int i = offset; i < offset + length; i++) {
+            h = (h ^ text[i]) * 0x100000001b3L;
+        }
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+
+    private static final class Key {
+
+        private final long fingerprint;
+
+        private final int length;
+
+        Key(long fingerprint, int length) {
+            this.fingerprint = fingerprint;
+            this.length = length;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key key = (Key) o;
+            return fingerprint == key.fingerprint && length == key.length;
+        }
+
+        @Override
+        public int hashCode() {
+            return (int) (fingerprint ^ (fingerprint >>> 32));
+        }
+    }
+
+    private static final class Entry {
+
+        private final char[] text;
+
+        private final byte[] encoded;
+
+        Entry(char[] text, byte[] encoded) {
+            this.text = text;
+            this.encoded = encoded;
+        }
+
+        boolean matches(char[] text, int offset, int length) {
+            if (this.text.length != length) {
+                return false;
+            }
+            for (int i = 0; i < length; i++) {
+                if (this.text[i] != text[offset + i]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+}
@@ -0,0 +1,113 @@
+package org.xbib.elasticsearch.common.xcontent;
+
+import org.elasticsearch.common.util.concurrent.ConcurrentCollections;
+
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Learns per field path whether string values are hex. After a warm-up, decoding is not tried anymore on
+ * paths where (almost) no value was hex, except for a re-sample every some skipped values, so a path which
+ * turns into hex is picked up again. The statistics are lock-free, the counts are halved when they get large,
+ * so old samples fade out. The number of learned paths is bounded, values of paths beyond the bound are always
+ * tried, as without detector.
+ */
+public class Base16Detector {
+
+    private static final long MAX_SAMPLES = 1L << 16;
+
+    private final int warmup;
+
+    private final int resampleInterval;
+
+    private final int maxPaths;
+
+    private final ConcurrentMap<String, Stats> stats = ConcurrentCollections.newConcurrentMap();
+
+    /**
+     * @param warmup the number of values per path which are always tried
+     * @param resampleInterval a skipped path is tried again once per this number of values
+     * @param maxPaths the maximum number of paths which are learned
+     */
+    public Base16Detector(int warmup, int resampleInterval, int maxPaths) {
+        this.warmup = warmup;
+        this.resampleInterval = resampleInterval;
+        this.maxPaths = maxPaths;
+    }
+
+    /**
+     * Whether to try to decode a value of a path.
+     *
+     * @param path the field path
+     * @return true if decoding should be tried
+     */
+    public boolean shouldDecode(String path) {
+        Stats s = stats(path);
+        if (s == null) {
+            return true;
+        }
+        long counts = s.counts.get();
+        long successes = counts >>> 32;
+        long total = successes + (counts & 0xffffffffL);
+        if (total < warmup || successes * 100L >= total) {
+            return true;
+        }
+        return s.skipped.incrementAndGet() % resampleInterval == 0;
+    }
+
+    /**
+     * Records the outcome of a decode of a value of a path.
+     *
+     * @param path the field path
+     * @param success true if the value was hex
+     */
+    public void record(String path, boolean success) {
+        Stats s = stats(path);
+        if (s == null) {
+            return;
+        }
+        AtomicLong counts = s.counts;
+        while (true) {
+            long current = counts.get();
+            long successes = (current >>> 32) + (success ? 1 : 0);
+            long failures = (current & 0xffffffffL) + (success ? 0 : 1);
+            if (successes + failures > MAX_SAMPLES) {
+                successes >>>= 1;
+                failures >>>= 1;
+            }
+            if (counts.compareAndSet(current, (successes << 32) | failures)) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * @return the number of learned paths
+     */
+    public int size() {
+        return stats.size();
+    }
+
+    // null if the path is new and the bound is reached, the bound may be exceeded by concurrent new paths
+    private Stats stats(String path) {
+        Stats s = stats.get(path);
+        if (s == null) {
+            if (stats.size() >= maxPaths) {
+                return null;
+            }
+            s = new Stats();
+            Stats previous = stats.putIfAbsent(path, s);
+            if (previous != null) {
+                s = previous;
+            }
+        }
+        return s;
+    }
+
+    private static class Stats {
+        // successes in the high, failures in the low 32 bits, so both are updated together
+        final AtomicLong counts = new AtomicLong();
+
+        final AtomicLong skipped = new AtomicLong();
+    }
+}
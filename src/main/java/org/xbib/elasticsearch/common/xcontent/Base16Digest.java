@@ -0,0 +1,78 @@
+package org.xbib.elasticsearch.common.xcontent;
+
+import org.elasticsearch.common.hash.MurmurHash3;
+
+import java.util.Set;
+
+/**
+ * A 128 bit murmur3 hash of the decoded hex values of chosen fields of a document, computed while the
+ * document is transcoded. Each value is hashed with its field path as seed, and the hashes are added,
+ * so the digest does not depend on the order of the fields. The digest serves as content-addressed id,
+ * a retried document gets the same id and overwrites itself instead of being duplicated.
+ *
+ * Not thread safe, use one digest per document.
+ */
+public class Base16Digest {
+
+    private static final char[] DIGITS = "0123456789abcdef".toCharArray();
+
+    private final Set<String> fields;
+
+    private final MurmurHash3.Hash128 hash = new MurmurHash3.Hash128();
+
+    private long h1;
+
+    private long h2;
+
+    private boolean empty = true;
+
+    /**
+     * @param fields the paths of the fields which are hashed
+     */
+    public Base16Digest(Set<String> fields) {
+        this.fields = fields;
+    }
+
+    /**
+     * Whether the values of a field are hashed.
+     *
+     * @param path the field path
+     * @return true if the values of the field are hashed
+     */
+    public boolean contains(String path) {
+        return fields.contains(path);
+    }
+
+    /**
+     * Adds a decoded value, if its field is hashed.
+     *
+     * @param path the field path
+     * @param b the decoded bytes
+     */
+    public void update(String path, byte[] b) {
+        if (!fields.contains(path)) {
+            return;
+        }
+        MurmurHash3.hash128(b, 0, b.length, path.hashCode(), hash);
+        h1 += hash.h1;
+        h2 += hash.h2;
+        empty = false;
+    }
+
+    /**
+     * The digest as 32 hex digits.
+     *
+     * @return the digest, or null if no value was hashed
+     */
+    public String digest() {
+        if (empty) {
+            return null;
+        }
+        char[] chars = new char[32];
+        for (int i = 0; i < 16; i++) {
+            chars[15 - i] = DIGITS[(int) (h1 >>> (i << 2)) & 0x0f];
+            chars[31 - i] = DIGITS[(int) (h2 >>> (i << 2)) & 0x0f];
+        }
+        return new String(chars);
+    }
+}
@@ -0,0 +1,84 @@
+package org.xbib.elasticsearch.common.xcontent;
+
+import org.elasticsearch.common.net.InetAddresses;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.util.Locale;
+
+/**
+ * The type a hex value of a field is decoded into, instead of binary.
+ */
+public enum Base16Target {
+
+    /**
+     * A signed long, the hex value must not exceed <code>7FFFFFFFFFFFFFFF</code>.
+     */
+    LONG,
+
+    /**
+     * An unsigned 64 bit value, such as a hash, written with the bits of a long, values from
+     * <code>8000000000000000</code> on are negative.
+     */
+    UNSIGNED_LONG,
+
+    /**
+     * An IP address of 4 or 16 bytes, written in its text form.
+     */
+    IP;
+
+    public static Base16Target fromString(String name) {
+        try {
+            return valueOf(name.toUpperCase(Locale.ROOT));
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("unknown hex target [" + name + "], expected [long], [unsigned_long] or [ip]");
+        }
+    }
+
+    /**
+     * Decodes hex characters and writes them as value of this type.
+     *
+     * @param generator the generator
+     * @param text the characters
+     * @param offset the offset
+     * @param length the length
+     * @throws IOException if the value can not be written
+     */
+    public void write(XContentGenerator generator, char[] text, int offset, int length) throws IOException {
+        switch (this) {
+            case LONG:
+                if (length == 16 && XContentHelper.hexToBin(text[offset]) > 7) {
+                    throw new IllegalArgumentException("hex value out of range for long: " + new String(text, offset, length));
+                }
+                generator.writeNumber(parseLong(text, offset, length));
+                break;
+            case UNSIGNED_LONG:
+                generator.writeNumber(parseLong(text, offset, length));
+                break;
+            case IP:
+                byte[] b = XContentHelper.decodeBase16(text, offset, length);
+                if (b == null || (b.length != 4 && b.length != 16)) {
+                    throw new IllegalArgumentException("hex value is not an IP address: " + new String(text, offset, length));
+                }
+                generator.writeString(InetAddresses.toAddrString(InetAddress.getByAddress(b)));
+                break;
+            default:
+                throw new IllegalStateException();
+        }
+    }
+
+    private static long parseLong(char[] text, int offset, int length) {
+        if (length == 0 || length > 16) {
+            throw new IllegalArgumentException("hex value out of range for long: " + new String(text, offset, length));
+        }
+        long value = 0L;
+        for (int i = offset; i < offset + length; i++) {
+            int digit = XContentHelper.hexToBin(text[i]);
+            if (digit == -1) {
+                throw new IllegalArgumentException("contains illegal character for hex string: " + new String(text, offset, length));
+            }
+            value = (value << 4) | digit;
+        }
+        return value;
+    }
+}
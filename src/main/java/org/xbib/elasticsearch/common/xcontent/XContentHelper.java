@@ -7,9 +7,14 @@ import java.util.ArrayList;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 public class XContentHelper {
 
+    /**
+     * The field of an object which marks its string value as hex, e.g. <code>{"$hex":"4AC3B67267"}</code>.
+     */
+    public static final String BASE16_MARKER = "$hex";
 
     public static XContentParser createParser(byte[] data, int offset, int length) throws IOException {
         return XContentFactory.xContent(data, offset, length).createParser(data, offset, length);
@@ -164,6 +169,10 @@ public class XContentHelper {
     }
 
     public static void copyCurrentStructure(XContentGenerator generator, XContentParser parser) throws IOException {
+        if (parser.isBase16Checks() && (parser.base16Detector() != null || parser.base16Targets() != null || parser.base16Digest() != null)) {
+            copyPathStructure(generator, parser, null);
+            return;
+        }
         XContentParser.Token t = parser.currentToken();
 
         // Let's handle field-name separately first
@@ -182,9 +191,15 @@ public class XContentHelper {
                 generator.writeEndArray();
                 break;
             case START_OBJECT:
+                t = parser.nextToken();
+                if (t == XContentParser.Token.FIELD_NAME && parser.isBase16Checks() && BASE16_MARKER.equals(parser.currentName())) {
+                    copyBase16Marker(generator, parser, null, null);
+                    break;
+                }
                 generator.writeStartObject();
-                while (parser.nextToken() != XContentParser.Token.END_OBJECT) {
+                while (t != XContentParser.Token.END_OBJECT) {
                     copyCurrentStructure(generator, parser);
+                    t = parser.nextToken();
                 }
                 generator.writeEndObject();
                 break;
@@ -193,6 +208,106 @@ public class XContentHelper {
         }
     }
 
+    /**
+     * Copies the current structure, and tracks the field paths, for the decode targets and the digest of the paths,
+     * and so the detector can learn which paths hold hex strings.
+     */
+    private static void copyPathStructure(XContentGenerator generator, XContentParser parser, String path) throws IOException {
+        XContentParser.Token t = parser.currentToken();
+        if (t == XContentParser.Token.FIELD_NAME) {
+            String name = parser.currentName();
+            generator.writeFieldName(name);
+            t = parser.nextToken();
+            // the fields of the doc and upsert objects of an update source have the paths of an index source
+            boolean updateObject = path == null && t == XContentParser.Token.START_OBJECT && parser.isBase16UpdateSource()
+                    && ("doc".equals(name) || "upsert".equals(name));
+            if (!updateObject) {
+                path = path == null ? name : path + '.' + name;
+            }
+        }
+        switch (t) {
+            case START_ARRAY:
+                generator.writeStartArray();
+                while (parser.nextToken() != XContentParser.Token.END_ARRAY) {
+                    copyPathStructure(generator, parser, path);
+                }
+                generator.writeEndArray();
+                break;
+            case START_OBJECT:
+                t = parser.nextToken();
+                if (t == XContentParser.Token.FIELD_NAME && BASE16_MARKER.equals(parser.currentName())) {
+                    copyBase16Marker(generator, parser, target(parser, path), path);
+                    break;
+                }
+                generator.writeStartObject();
+                while (t != XContentParser.Token.END_OBJECT) {
+                    copyPathStructure(generator, parser, path);
+                    t = parser.nextToken();
+                }
+                generator.writeEndObject();
+                break;
+            case VALUE_STRING:
+                Base16Target target = target(parser, path);
+                if (target != null) {
+                    copyBase16Target(generator, parser, target);
+                } else {
+                    copyBase16String(generator, parser, parser.base16Detector(), path);
+                }
+                break;
+            default:
+                copyCurrentEvent(generator, parser);
+        }
+    }
+
+    private static Base16Target target(XContentParser parser, String path) {
+        Map<String, Base16Target> targets = parser.base16Targets();
+        return targets != null && path != null ? targets.get(path) : null;
+    }
+
+    /**
+     * Copies the current structure, and decodes hex strings only in the fields with the given paths.
+     * Paths of fields in inner objects are dotted, e.g. <code>obj.hex</code>.
+     *
+     * @param generator the generator
+     * @param parser the parser
+     * @param base16Fields the paths of the fields with hex strings
+     * @throws IOException if the structure can not be copied
+     */
+    public static void copyCurrentStructure(XContentGenerator generator, XContentParser parser, Set<String> base16Fields) throws IOException {
+        copyCurrentStructure(generator, parser, base16Fields, null);
+    }
+
+    private static void copyCurrentStructure(XContentGenerator generator, XContentParser parser, Set<String> base16Fields, String path) throws IOException {
+        XContentParser.Token t = parser.currentToken();
+        if (t == XContentParser.Token.FIELD_NAME) {
+            String name = parser.currentName();
+            generator.writeFieldName(name);
+            path = path == null ? name : path + '.' + name;
+            t = parser.nextToken();
+        }
+        switch (t) {
+            case START_ARRAY:
+                generator.writeStartArray();
+                while (parser.nextToken() != XContentParser.Token.END_ARRAY) {
+                    copyCurrentStructure(generator, parser, base16Fields, path);
+                }
+                generator.writeEndArray();
+                break;
+            case START_OBJECT:
+                generator.writeStartObject();
+                while (parser.nextToken() != XContentParser.Token.END_OBJECT) {
+                    copyCurrentStructure(generator, parser, base16Fields, path);
+                }
+                generator.writeEndObject();
+                break;
+            default:
+                boolean base16Checks = parser.isBase16Checks();
+                parser.enableBase16Checks(path != null && base16Fields.contains(path));
+                copyCurrentEvent(generator, parser);
+                parser.enableBase16Checks(base16Checks);
+        }
+    }
+
     public static void copyCurrentEvent(XContentGenerator generator, XContentParser parser) throws IOException {
         switch (parser.currentToken()) {
             case START_OBJECT:
@@ -211,28 +326,12 @@ public class XContentHelper {
                 generator.writeFieldName(parser.currentName());
                 break;
             case VALUE_STRING:
-                if (parser.hasTextCharacters()) {
-                    if (parser.isBase16Checks()) {
-                        try {
-                            byte[] b = parseBase16(new String(parser.textCharacters(), parser.textOffset(), parser.textLength()));
-                            generator.writeBinary(b);
-                        } catch (Exception e) {
-                            generator.writeString(parser.textCharacters(), parser.textOffset(), parser.textLength());
-                        }
-                    } else {
-                        generator.writeString(parser.textCharacters(), parser.textOffset(), parser.textLength());
-                    }
+                if (parser.isBase16Checks()) {
+                    copyBase16String(generator, parser, null, null);
+                } else if (parser.hasTextCharacters()) {
+                    generator.writeString(parser.textCharacters(), parser.textOffset(), parser.textLength());
                 } else {
-                    if (parser.isBase16Checks()) {
-                        try {
-                            byte[] b = parseBase16(parser.text());
-                            generator.writeBinary(b);
-                        } catch (Exception e) {
-                            generator.writeString(parser.text());
-                        }
-                    } else {
-                        generator.writeString(parser.text());
-                    }
+                    generator.writeString(parser.text());
                 }
                 break;
             case VALUE_NUMBER:
@@ -271,6 +370,137 @@ public class XContentHelper {
         }
     }
 
+    /**
+     * Copies the value of a <code>{"$hex":"..."}</code> marker object as binary value. The parser is positioned
+     * on the marker field name, and is left on the end of the marker object.
+     */
+    private static void copyBase16Marker(XContentGenerator generator, XContentParser parser, Base16Target target, String path) throws IOException {
+        if (parser.nextToken() != XContentParser.Token.VALUE_STRING) {
+            throw new IllegalArgumentException("malformed " + BASE16_MARKER + " marker, expected a string value");
+        }
+        char[] text = parser.textCharacters();
+        int offset = parser.textOffset();
+        int length = parser.textLength();
+        if (target != null) {
+            target.write(generator, text, offset, length);
+        } else if (!writeBase16(generator, parser, text, offset, length, path)) {
+            throw new IllegalArgumentException("marked value is not hex: " + new String(text, offset, length));
+        }
+        if (parser.nextToken() != XContentParser.Token.END_OBJECT) {
+            throw new IllegalArgumentException("malformed " + BASE16_MARKER + " marker, expected a single field");
+        }
+    }
+
+    /**
+     * Copies a string value of a path with a decode target, as value of the target type.
+     * The values of such a path are always hex, marked by the prefix or not.
+     */
+    private static void copyBase16Target(XContentGenerator generator, XContentParser parser, Base16Target target) throws IOException {
+        char[] text = parser.textCharacters();
+        int offset = parser.textOffset();
+        int length = parser.textLength();
+        String prefix = parser.base16Prefix();
+        if (prefix != null && startsWith(text, offset, length, prefix)) {
+            target.write(generator, text, offset + prefix.length(), length - prefix.length());
+        } else {
+            target.write(generator, text, offset, length);
+        }
+    }
+
+    /**
+     * Copies a string value, as binary value if it is marked by the prefix, or if it is hex and unmarked
+     * values are decoded, and the detector, if any, does not skip the path. Paths of the digest are never skipped,
+     * so the digest of a document does not depend on the state of the detector.
+     */
+    private static void copyBase16String(XContentGenerator generator, XContentParser parser, Base16Detector detector, String path) throws IOException {
+        char[] text = parser.textCharacters();
+        int offset = parser.textOffset();
+        int length = parser.textLength();
+        String prefix = parser.base16Prefix();
+        if (prefix != null && startsWith(text, offset, length, prefix)) {
+            if (!writeBase16(generator, parser, text, offset + prefix.length(), length - prefix.length(), path)) {
+                throw new IllegalArgumentException("marked value is not hex: " + new String(text, offset, length));
+            }
+            return;
+        }
+        boolean hashed = path != null && parser.base16Digest() != null && parser.base16Digest().contains(path);
+        if (!parser.isBase16MarkedOnly() && (detector == null || hashed || detector.shouldDecode(path))) {
+            boolean hex = writeBase16(generator, parser, text, offset, length, path);
+            if (detector != null) {
+                detector.record(path, hex);
+            }
+            if (hex) {
+                return;
+            }
+        }
+        generator.writeString(text, offset, length);
+    }
+
+    /**
+     * Writes hex characters as binary value. Long values are taken from the cache, if there is one, and the
+     * output is JSON, where binary values are base64 text. Values for the digest are always decoded.
+     *
+     * @return false if the characters are not hex, then nothing is written
+     */
+    private static boolean writeBase16(XContentGenerator generator, XContentParser parser, char[] text, int offset, int length,
+                                       String path) throws IOException {
+        Base16Cache cache = parser.base16Cache();
+        if (cache != null && length >= cache.minLength() && parser.base16Digest() == null
+                && generator.contentType() == XContentType.JSON) {
+            byte[] encoded = cache.encode(text, offset, length);
+            if (encoded == null) {
+                return false;
+            }
+            generator.writeUTF8String(encoded, 0, encoded.length);
+            return true;
+        }
+        byte[] b = decodeBase16(text, offset, length);
+        if (b == null) {
+            return false;
+        }
+        if (path != null && parser.base16Digest() != null) {
+            parser.base16Digest().update(path, b);
+        }
+        generator.writeBinary(b);
+        return true;
+    }
+
+    private static boolean startsWith(char[] text, int offset, int length, String prefix) {
+        if (length < prefix.length()) {
+            return false;
+        }
+        for (int i = 0; i < prefix.length(); i++) {
+            if (text[offset + i] != prefix.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Decodes hex characters, without an exception for characters which are not hex.
+     *
+     * @param text the characters
+     * @param offset the offset
+     * @param length the length
+     * @return the bytes, or null if the characters are not hex
+     */
+    public static byte[] decodeBase16(char[] text, int offset, int length) {
+        if (length % 2 != 0) {
+            return null;
+        }
+        byte[] out = new byte[length / 2];
+        for (int i = 0; i < length; i += 2) {
+            int h = hexToBin(text[offset + i]);
+            int l = hexToBin(text[offset + i + 1]);
+            if (h == -1 || l == -1) {
+                return null;
+            }
+            out[i / 2] = (byte) (h * 16 + l);
+        }
+        return out;
+    }
+
     public static byte[] parseBase16(String s) {
         final int len = s.length();
         if( len%2 != 0 ) {
@@ -288,7 +518,7 @@ public class XContentHelper {
         return out;
     }
 
-    private static int hexToBin(char ch) {
+    static int hexToBin(char ch) {
         if ('0' <= ch && ch <= '9') {
             return ch-'0';
         }
@@ -156,5 +156,55 @@ public interface XContentParser extends Closeable {
 
     boolean isBase16Checks();
 
+    /**
+     * With base16 checks, decode only marked values, and never try plain strings.
+     */
+    XContentParser enableBase16MarkedOnly(boolean b);
+
+    boolean isBase16MarkedOnly();
+
+    /**
+     * With base16 checks, the source is an update source, and the field paths are taken below its <code>doc</code>
+     * and <code>upsert</code> objects, so they match the paths of an index source.
+     */
+    XContentParser enableBase16UpdateSource(boolean b);
+
+    boolean isBase16UpdateSource();
+
+    /**
+     * With base16 checks, decode strings with this prefix, such as <code>0x</code>, or null for no prefix.
+     */
+    XContentParser base16Prefix(String prefix);
+
+    String base16Prefix();
+
+    /**
+     * With base16 checks, let the detector decide per field path whether unmarked strings are tried, or null.
+     */
+    XContentParser base16Detector(Base16Detector detector);
+
+    Base16Detector base16Detector();
+
+    /**
+     * With base16 checks, the decode targets of field paths, for hex values which are numbers or addresses, or null.
+     */
+    XContentParser base16Targets(Map<String, Base16Target> targets);
+
+    Map<String, Base16Target> base16Targets();
+
+    /**
+     * With base16 checks, the digest of the decoded values of the current document, or null.
+     */
+    XContentParser base16Digest(Base16Digest digest);
+
+    Base16Digest base16Digest();
+
+    /**
+     * With base16 checks, the cache of transcoded values, or null.
+     */
+    XContentParser base16Cache(Base16Cache cache);
+
+    Base16Cache base16Cache();
+
     void close();
 }
@@ -2,6 +2,10 @@
 package org.xbib.elasticsearch.common.xcontent.support;
 
 import org.elasticsearch.common.Booleans;
+import org.xbib.elasticsearch.common.xcontent.Base16Cache;
+import org.xbib.elasticsearch.common.xcontent.Base16Detector;
+import org.xbib.elasticsearch.common.xcontent.Base16Digest;
+import org.xbib.elasticsearch.common.xcontent.Base16Target;
 import org.xbib.elasticsearch.common.xcontent.XContentHelper;
 import org.xbib.elasticsearch.common.xcontent.XContentParser;
 
@@ -18,6 +22,20 @@ public abstract class AbstractXContentParser implements XContentParser {
 
     protected boolean base16Checks;
 
+    protected boolean base16MarkedOnly;
+
+    protected boolean base16UpdateSource;
+
+    protected String base16Prefix;
+
+    protected Base16Detector base16Detector;
+
+    protected Map<String, Base16Target> base16Targets;
+
+    protected Base16Digest base16Digest;
+
+    protected Base16Cache base16Cache;
+
     @Override
     public boolean isBooleanValue() throws IOException {
         switch (currentToken()) {
@@ -114,6 +132,69 @@ public abstract class AbstractXContentParser implements XContentParser {
         return base16Checks;
     }
 
+    public XContentParser enableBase16MarkedOnly(boolean base16MarkedOnly) {
+        this.base16MarkedOnly = base16MarkedOnly;
+        return this;
+    }
+
+    public boolean isBase16MarkedOnly() {
+        return base16MarkedOnly;
+    }
+
+    public XContentParser enableBase16UpdateSource(boolean base16UpdateSource) {
+        this.base16UpdateSource = base16UpdateSource;
+        return this;
+    }
+
+    public boolean isBase16UpdateSource() {
+        return base16UpdateSource;
+    }
+
+    public XContentParser base16Prefix(String base16Prefix) {
+        this.base16Prefix = base16Prefix;
+        return this;
+    }
+
+    public String base16Prefix() {
+        return base16Prefix;
+    }
+
+    public XContentParser base16Detector(Base16Detector base16Detector) {
+        this.base16Detector = base16Detector;
+        return this;
+    }
+
+    public Base16Detector base16Detector() {
+        return base16Detector;
+    }
+
+    public XContentParser base16Targets(Map<String, Base16Target> base16Targets) {
+        this.base16Targets = base16Targets;
+        return this;
+    }
+
+    public Map<String, Base16Target> base16Targets() {
+        return base16Targets;
+    }
+
+    public XContentParser base16Digest(Base16Digest base16Digest) {
+        this.base16Digest = base16Digest;
+        return this;
+    }
+
+    public Base16Digest base16Digest() {
+        return base16Digest;
+    }
+
+    public XContentParser base16Cache(Base16Cache base16Cache) {
+        this.base16Cache = base16Cache;
+        return this;
+    }
+
+    public Base16Cache base16Cache() {
+        return base16Cache;
+    }
+
     public String textOrNull() throws IOException {
         if (currentToken() == Token.VALUE_NULL) {
             return null;
@@ -0,0 +1,76 @@
+package org.xbib.elasticsearch.index.mapper.hex;
+
+import org.apache.lucene.analysis.TokenStream;
+import org.apache.lucene.analysis.tokenattributes.TermToBytesRefAttribute;
+import org.apache.lucene.util.AttributeImpl;
+import org.apache.lucene.util.BytesRef;
+
+/**
+ * A token stream with a single term of raw bytes, for indexing decoded hex values as they are.
+ */
+public final class BinaryTokenStream extends TokenStream {
+
+    private final ByteTermAttribute bytesAtt = addAttribute(ByteTermAttribute.class);
+
+    private final BytesRef bytes;
+
+    private boolean available = true;
+
+    public BinaryTokenStream(BytesRef bytes) {
+        this.bytes = bytes;
+    }
+
+    @Override
+    public boolean incrementToken() {
+        if (available) {
+            clearAttributes();
+            available = false;
+            bytesAtt.setBytesRef(bytes);
+            return true;
+        }
+        return false;
+    }
+
+    @Override
+    public void reset() {
+        available = true;
+    }
+
+    public interface ByteTermAttribute extends TermToBytesRefAttribute {
+
+        void setBytesRef(BytesRef bytes);
+    }
+
+    // attribute interfaces are only registered if the implementation implements them directly
+    public static class ByteTermAttributeImpl extends AttributeImpl implements ByteTermAttribute, TermToBytesRefAttribute {
+
+        // the indexer holds on to this instance, so the term is set into it
+        private final BytesRef bytes = new BytesRef();
+
+        @Override
+        public void fillBytesRef() {
+            // the bytes are set directly
+        }
+
+        @Override
+        public BytesRef getBytesRef() {
+            return bytes;
+        }
+
+        @Override
+        public void setBytesRef(BytesRef bytes) {
+            this.bytes.bytes = bytes.bytes;
+            this.bytes.offset = bytes.offset;
+            this.bytes.length = bytes.length;
+        }
+
+        @Override
+        public void clear() {
+        }
+
+        @Override
+        public void copyTo(AttributeImpl target) {
+            ((ByteTermAttributeImpl) target).setBytesRef(bytes);
+        }
+    }
+}
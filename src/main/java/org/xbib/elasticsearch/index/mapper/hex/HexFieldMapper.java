@@ -0,0 +1,223 @@
+package org.xbib.elasticsearch.index.mapper.hex;
+
+import org.apache.lucene.document.Field;
+import org.apache.lucene.document.FieldType;
+import org.apache.lucene.document.StoredField;
+import org.apache.lucene.index.FieldInfo;
+import org.apache.lucene.util.BytesRef;
+import org.elasticsearch.ElasticsearchIllegalArgumentException;
+import org.elasticsearch.common.Base64;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.common.xcontent.XContentBuilder;
+import org.elasticsearch.common.xcontent.XContentParser;
+import org.elasticsearch.common.xcontent.support.XContentMapValues;
+import org.elasticsearch.index.codec.docvaluesformat.DocValuesFormatProvider;
+import org.elasticsearch.index.codec.postingsformat.PostingsFormatProvider;
+import org.elasticsearch.index.mapper.Mapper;
+import org.elasticsearch.index.mapper.MapperParsingException;
+import org.elasticsearch.index.mapper.MergeContext;
+import org.elasticsearch.index.mapper.MergeMappingException;
+import org.elasticsearch.index.mapper.ParseContext;
+import org.elasticsearch.index.mapper.core.AbstractFieldMapper;
+import org.elasticsearch.index.mapper.core.BinaryFieldMapper;
+import org.xbib.elasticsearch.common.xcontent.XContentHelper;
+
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+import static org.elasticsearch.index.mapper.core.TypeParsers.parseField;
+
+/**
+ * A binary field which is indexed as raw bytes. The <code>format</code> of the string values is
+ * explicit, the values are never guessed, because many base64 strings are also valid hex strings.
+ * With <code>"format":"base64"</code>, the default, the values are base64, like in binary fields, which
+ * is what <code>_bulkhex</code> sends for hex values. With <code>"format":"hex"</code>, the values are hex
+ * strings, which are decoded while the document is parsed, so the source keeps the hex strings and is not
+ * transcoded. This works with all index APIs, not only with <code>_bulkhex</code>.
+ * With <code>"index":"not_analyzed"</code>, the decoded bytes are also indexed as a raw term, and term and
+ * range queries on the field take values in the format of the field.
+ * <pre>
+ *     {"properties":{"hex":{"type":"hex","format":"hex","store":true,"index":"not_analyzed"}}}
+ * </pre>
+ */
+public class HexFieldMapper extends BinaryFieldMapper {
+
+    public static final String CONTENT_TYPE = "hex";
+
+    /**
+     * The decoded bytes are indexed as a single term, with <code>"index":"not_analyzed"</code>.
+     */
+    static final FieldType TERM_FIELD_TYPE = new FieldType();
+
+    static {
+        TERM_FIELD_TYPE.setIndexed(true);
+        TERM_FIELD_TYPE.setTokenized(true);
+        TERM_FIELD_TYPE.setOmitNorms(true);
+        TERM_FIELD_TYPE.setIndexOptions(FieldInfo.IndexOptions.DOCS_ONLY);
+        TERM_FIELD_TYPE.freeze();
+    }
+
+    /**
+     * The format of the string values of the field.
+     */
+    public enum Format {
+        BASE64, HEX;
+
+        public static Format fromString(String format) {
+            if ("base64".equals(format)) {
+                return BASE64;
+            }
+            if ("hex".equals(format)) {
+                return HEX;
+            }
+            throw new MapperParsingException("unknown format [" + format + "], must be base64 or hex");
+        }
+
+        @Override
+        public String toString() {
+            return name().toLowerCase(Locale.ROOT);
+        }
+    }
+
+    public static class Builder extends AbstractFieldMapper.Builder<Builder, HexFieldMapper> {
+
+        private Format format = Format.BASE64;
+
+        public Builder(String name) {
+            super(name, new FieldType(Defaults.FIELD_TYPE));
+            builder = this;
+        }
+
+        public Builder format(Format format) {
+            this.format = format;
+            return this;
+        }
+
+        @Override
+        public HexFieldMapper build(BuilderContext context) {
+            return new HexFieldMapper(buildNames(context), fieldType, docValues, postingsProvider, docValuesProvider,
+                    fieldDataSettings, multiFieldsBuilder.build(this, context), copyTo, format);
+        }
+    }
+
+    public static class TypeParser implements Mapper.TypeParser {
+
+        @Override
+        public Mapper.Builder parse(String name, Map<String, Object> node, ParserContext parserContext) throws MapperParsingException {
+            HexFieldMapper.Builder builder = new HexFieldMapper.Builder(name);
+            parseField(builder, name, node, parserContext);
+            for (Iterator<Map.Entry<String, Object>> iterator = node.entrySet().iterator(); iterator.hasNext(); ) {
+                Map.Entry<String, Object> entry = iterator.next();
+                if ("format".equals(entry.getKey())) {
+                    builder.format(Format.fromString(XContentMapValues.nodeStringValue(entry.getValue(), null)));
+                    iterator.remove();
+                }
+            }
+            return builder;
+        }
+    }
+
+    private final Format format;
+
+    protected HexFieldMapper(Names names, FieldType fieldType, Boolean docValues,
+                             PostingsFormatProvider postingsFormat, DocValuesFormatProvider docValuesFormat,
+                             Settings fieldDataSettings, MultiFields multiFields, CopyTo copyTo, Format format) {
+        super(names, fieldType, docValues, null, -1, postingsFormat, docValuesFormat, fieldDataSettings, multiFields, copyTo);
+        this.format = format;
+    }
+
+    public Format format() {
+        return format;
+    }
+
+    @Override
+    protected void parseCreateField(ParseContext context, List<Field> fields) throws IOException {
+        if (!fieldType().indexed() && !fieldType().stored() && !hasDocValues()) {
+            return;
+        }
+        byte[] value = context.parseExternalValue(byte[].class);
+        if (value == null) {
+            XContentParser parser = context.parser();
+            if (parser.currentToken() == XContentParser.Token.VALUE_NULL) {
+                return;
+            }
+            if (format == Format.HEX && parser.currentToken() == XContentParser.Token.VALUE_STRING) {
+                value = decode(parser.text());
+            } else {
+                value = parser.binaryValue();
+            }
+        }
+        if (value == null) {
+            return;
+        }
+        if (fieldType().indexed()) {
+            fields.add(new Field(names.indexName(), new BinaryTokenStream(new BytesRef(value)), TERM_FIELD_TYPE));
+        }
+        if (fieldType().stored()) {
+            fields.add(new StoredField(names.indexName(), value));
+        }
+        if (hasDocValues()) {
+            CustomBinaryDocValuesField field = (CustomBinaryDocValuesField) context.doc().getByKey(names.indexName());
+            if (field == null) {
+                field = new CustomBinaryDocValuesField(names.indexName(), value);
+                context.doc().addWithKey(names.indexName(), field);
+            } else {
+                field.add(value);
+            }
+        }
+    }
+
+    /**
+     * Query values are in the format of the field, so term, terms and range queries on the field look up the decoded bytes.
+     */
+    @Override
+    public BytesRef indexedValueForSearch(Object value) {
+        if (value instanceof byte[]) {
+            return new BytesRef((byte[]) value);
+        }
+        String s = value instanceof BytesRef ? ((BytesRef) value).utf8ToString() : value.toString();
+        if (format == Format.HEX) {
+            return new BytesRef(decode(s));
+        }
+        try {
+            return new BytesRef(Base64.decode(s));
+        } catch (IOException e) {
+            throw new ElasticsearchIllegalArgumentException("value of [" + names.fullName() + "] is not base64: " + s);
+        }
+    }
+
+    @Override
+    public void merge(Mapper mergeWith, MergeContext mergeContext) throws MergeMappingException {
+        super.merge(mergeWith, mergeContext);
+        if (!this.getClass().equals(mergeWith.getClass())) {
+            return;
+        }
+        if (format != ((HexFieldMapper) mergeWith).format) {
+            mergeContext.addConflict("mapper [" + names.fullName() + "] has different format values");
+        }
+    }
+
+    @Override
+    protected void doXContentBody(XContentBuilder builder, boolean includeDefaults, Params params) throws IOException {
+        super.doXContentBody(builder, includeDefaults, params);
+        if (includeDefaults || format != Format.BASE64) {
+            builder.field("format", format.toString());
+        }
+    }
+
+    @Override
+    protected String contentType() {
+        return CONTENT_TYPE;
+    }
+
+    private byte[] decode(String s) {
+        try {
+            return XContentHelper.parseBase16(s);
+        } catch (IllegalArgumentException e) {
+            throw new MapperParsingException("value of [" + names.fullName() + "] is not hex: " + s);
+        }
+    }
+}
@@ -0,0 +1,20 @@
+package org.xbib.elasticsearch.index.mapper.hex;
+
+import org.elasticsearch.common.inject.Inject;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.index.AbstractIndexComponent;
+import org.elasticsearch.index.Index;
+import org.elasticsearch.index.mapper.MapperService;
+import org.elasticsearch.index.settings.IndexSettings;
+
+/**
+ * Registers the <code>hex</code> field type with the mapper service of an index.
+ */
+public class RegisterHexType extends AbstractIndexComponent {
+
+    @Inject
+    public RegisterHexType(Index index, @IndexSettings Settings indexSettings, MapperService mapperService) {
+        super(index, indexSettings);
+        mapperService.documentMapperParser().putTypeParser(HexFieldMapper.CONTENT_TYPE, new HexFieldMapper.TypeParser());
+    }
+}
@@ -0,0 +1,91 @@
+package org.xbib.elasticsearch.index.query.hex;
+
+import org.apache.lucene.search.Query;
+import org.elasticsearch.common.xcontent.XContentParser;
+import org.elasticsearch.index.mapper.MapperService;
+import org.elasticsearch.index.query.QueryParseContext;
+import org.elasticsearch.index.query.QueryParser;
+import org.elasticsearch.index.query.QueryParsingException;
+
+import java.io.IOException;
+
+import static org.elasticsearch.index.query.support.QueryParsers.wrapSmartNameQuery;
+
+/**
+ * Parses queries with a hex value for a field, like
+ * <pre>
+ *     {"hex_term":{"field":"4AC3B67267"}}
+ *     {"hex_term":{"field":{"value":"4AC3B67267","boost":2.0,"_name":"q"}}}
+ * </pre>
+ * The hex value is decoded once, and the query runs on the raw bytes indexed by a <code>hex</code> field.
+ */
+public abstract class AbstractHexQueryParser implements QueryParser {
+
+    @Override
+    public Query parse(QueryParseContext parseContext) throws IOException, QueryParsingException {
+        XContentParser parser = parseContext.parser();
+        XContentParser.Token token = parser.nextToken();
+        if (token != XContentParser.Token.FIELD_NAME) {
+            throw new QueryParsingException(parseContext.index(), "[" + names()[0] + "] query malformed, no field");
+        }
+        String fieldName = parser.currentName();
+        String value = null;
+        float boost = 1.0f;
+        String queryName = null;
+        token = parser.nextToken();
+        if (token == XContentParser.Token.START_OBJECT) {
+            String currentFieldName = null;
+            while ((token = parser.nextToken()) != XContentParser.Token.END_OBJECT) {
+                if (token == XContentParser.Token.FIELD_NAME) {
+                    currentFieldName = parser.currentName();
+                } else if ("value".equals(currentFieldName)) {
+                    value = parser.text();
+                } else if ("boost".equals(currentFieldName)) {
+                    boost = parser.floatValue();
+                } else if ("_name".equals(currentFieldName)) {
+                    queryName = parser.text();
+                } else {
+                    throw new QueryParsingException(parseContext.index(), "[" + names()[0] + "] query does not support [" + currentFieldName + "]");
+                }
+            }
+            parser.nextToken();
+        } else {
+            value = parser.text();
+            // move to the next token
+            parser.nextToken();
+        }
+        if (value == null) {
+            throw new QueryParsingException(parseContext.index(), "No value specified for [" + names()[0] + "] query");
+        }
+
+        MapperService.SmartNameFieldMappers smartNameFieldMappers = parseContext.smartFieldMappers(fieldName);
+        if (smartNameFieldMappers != null && smartNameFieldMappers.hasMapper()) {
+            fieldName = smartNameFieldMappers.mapper().names().indexName();
+        }
+        Query query;
+        try {
+            query = query(fieldName, value);
+        } catch (IllegalArgumentException e) {
+            throw new QueryParsingException(parseContext.index(), "[" + names()[0] + "] query with invalid hex value [" + value + "]", e);
+        }
+        query.setBoost(boost);
+        query = wrapSmartNameQuery(query, smartNameFieldMappers, parseContext);
+        if (queryName != null) {
+            parseContext.addNamedQuery(queryName, query);
+        }
+        return query;
+    }
+
+    /**
+     * The query for the hex value on the field.
+     */
+    protected abstract Query query(String fieldName, String hex);
+
+    static int digit(char ch) {
+        int digit = Character.digit(ch, 16);
+        if (digit == -1) {
+            throw new IllegalArgumentException("contains illegal character for hex string: " + ch);
+        }
+        return digit;
+    }
+}
@@ -0,0 +1,63 @@
+package org.xbib.elasticsearch.index.query.hex;
+
+import org.apache.lucene.index.Term;
+import org.apache.lucene.search.PrefixQuery;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.TermRangeQuery;
+import org.apache.lucene.util.BytesRef;
+import org.elasticsearch.common.inject.Inject;
+import org.xbib.elasticsearch.common.xcontent.XContentHelper;
+
+import java.util.Arrays;
+
+/**
+ * A prefix query with a hex value, which matches the decoded bytes. A prefix with an odd number of
+ * hex digits ends in the middle of a byte, it runs as a range query over the possible last bytes.
+ */
+public class HexPrefixQueryParser extends AbstractHexQueryParser {
+
+    public static final String NAME = "hex_prefix";
+
+    @Inject
+    public HexPrefixQueryParser() {
+    }
+
+    @Override
+    public String[] names() {
+        return new String[]{NAME, "hexPrefix"};
+    }
+
+    @Override
+    protected Query query(String fieldName, String hex) {
+        if (hex.length() % 2 == 0) {
+            return new PrefixQuery(new Term(fieldName, new BytesRef(XContentHelper.parseBase16(hex))));
+        }
+        byte[] prefix = XContentHelper.parseBase16(hex.substring(0, hex.length() - 1));
+        int nibble = digit(hex.charAt(hex.length() - 1));
+        byte[] lower = Arrays.copyOf(prefix, prefix.length + 1);
+        lower[prefix.length] = (byte) (nibble << 4);
+        BytesRef upper;
+        if (nibble < 15) {
+            byte[] b = Arrays.copyOf(prefix, prefix.length + 1);
+            b[prefix.length] = (byte) ((nibble + 1) << 4);
+            upper = new BytesRef(b);
+        } else {
+            upper = successor(prefix);
+        }
+        return new TermRangeQuery(fieldName, new BytesRef(lower), upper, true, false);
+    }
+
+    /**
+     * The smallest byte sequence greater than all sequences with the given prefix, or null if there is none.
+     */
+    private static BytesRef successor(byte[] prefix) {
+        for (int i = prefix.length - 1; i >= 0; i--) {
+            if (prefix[i] != (byte) 0xFF) {
+                byte[] b = Arrays.copyOf(prefix, i + 1);
+                b[i]++;
+                return new BytesRef(b);
+            }
+        }
+        return null;
+    }
+}
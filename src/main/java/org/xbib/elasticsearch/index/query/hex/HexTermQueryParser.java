@@ -0,0 +1,30 @@
+package org.xbib.elasticsearch.index.query.hex;
+
+import org.apache.lucene.index.Term;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.TermQuery;
+import org.apache.lucene.util.BytesRef;
+import org.elasticsearch.common.inject.Inject;
+import org.xbib.elasticsearch.common.xcontent.XContentHelper;
+
+/**
+ * A term query with a hex value, which matches the decoded bytes.
+ */
+public class HexTermQueryParser extends AbstractHexQueryParser {
+
+    public static final String NAME = "hex_term";
+
+    @Inject
+    public HexTermQueryParser() {
+    }
+
+    @Override
+    public String[] names() {
+        return new String[]{NAME, "hexTerm"};
+    }
+
+    @Override
+    protected Query query(String fieldName, String hex) {
+        return new TermQuery(new Term(fieldName, new BytesRef(XContentHelper.parseBase16(hex))));
+    }
+}
@@ -0,0 +1,12 @@
+package org.xbib.elasticsearch.plugin.hex;
+
+import org.elasticsearch.common.inject.AbstractModule;
+import org.xbib.elasticsearch.index.mapper.hex.RegisterHexType;
+
+public class HexIndexModule extends AbstractModule {
+
+    @Override
+    protected void configure() {
+        bind(RegisterHexType.class).asEagerSingleton();
+    }
+}
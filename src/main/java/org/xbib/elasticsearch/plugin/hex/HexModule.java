@@ -0,0 +1,20 @@
+package org.xbib.elasticsearch.plugin.hex;
+
+import org.elasticsearch.common.inject.AbstractModule;
+import org.xbib.elasticsearch.action.bulk.Base16CacheService;
+import org.xbib.elasticsearch.action.bulk.Base16DetectorService;
+import org.xbib.elasticsearch.action.bulk.BulkAdmissionController;
+import org.xbib.elasticsearch.action.bulk.ParallelDocumentParser;
+import org.xbib.elasticsearch.action.hexconvert.HexConvertService;
+
+public class HexModule extends AbstractModule {
+
+    @Override
+    protected void configure() {
+        bind(BulkAdmissionController.class).asEagerSingleton();
+        bind(Base16DetectorService.class).asEagerSingleton();
+        bind(Base16CacheService.class).asEagerSingleton();
+        bind(ParallelDocumentParser.class).asEagerSingleton();
+        bind(HexConvertService.class).asEagerSingleton();
+    }
+}
@@ -2,14 +2,38 @@
 package org.xbib.elasticsearch.plugin.hex;
 
 import org.elasticsearch.action.ActionModule;
+import org.elasticsearch.common.collect.Lists;
+import org.elasticsearch.common.component.LifecycleComponent;
+import org.elasticsearch.common.inject.Module;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.indices.query.IndicesQueriesModule;
 import org.elasticsearch.plugins.AbstractPlugin;
 import org.elasticsearch.rest.RestModule;
+import org.xbib.elasticsearch.action.bulk.BinaryBulkAction;
 import org.xbib.elasticsearch.action.bulk.BulkAction;
+import org.xbib.elasticsearch.action.bulk.ParallelDocumentParser;
+import org.xbib.elasticsearch.action.bulk.TransportBinaryBulkAction;
 import org.xbib.elasticsearch.action.bulk.TransportBulkAction;
+import org.xbib.elasticsearch.index.query.hex.HexPrefixQueryParser;
+import org.xbib.elasticsearch.index.query.hex.HexTermQueryParser;
 import org.xbib.elasticsearch.rest.hex.action.hex.RestBulkHexAction;
+import org.xbib.elasticsearch.rest.hex.action.hex.RestBulkHexCacheAction;
+import org.xbib.elasticsearch.rest.hex.action.hex.RestExportHexAction;
+import org.xbib.elasticsearch.rest.hex.action.hex.RestGetHexAction;
+import org.xbib.elasticsearch.rest.hex.action.hex.RestHexConvertAction;
+import org.xbib.elasticsearch.rest.hex.action.hex.RestSearchHexAction;
+
+import java.util.Collection;
 
 public class HexPlugin extends AbstractPlugin {
 
+    private final boolean transportClient;
+
+    public HexPlugin(Settings settings) {
+        // transport clients only need the action names, the node components can not be created there
+        this.transportClient = "transport".equals(settings.get("client.type"));
+    }
+
     @Override
     public String name() {
         return "hex";
@@ -20,12 +44,48 @@ public class HexPlugin extends AbstractPlugin {
         return "Hex plugin";
     }
 
+    @Override
+    public Collection<Class<? extends Module>> modules() {
+        Collection<Class<? extends Module>> modules = Lists.newArrayList();
+        if (!transportClient) {
+            modules.add(HexModule.class);
+        }
+        return modules;
+    }
+
+    @Override
+    public Collection<Class<? extends LifecycleComponent>> services() {
+        Collection<Class<? extends LifecycleComponent>> services = Lists.newArrayList();
+        if (!transportClient) {
+            services.add(ParallelDocumentParser.class);
+        }
+        return services;
+    }
+
+    @Override
+    public Collection<Class<? extends Module>> indexModules() {
+        Collection<Class<? extends Module>> modules = Lists.newArrayList();
+        modules.add(HexIndexModule.class);
+        return modules;
+    }
+
     public void onModule(ActionModule module) {
         module.registerAction(BulkAction.INSTANCE, TransportBulkAction.class);
+        module.registerAction(BinaryBulkAction.INSTANCE, TransportBinaryBulkAction.class);
+    }
+
+    public void onModule(IndicesQueriesModule module) {
+        module.addQuery(HexTermQueryParser.class);
+        module.addQuery(HexPrefixQueryParser.class);
     }
 
     public void onModule(RestModule module) {
         module.addRestAction(RestBulkHexAction.class);
+        module.addRestAction(RestBulkHexCacheAction.class);
+        module.addRestAction(RestSearchHexAction.class);
+        module.addRestAction(RestGetHexAction.class);
+        module.addRestAction(RestExportHexAction.class);
+        module.addRestAction(RestHexConvertAction.class);
     }
 
 }
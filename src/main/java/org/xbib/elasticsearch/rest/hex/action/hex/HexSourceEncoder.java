@@ -0,0 +1,217 @@
+package org.xbib.elasticsearch.rest.hex.action.hex;
+
+import org.elasticsearch.common.bytes.BytesReference;
+import org.elasticsearch.common.xcontent.XContentBuilder;
+import org.elasticsearch.common.xcontent.XContentFactory;
+import org.elasticsearch.common.xcontent.XContentGenerator;
+import org.elasticsearch.common.xcontent.XContentHelper;
+import org.elasticsearch.common.xcontent.XContentParser;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Set;
+
+/**
+ * Copies a document source into a builder, and writes the binary (base64) values of the selected
+ * fields as hex. The base64 characters are decoded and the hex digits are looked up in tables,
+ * and written from a reused char buffer straight into the generator, there are no intermediate
+ * strings or byte arrays per value.
+ *
+ * Not thread safe, use one encoder per response.
+ */
+final class HexSourceEncoder {
+
+    private static final char[] DIGITS = "0123456789ABCDEF".toCharArray();
+
+    private static final int[] BASE64 = new int[128];
+
+    static {
+        Arrays.fill(BASE64, -1);
+        String alphabet = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/";
+        for (int i = 0; i < alphabet.length(); i++) {
+            BASE64[alphabet.charAt(i)] = i;
+        }
+    }
+
+    private final Set<String> fields;
+
+    private char[] buffer = new char[256];
+
+    HexSourceEncoder(Set<String> fields) {
+        this.fields = fields;
+    }
+
+    /**
+     * Encodes a source into a new source of the same content type.
+     *
+     * @param source the source
+     * @return the encoded source
+     * @throws IOException if the source can not be parsed
+     */
+    BytesReference encode(BytesReference source) throws IOException {
+        XContentParser parser = XContentHelper.createParser(source);
+        try {
+            XContentBuilder builder = XContentFactory.contentBuilder(parser.contentType());
+            parser.nextToken();
+            copy(parser, builder.generator(), null);
+            return builder.bytes();
+        } finally {
+            parser.close();
+        }
+    }
+
+    /**
+     * Encodes a source as the value of the current field of a builder.
+     *
+     * @param source the source
+     * @param builder the builder
+     * @throws IOException if the source can not be parsed
+     */
+    void encode(BytesReference source, XContentBuilder builder) throws IOException {
+        XContentParser parser = XContentHelper.createParser(source);
+        try {
+            parser.nextToken();
+            copy(parser, builder.generator(), null);
+        } finally {
+            parser.close();
+        }
+    }
+
+    private void copy(XContentParser parser, XContentGenerator generator, String path) throws IOException {
+        XContentParser.Token token = parser.currentToken();
+        switch (token) {
+            case START_OBJECT:
+                generator.writeStartObject();
+                while (parser.nextToken() != XContentParser.Token.END_OBJECT) {
+                    String name = parser.currentName();
+                    generator.writeFieldName(name);
+                    parser.nextToken();
+                    copy(parser, generator, path == null ? name : path + '.' + name);
+                }
+                generator.writeEndObject();
+                break;
+            case START_ARRAY:
+                generator.writeStartArray();
+                while (parser.nextToken() != XContentParser.Token.END_ARRAY) {
+                    copy(parser, generator, path);
+                }
+                generator.writeEndArray();
+                break;
+            case VALUE_STRING:
+                if (path != null && fields.contains(path)) {
+                    writeHex(parser, generator);
+                } else if (parser.hasTextCharacters()) {
+                    generator.writeString(parser.textCharacters(), parser.textOffset(), parser.textLength());
+                } else {
+                    generator.writeString(parser.text());
+                }
+                break;
+            case VALUE_NUMBER:
+                switch (parser.numberType()) {
+                    case INT:
+                        generator.writeNumber(parser.intValue());
+                        break;
+                    case LONG:
+                        generator.writeNumber(parser.longValue());
+                        break;
+                    case FLOAT:
+                        generator.writeNumber(parser.floatValue());
+                        break;
+                    default:
+                        generator.writeNumber(parser.doubleValue());
+                        break;
+                }
+                break;
+            case VALUE_BOOLEAN:
+                generator.writeBoolean(parser.booleanValue());
+                break;
+            case VALUE_NULL:
+                generator.writeNull();
+                break;
+            case VALUE_EMBEDDED_OBJECT:
+                if (path != null && fields.contains(path)) {
+                    writeHex(parser.binaryValue(), generator);
+                } else {
+                    generator.writeBinary(parser.binaryValue());
+                }
+                break;
+            default:
+                throw new IOException("unexpected token " + token);
+        }
+    }
+
+    private void writeHex(XContentParser parser, XContentGenerator generator) throws IOException {
+        char[] text;
+        int offset;
+        int length;
+        if (parser.hasTextCharacters()) {
+            text = parser.textCharacters();
+            offset = parser.textOffset();
+            length = parser.textLength();
+        } else {
+            text = parser.text().toCharArray();
+            offset = 0;
+            length = text.length;
+        }
+        if (!writeHex(text, offset, length, generator)) {
+            // not base64, keep the value as it is
+            generator.writeString(text, offset, length);
+        }
+    }
+
+    /**
+     * Decodes base64 characters into hex characters, without the bytes in between.
+     */
+    private boolean writeHex(char[] text, int offset, int length, XContentGenerator generator) throws IOException {
+        int end = offset + length;
+        while (end > offset && text[end - 1] == '=') {
+            end--;
+        }
+        int n = end - offset;
+        int padding = offset + length - end;
+        if (n % 4 == 1) {
+            return false;
+        }
+        // padding, if present, completes the last group of four characters
+        if (padding > 0 && (length % 4 != 0 || padding != (n % 4 == 2 ? 2 : n % 4 == 3 ? 1 : 0))) {
+            return false;
+        }
+        int len = (n * 3 / 4) << 1;
+        if (buffer.length < len) {
+            buffer = new char[Math.max(len, buffer.length << 1)];
+        }
+        int acc = 0;
+        int bits = 0;
+        int j = 0;
+        for (int i = offset; i < end; i++) {
+            char c = text[i];
+            int v = c < 128 ? BASE64[c] : -1;
+            if (v < 0) {
+                return false;
+            }
+            acc = (acc << 6) | v;
+            bits += 6;
+            if (bits >= 8) {
+                bits -= 8;
+                int b = acc >> bits;
+                acc &= (1 << bits) - 1;
+                buffer[j++] = DIGITS[b >> 4];
+                buffer[j++] = DIGITS[b & 0x0f];
+            }
+        }
+        generator.writeString(buffer, 0, j);
+        return true;
+    }
+
+    private void writeHex(byte[] b, XContentGenerator generator) throws IOException {
+        int len = b.length << 1;
+        if (buffer.length < len) {
+            buffer = new char[Math.max(len, buffer.length << 1)];
+        }
+        for (int i = 0, j = 0; i < b.length; i++) {
+            buffer[j++] = DIGITS[(b[i] >> 4) & 0x0f];
+            buffer[j++] = DIGITS[b[i] & 0x0f];
+        }
+        generator.writeString(buffer, 0, len);
+    }
+}
@@ -1,20 +1,30 @@
 
 package org.xbib.elasticsearch.rest.hex.action.hex;
 
+import org.elasticsearch.ElasticsearchException;
+import org.elasticsearch.ElasticsearchIllegalArgumentException;
+import org.elasticsearch.ExceptionsHelper;
+import org.elasticsearch.action.ActionListener;
 import org.elasticsearch.action.WriteConsistencyLevel;
 import org.elasticsearch.action.delete.DeleteRequest;
 import org.elasticsearch.action.delete.DeleteResponse;
 import org.elasticsearch.action.index.IndexRequest;
 import org.elasticsearch.action.index.IndexResponse;
+import org.elasticsearch.action.support.replication.ReplicationType;
 import org.elasticsearch.action.update.UpdateRequest;
 import org.elasticsearch.action.update.UpdateResponse;
 import org.elasticsearch.client.Client;
 import org.elasticsearch.common.Nullable;
+import org.elasticsearch.common.Strings;
+import org.elasticsearch.common.bytes.BytesArray;
 import org.elasticsearch.common.bytes.BytesReference;
 import org.elasticsearch.common.inject.Inject;
 import org.elasticsearch.common.lucene.uid.Versions;
 import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.common.unit.ByteSizeUnit;
+import org.elasticsearch.common.unit.ByteSizeValue;
 import org.elasticsearch.common.unit.TimeValue;
+import org.elasticsearch.common.util.concurrent.EsRejectedExecutionException;
 import org.elasticsearch.common.xcontent.XContentBuilder;
 import org.elasticsearch.common.xcontent.XContentBuilderString;
 import org.elasticsearch.index.VersionType;
@@ -27,15 +37,36 @@ import org.elasticsearch.rest.RestResponse;
 import org.elasticsearch.rest.RestStatus;
 import org.elasticsearch.rest.action.support.RestBuilderListener;
 import org.xbib.elasticsearch.action.bulk.BulkAction;
+import org.xbib.elasticsearch.action.bulk.Base16CacheService;
+import org.xbib.elasticsearch.action.bulk.Base16DetectorService;
+import org.xbib.elasticsearch.action.bulk.BinaryAttachments;
+import org.xbib.elasticsearch.action.bulk.BulkAdmissionController;
 import org.xbib.elasticsearch.action.bulk.BulkItemResponse;
 import org.xbib.elasticsearch.action.bulk.BulkRequest;
 import org.xbib.elasticsearch.action.bulk.BulkResponse;
 import org.xbib.elasticsearch.action.bulk.BulkShardRequest;
+import org.xbib.elasticsearch.common.xcontent.Base16Digest;
+import org.xbib.elasticsearch.common.xcontent.Base16Target;
 import org.xbib.elasticsearch.common.xcontent.XContent;
 import org.xbib.elasticsearch.common.xcontent.XContentFactory;
 import org.xbib.elasticsearch.common.xcontent.XContentParser;
 import org.xbib.elasticsearch.common.xcontent.XContentType;
 
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.InflaterInputStream;
+
 import static org.elasticsearch.rest.RestRequest.Method.POST;
 import static org.elasticsearch.rest.RestRequest.Method.PUT;
 import static org.elasticsearch.rest.RestStatus.OK;
@@ -52,11 +83,33 @@ import static org.xbib.elasticsearch.common.xcontent.XContentFactory.jsonBuilder
  */
 public class RestBulkHexAction extends BaseRestHandler {
 
+    private static final int BUFFER_SIZE = 8192;
+
     private final boolean allowExplicitIndex;
 
+    private final String hexMode;
+
+    private final String hexPrefix;
+
+    private final long maxFrameSize;
+
+    private final long maxInflatedSize;
+
+    private final long maxLineSize;
+
+    private final BulkAdmissionController admissionController;
+
+    private final Base16DetectorService detectorService;
+
+    private final Base16CacheService cacheService;
+
     @Inject
-    public RestBulkHexAction(Settings settings, RestController controller, Client client) {
+    public RestBulkHexAction(Settings settings, RestController controller, Client client, BulkAdmissionController admissionController,
+                             Base16DetectorService detectorService, Base16CacheService cacheService) {
         super(settings, controller, client);
+        this.admissionController = admissionController;
+        this.detectorService = detectorService;
+        this.cacheService = cacheService;
 
         controller.registerHandler(POST, "/_bulkhex", this);
         controller.registerHandler(PUT, "/_bulkhex", this);
@@ -66,26 +119,73 @@ public class RestBulkHexAction extends BaseRestHandler {
         controller.registerHandler(PUT, "/{index}/{type}/_bulkhex", this);
 
         this.allowExplicitIndex = settings.getAsBoolean("rest.action.multi.allow_explicit_index", true);
+        this.hexMode = settings.get("action.bulkhex.hex_mode", "auto");
+        this.hexPrefix = settings.get("action.bulkhex.hex_prefix");
+        ByteSizeValue maxContentLength = settings.getAsBytesSize("http.max_content_length", new ByteSizeValue(100, ByteSizeUnit.MB));
+        this.maxFrameSize = settings.getAsBytesSize("action.bulkhex.framed.max_frame_size", maxContentLength).bytes();
+        this.maxInflatedSize = settings.getAsBytesSize("action.bulkhex.inflated.max_size", maxContentLength).bytes();
+        this.maxLineSize = settings.getAsBytesSize("action.bulkhex.inflated.max_line_size", maxContentLength).bytes();
     }
 
     @Override
     public void handleRequest(final RestRequest request, final RestChannel channel, final Client client) throws Exception {
+        // admit the body before parsing it, so an overloaded node does not spend work on requests it would reject
+        final long contentLength = request.content().length();
+        if (!admissionController.tryAcquireBytes(contentLength)) {
+            sendTooManyBytes(channel);
+            return;
+        }
+        // compressed bodies admit their inflated bytes while they are read
+        final AtomicLong admittedBytes = new AtomicLong(contentLength);
+        try {
+            executeBulk(request, channel, client, admittedBytes);
+        } catch (TooManyBytesException e) {
+            admissionController.releaseBytes(admittedBytes.get());
+            sendTooManyBytes(channel);
+        } catch (Throwable t) {
+            admissionController.releaseBytes(admittedBytes.get());
+            throw t;
+        }
+    }
+
+    private void sendTooManyBytes(RestChannel channel) {
+        BytesRestResponse response = new BytesRestResponse(RestStatus.TOO_MANY_REQUESTS,
+                "rejected bulk, too many bytes in flight, retry after [" + admissionController.retryAfter() + "]");
+        addRetryAfter(response);
+        channel.sendResponse(response);
+    }
+
+    private void addRetryAfter(RestResponse response) {
+        response.addHeader("Retry-After", Long.toString(Math.max(1L, admissionController.retryAfter().seconds())));
+    }
+
+    private void executeBulk(final RestRequest request, final RestChannel channel, final Client client,
+                             final AtomicLong admittedBytes) throws Exception {
         BulkRequest bulkRequest = new BulkRequest();
         bulkRequest.listenerThreaded(false);
         String defaultIndex = request.param("index");
         String defaultType = request.param("type");
         String defaultRouting = request.param("routing");
 
+        String replicationType = request.param("replication");
+        if (replicationType != null) {
+            bulkRequest.replicationType(ReplicationType.fromString(replicationType));
+        }
         String consistencyLevel = request.param("consistency");
         if (consistencyLevel != null) {
             bulkRequest.consistencyLevel(WriteConsistencyLevel.fromString(consistencyLevel));
         }
         bulkRequest.timeout(request.paramAsTime("timeout", BulkShardRequest.DEFAULT_TIMEOUT));
-        bulkRequest.refresh(request.paramAsBoolean("refresh", bulkRequest.refresh()));
+        if ("wait_for".equals(request.param("refresh"))) {
+            bulkRequest.waitForRefresh(true);
+        } else {
+            bulkRequest.refresh(request.paramAsBoolean("refresh", bulkRequest.refresh()));
+        }
+        bulkRequest.collapse(request.paramAsBoolean("collapse", bulkRequest.collapse()));
 
-        add(bulkRequest, request, defaultIndex, defaultType, defaultRouting, null, allowExplicitIndex);
+        add(bulkRequest, request, defaultIndex, defaultType, defaultRouting, null, allowExplicitIndex, admittedBytes);
 
-        client.execute(BulkAction.INSTANCE, bulkRequest, new RestBuilderListener<BulkResponse>(channel) {
+        final RestBuilderListener<BulkResponse> responseListener = new RestBuilderListener<BulkResponse>(channel) {
             @Override
             public RestResponse buildResponse(BulkResponse response, XContentBuilder builder) throws Exception {
                 builder.startObject();
@@ -138,168 +238,533 @@ public class RestBulkHexAction extends BaseRestHandler {
                 builder.endObject();
                 return new BytesRestResponse(OK, builder);
             }
+        };
+        client.execute(BulkAction.INSTANCE, bulkRequest, new ActionListener<BulkResponse>() {
+            @Override
+            public void onResponse(BulkResponse response) {
+                admissionController.releaseBytes(admittedBytes.get());
+                responseListener.onResponse(response);
+            }
+
+            @Override
+            public void onFailure(Throwable e) {
+                admissionController.releaseBytes(admittedBytes.get());
+                if (ExceptionsHelper.unwrapCause(e) instanceof EsRejectedExecutionException) {
+                    try {
+                        BytesRestResponse response = new BytesRestResponse(channel, e);
+                        addRetryAfter(response);
+                        channel.sendResponse(response);
+                        return;
+                    } catch (IOException ioe) {
+                        // fall through to the regular error response
+                    }
+                }
+                responseListener.onFailure(e);
+            }
         });
     }
 
-    private void add(BulkRequest request, RestRequest restRequest, @Nullable String defaultIndex, @Nullable String defaultType, @Nullable String defaultRouting, @Nullable Object payload, boolean allowExplicitIndex) throws Exception {
-        BytesReference data = restRequest.content();
+    private void add(BulkRequest request, RestRequest restRequest, @Nullable String defaultIndex, @Nullable String defaultType, @Nullable String defaultRouting, @Nullable Object payload, boolean allowExplicitIndex,
+                     AtomicLong admittedBytes) throws Exception {
         XContent xContent = XContentFactory.xContent(XContentType.JSON);
-        int line = 0;
-        int from = 0;
-        int length = data.length();
-        byte marker = '\n';
-        while (true) {
-            int nextMarker = findNextMarker(marker, from, data, length);
-            if (nextMarker == -1) {
-                break;
-            }
-            line++;
+        String mode = restRequest.param("hex", hexMode);
+        if (!"auto".equals(mode) && !"marked".equals(mode) && !"adaptive".equals(mode)) {
+            throw new IllegalArgumentException("unknown hex mode [" + mode + "], expected [auto], [marked] or [adaptive]");
+        }
+        boolean markedOnly = "marked".equals(mode);
+        boolean adaptive = "adaptive".equals(mode);
+        String prefix = restRequest.param("hex_prefix", hexPrefix);
+        if (!Strings.hasLength(prefix)) {
+            prefix = null;
+        }
+        Map<String, Base16Target> targets = targets(restRequest.param("hex_targets"));
+        String[] hashFields = Strings.splitStringByCommaToArray(restRequest.param("hash_fields"));
+        Set<String> hashFieldSet = hashFields.length > 0 ? new HashSet<>(Arrays.asList(hashFields)) : null;
+        String hashTarget = restRequest.param("hash_target", "id");
+        if (!"id".equals(hashTarget) && !"routing".equals(hashTarget)) {
+            throw new IllegalArgumentException("unknown hash target [" + hashTarget + "], expected [id] or [routing]");
+        }
+        Lines lines = lines(restRequest, admittedBytes);
+        try {
+            int line = 0;
+            while (true) {
+                BytesReference actionLine = lines.next();
+                if (actionLine == null) {
+                    break;
+                }
+                line++;
 
-            // now parse the action
-            try (XContentParser parser = xContent.createParser(data.slice(from, nextMarker - from).toBytes())) {
-                // move pointers
-                from = nextMarker + 1;
+                // now parse the action
+                try (XContentParser parser = xContent.createParser(actionLine.toBytes())) {
+                    // Move to START_OBJECT
+                    XContentParser.Token token = parser.nextToken();
+                    if (token == null) {
+                        continue;
+                    }
+                    assert token == XContentParser.Token.START_OBJECT;
+                    // Move to FIELD_NAME, that's the action
+                    token = parser.nextToken();
+                    assert token == XContentParser.Token.FIELD_NAME;
+                    String action = parser.currentName();
 
-                // Move to START_OBJECT
-                XContentParser.Token token = parser.nextToken();
-                if (token == null) {
-                    continue;
-                }
-                assert token == XContentParser.Token.START_OBJECT;
-                // Move to FIELD_NAME, that's the action
-                token = parser.nextToken();
-                assert token == XContentParser.Token.FIELD_NAME;
-                String action = parser.currentName();
-
-                String index = defaultIndex;
-                String type = defaultType;
-                String id = null;
-                String routing = defaultRouting;
-                String parent = null;
-                String timestamp = null;
-                Long ttl = null;
-                String opType = null;
-                long version = Versions.MATCH_ANY;
-                VersionType versionType = VersionType.INTERNAL;
-                int retryOnConflict = 0;
-
-                // at this stage, next token can either be END_OBJECT (and use default index and type, with auto generated id)
-                // or START_OBJECT which will have another set of parameters
-                token = parser.nextToken();
-
-                if (token == XContentParser.Token.START_OBJECT) {
-                    String currentFieldName = null;
-                    while ((token = parser.nextToken()) != XContentParser.Token.END_OBJECT) {
-                        if (token == XContentParser.Token.FIELD_NAME) {
-                            currentFieldName = parser.currentName();
-                        } else if (token.isValue()) {
-                            if ("_index".equals(currentFieldName)) {
-                                if (!allowExplicitIndex) {
-                                    throw new IllegalArgumentException("explicit index in bulk is not allowed");
-                                }
-                                index = parser.text();
-                            } else if ("_type".equals(currentFieldName)) {
-                                type = parser.text();
-                            } else if ("_id".equals(currentFieldName)) {
-                                id = parser.text();
-                            } else if ("_routing".equals(currentFieldName) || "routing".equals(currentFieldName)) {
-                                routing = parser.text();
-                            } else if ("_parent".equals(currentFieldName) || "parent".equals(currentFieldName)) {
-                                parent = parser.text();
-                            } else if ("_timestamp".equals(currentFieldName) || "timestamp".equals(currentFieldName)) {
-                                timestamp = parser.text();
-                            } else if ("_ttl".equals(currentFieldName) || "ttl".equals(currentFieldName)) {
-                                if (parser.currentToken() == XContentParser.Token.VALUE_STRING) {
-                                    ttl = TimeValue.parseTimeValue(parser.text(), null).millis();
+                    String index = defaultIndex;
+                    String type = defaultType;
+                    String id = null;
+                    String routing = defaultRouting;
+                    String parent = null;
+                    String timestamp = null;
+                    Long ttl = null;
+                    String opType = null;
+                    long version = Versions.MATCH_ANY;
+                    VersionType versionType = VersionType.INTERNAL;
+                    int retryOnConflict = 0;
+                    int numberOfAttachments = 0;
+
+                    // at this stage, next token can either be END_OBJECT (and use default index and type, with auto generated id)
+                    // or START_OBJECT which will have another set of parameters
+                    token = parser.nextToken();
+
+                    if (token == XContentParser.Token.START_OBJECT) {
+                        String currentFieldName = null;
+                        while ((token = parser.nextToken()) != XContentParser.Token.END_OBJECT) {
+                            if (token == XContentParser.Token.FIELD_NAME) {
+                                currentFieldName = parser.currentName();
+                            } else if (token.isValue()) {
+                                if ("_index".equals(currentFieldName)) {
+                                    if (!allowExplicitIndex) {
+                                        throw new IllegalArgumentException("explicit index in bulk is not allowed");
+                                    }
+                                    index = parser.text();
+                                } else if ("_type".equals(currentFieldName)) {
+                                    type = parser.text();
+                                } else if ("_id".equals(currentFieldName)) {
+                                    id = parser.text();
+                                } else if ("_routing".equals(currentFieldName) || "routing".equals(currentFieldName)) {
+                                    routing = parser.text();
+                                } else if ("_parent".equals(currentFieldName) || "parent".equals(currentFieldName)) {
+                                    parent = parser.text();
+                                } else if ("_timestamp".equals(currentFieldName) || "timestamp".equals(currentFieldName)) {
+                                    timestamp = parser.text();
+                                } else if ("_ttl".equals(currentFieldName) || "ttl".equals(currentFieldName)) {
+                                    if (parser.currentToken() == XContentParser.Token.VALUE_STRING) {
+                                        ttl = TimeValue.parseTimeValue(parser.text(), null).millis();
+                                    } else {
+                                        ttl = parser.longValue();
+                                    }
+                                } else if ("op_type".equals(currentFieldName) || "opType".equals(currentFieldName)) {
+                                    opType = parser.text();
+                                } else if ("_version".equals(currentFieldName) || "version".equals(currentFieldName)) {
+                                    version = parser.longValue();
+                                } else if ("_version_type".equals(currentFieldName) || "_versionType".equals(currentFieldName) || "version_type".equals(currentFieldName) || "versionType".equals(currentFieldName)) {
+                                    versionType = VersionType.fromString(parser.text());
+                                } else if ("_retry_on_conflict".equals(currentFieldName) || "_retryOnConflict".equals(currentFieldName)) {
+                                    retryOnConflict = parser.intValue();
+                                } else if ("_attachments".equals(currentFieldName)) {
+                                    if (!(lines instanceof FrameLines || lines instanceof BytesFrameLines)) {
+                                        throw new IllegalArgumentException("Action/metadata line [" + line + "] has attachments, which require the framed format");
+                                    }
+                                    numberOfAttachments = parser.intValue();
                                 } else {
-                                    ttl = parser.longValue();
+                                    throw new IllegalArgumentException("Action/metadata line [" + line + "] contains an unknown parameter [" + currentFieldName + "]");
                                 }
-                            } else if ("op_type".equals(currentFieldName) || "opType".equals(currentFieldName)) {
-                                opType = parser.text();
-                            } else if ("_version".equals(currentFieldName) || "version".equals(currentFieldName)) {
-                                version = parser.longValue();
-                            } else if ("_version_type".equals(currentFieldName) || "_versionType".equals(currentFieldName) || "version_type".equals(currentFieldName) || "versionType".equals(currentFieldName)) {
-                                versionType = VersionType.fromString(parser.text());
-                            } else if ("_retry_on_conflict".equals(currentFieldName) || "_retryOnConflict".equals(currentFieldName)) {
-                                retryOnConflict = parser.intValue();
-                            } else {
-                                throw new IllegalArgumentException("Action/metadata line [" + line + "] contains an unknown parameter [" + currentFieldName + "]");
+                            } else if (token != XContentParser.Token.VALUE_NULL) {
+                                throw new IllegalArgumentException("Malformed action/metadata line [" + line + "], expected a simple value for field [" + currentFieldName + "] but found [" + token + "]");
                             }
-                        } else if (token != XContentParser.Token.VALUE_NULL) {
-                            throw new IllegalArgumentException("Malformed action/metadata line [" + line + "], expected a simple value for field [" + currentFieldName + "] but found [" + token + "]");
                         }
+                    } else if (token != XContentParser.Token.END_OBJECT) {
+                        throw new IllegalArgumentException("Malformed action/metadata line [" + line + "], expected " + XContentParser.Token.START_OBJECT
+                                + " or " + XContentParser.Token.END_OBJECT + " but found [" + token + "]");
                     }
-                } else if (token != XContentParser.Token.END_OBJECT) {
-                    throw new IllegalArgumentException("Malformed action/metadata line [" + line + "], expected " + XContentParser.Token.START_OBJECT
-                            + " or " + XContentParser.Token.END_OBJECT + " but found [" + token + "]");
-                }
 
-                if ("delete".equals(action)) {
-                    request.add(new DeleteRequest(index, type, id).routing(routing).parent(parent).version(version).versionType(versionType), payload);
-                } else {
-                    nextMarker = findNextMarker(marker, from, data, length);
-                    if (nextMarker == -1) {
-                        break;
-                    }
-                    line++;
-
-                    // order is important, we set parent after routing, so routing will be set to parent if not set explicitly
-                    // we use internalAdd so we don't fork here, this allows us not to copy over the big byte array to small chunks
-                    // of index request.
-
-                    XContentParser contentParser = xContent.createParser(data.slice(from, nextMarker - from).toBytes());
-                    contentParser.enableBase16Checks(true);
-                    org.xbib.elasticsearch.common.xcontent.XContentBuilder builder = jsonBuilder().copyCurrentStructure(contentParser);
-                    if ("index".equals(action)) {
-                        if (opType == null) {
-                            request.add(new IndexRequest(index, type, id).routing(routing).parent(parent).timestamp(timestamp).ttl(ttl).version(version).versionType(versionType)
-                                    .source(builder.bytes()), payload);
-                        } else {
-                            request.add(new IndexRequest(index, type, id).routing(routing).parent(parent).timestamp(timestamp).ttl(ttl).version(version).versionType(versionType)
-                                    .create("create".equals(opType))
-                                    .source(builder.bytes()), payload);
+                    if ("delete".equals(action)) {
+                        request.add(new DeleteRequest(index, type, id).routing(routing).parent(parent).version(version).versionType(versionType), payload);
+                    } else {
+                        BytesReference sourceLine = lines.next();
+                        if (sourceLine == null) {
+                            break;
                         }
-                    } else if ("create".equals(action)) {
-                        request.add(new IndexRequest(index, type, id).routing(routing).parent(parent).timestamp(timestamp).ttl(ttl).version(version).versionType(versionType)
-                                .create(true)
-                                .source(builder.bytes()), payload);
-                    } else if ("update".equals(action)) {
-                        UpdateRequest updateRequest = new UpdateRequest(index, type, id).routing(routing).parent(parent).retryOnConflict(retryOnConflict)
-                                .version(version).versionType(versionType)
-                                .routing(routing)
-                                .parent(parent)
-                                .source(builder.bytes());
-
-                        IndexRequest upsertRequest = updateRequest.upsertRequest();
-                        if (upsertRequest != null) {
-                            upsertRequest.timestamp(timestamp);
-                            upsertRequest.ttl(ttl);
-                            upsertRequest.version(version);
-                            upsertRequest.versionType(versionType);
+                        line++;
+
+                        // order is important, we set parent after routing, so routing will be set to parent if not set explicitly
+                        // we use internalAdd so we don't fork here, this allows us not to copy over the big byte array to small chunks
+                        // of index request.
+
+                        XContentParser contentParser = xContent.createParser(sourceLine.toBytes());
+                        contentParser.enableBase16Checks(true).enableBase16MarkedOnly(markedOnly).base16Prefix(prefix)
+                                .enableBase16UpdateSource("update".equals(action))
+                                .base16Detector(adaptive && index != null ? detectorService.detector(index) : null)
+                                .base16Targets(targets)
+                                .base16Digest(hashFieldSet != null ? new Base16Digest(hashFieldSet) : null)
+                                .base16Cache(cacheService.cache());
+                        org.xbib.elasticsearch.common.xcontent.XContentBuilder builder = jsonBuilder().copyCurrentStructure(contentParser);
+                        // content-addressed id or routing, so a retried document overwrites itself
+                        String digest = hashFieldSet != null ? contentParser.base16Digest().digest() : null;
+                        if (digest != null) {
+                            if ("routing".equals(hashTarget)) {
+                                if (routing == null && parent == null) {
+                                    routing = digest;
+                                }
+                            } else if (id == null && !"update".equals(action)) {
+                                id = digest;
+                            }
                         }
-                        IndexRequest doc = updateRequest.doc();
-                        if (doc != null) {
-                            doc.timestamp(timestamp);
-                            doc.ttl(ttl);
-                            doc.version(version);
-                            doc.versionType(versionType);
+
+                        // raw binary frames, referenced from the source by placeholders
+                        byte[][] attachments = new byte[numberOfAttachments][];
+                        for (int i = 0; i < numberOfAttachments; i++) {
+                            BytesReference frame = lines.next();
+                            if (frame == null) {
+                                throw new IllegalArgumentException("Action/metadata line [" + line + "] is missing attachment frames");
+                            }
+                            attachments[i] = frame.toBytes();
+                            line++;
+                        }
+                        if ("index".equals(action)) {
+                            IndexRequest indexRequest;
+                            if (opType == null) {
+                                indexRequest = new IndexRequest(index, type, id).routing(routing).parent(parent).timestamp(timestamp).ttl(ttl).version(version).versionType(versionType)
+                                        .source(builder.bytes());
+                            } else {
+                                indexRequest = new IndexRequest(index, type, id).routing(routing).parent(parent).timestamp(timestamp).ttl(ttl).version(version).versionType(versionType)
+                                        .create("create".equals(opType))
+                                        .source(builder.bytes());
+                            }
+                            if (numberOfAttachments > 0) {
+                                BinaryAttachments.splice(indexRequest, attachments);
+                            }
+                            request.add(indexRequest, payload);
+                        } else if ("create".equals(action)) {
+                            IndexRequest indexRequest = new IndexRequest(index, type, id).routing(routing).parent(parent).timestamp(timestamp).ttl(ttl).version(version).versionType(versionType)
+                                    .create(true)
+                                    .source(builder.bytes());
+                            if (numberOfAttachments > 0) {
+                                BinaryAttachments.splice(indexRequest, attachments);
+                            }
+                            request.add(indexRequest, payload);
+                        } else if ("update".equals(action)) {
+                            UpdateRequest updateRequest = new UpdateRequest(index, type, id).routing(routing).parent(parent).retryOnConflict(retryOnConflict)
+                                    .version(version).versionType(versionType)
+                                    .routing(routing)
+                                    .parent(parent)
+                                    .source(builder.bytes());
+
+                            IndexRequest upsertRequest = updateRequest.upsertRequest();
+                            if (upsertRequest != null) {
+                                upsertRequest.timestamp(timestamp);
+                                upsertRequest.ttl(ttl);
+                                upsertRequest.version(version);
+                                upsertRequest.versionType(versionType);
+                            }
+                            IndexRequest doc = updateRequest.doc();
+                            if (doc != null) {
+                                doc.timestamp(timestamp);
+                                doc.ttl(ttl);
+                                doc.version(version);
+                                doc.versionType(versionType);
+                            }
+                            if (numberOfAttachments > 0) {
+                                BinaryAttachments.splice(updateRequest, attachments);
+                            }
+                            request.add(updateRequest, payload);
                         }
-                        request.add(updateRequest, payload);
                     }
-                    // move pointers
-                    from = nextMarker + 1;
                 }
             }
+        } finally {
+            lines.close();
+        }
+    }
+
+    /**
+     * The decode targets of the {@code hex_targets} parameter, such as {@code hash:unsigned_long,addr:ip}.
+     */
+    private static Map<String, Base16Target> targets(String param) {
+        String[] entries = Strings.splitStringByCommaToArray(param);
+        if (entries.length == 0) {
+            return null;
+        }
+        Map<String, Base16Target> targets = new HashMap<>();
+        for (String entry : entries) {
+            int pos = entry.lastIndexOf(':');
+            if (pos <= 0) {
+                throw new IllegalArgumentException("malformed hex target [" + entry + "], expected [field:type]");
+            }
+            targets.put(entry.substring(0, pos), Base16Target.fromString(entry.substring(pos + 1)));
+        }
+        return targets;
+    }
+
+    /**
+     * The lines of the request body, or its frames if the {@code format} parameter is {@code framed}.
+     * Compressed bodies are inflated while they are split into lines, so the inflated body never exists
+     * as a whole. Netty inflates bodies with a {@code Content-Encoding} header into one array before they
+     * get here, or rejects them if {@code http.compression} is off, so clients send compressed bodies
+     * without the header, and with the {@code content_encoding} parameter. The inflated bytes are admitted
+     * while they are read, in addition to the compressed body. Independent of admission, an inflated body
+     * can not be larger than {@code action.bulkhex.inflated.max_size}, and its lines can not be longer than
+     * {@code action.bulkhex.inflated.max_line_size}.
+     */
+    private Lines lines(RestRequest request, AtomicLong admittedBytes) throws IOException {
+        boolean framed = "framed".equals(request.param("format"));
+        String contentEncoding = request.header("Content-Encoding");
+        if (contentEncoding == null) {
+            contentEncoding = request.param("content_encoding");
+        }
+        if (contentEncoding == null || "identity".equalsIgnoreCase(contentEncoding)) {
+            return framed ? new BytesFrameLines(request.content()) : new BytesLines(request.content());
+        }
+        InputStream in;
+        if ("gzip".equalsIgnoreCase(contentEncoding)) {
+            in = new GZIPInputStream(request.content().streamInput(), BUFFER_SIZE);
+        } else if ("deflate".equalsIgnoreCase(contentEncoding)) {
+            in = new InflaterInputStream(request.content().streamInput());
+        } else {
+            throw new IllegalArgumentException("unsupported content encoding [" + contentEncoding + "]");
+        }
+        in = new AdmittedInputStream(in, admittedBytes);
+        return framed ? new FrameLines(in, maxFrameSize) : new StreamLines(in, maxLineSize);
+    }
+
+    /**
+     * An inflated body, which admits the bytes it reads, up to the maximum inflated size.
+     */
+    private class AdmittedInputStream extends FilterInputStream {
+
+        private final AtomicLong admittedBytes;
+
+        private final long contentLength;
+
+        AdmittedInputStream(InputStream in, AtomicLong admittedBytes) {
+            super(in);
+            this.admittedBytes = admittedBytes;
+            this.contentLength = admittedBytes.get();
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b != -1) {
+                admit(1);
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int n = super.read(b, off, len);
+            if (n > 0) {
+                admit(n);
+            }
+            return n;
+        }
+
+        private void admit(int n) {
+            // the compressed body is not part of the inflated size
+            if (admittedBytes.get() - contentLength + n > maxInflatedSize) {
+                throw new InflatedBodyTooLargeException(maxInflatedSize);
+            }
+            if (!admissionController.tryAcquireMoreBytes(admittedBytes.get(), n)) {
+                throw new TooManyBytesException();
+            }
+            admittedBytes.addAndGet(n);
+        }
+    }
+
+    /**
+     * Thrown when an inflated body does not fit into the admitted bytes.
+     */
+    private static class TooManyBytesException extends RuntimeException {
+
+        TooManyBytesException() {
+            super(null, null, false, false);
+        }
+    }
+
+    /**
+     * Thrown when an inflated body is larger than the maximum inflated size.
+     */
+    private static class InflatedBodyTooLargeException extends ElasticsearchException {
+
+        InflatedBodyTooLargeException(long maxInflatedSize) {
+            super("inflated body is larger than the maximum of [" + maxInflatedSize + "] bytes");
+        }
+
+        @Override
+        public RestStatus status() {
+            return RestStatus.REQUEST_ENTITY_TOO_LARGE;
+        }
+    }
+
+    private interface Lines extends Closeable {
+
+        /**
+         * The next line without the newline, or the next frame without its length, or null if there is
+         * no further complete line or frame.
+         */
+        BytesReference next() throws IOException;
+    }
+
+    private static class BytesLines implements Lines {
+
+        private final BytesReference data;
+
+        private int from;
+
+        BytesLines(BytesReference data) {
+            this.data = data;
+        }
+
+        @Override
+        public void close() {
+        }
+
+        @Override
+        public BytesReference next() {
+            int length = data.length();
+            for (int i = from; i < length; i++) {
+                if (data.get(i) == '\n') {
+                    BytesReference line = data.slice(from, i - from);
+                    from = i + 1;
+                    return line;
+                }
+            }
+            return null;
         }
     }
 
-    private int findNextMarker(byte marker, int from, BytesReference data, int length) {
-        for (int i = from; i < length; i++) {
-            if (data.get(i) == marker) {
-                return i;
+    /**
+     * Frames, each one a four byte big endian length followed by that many bytes. The frames are found
+     * without looking at their content, and may hold raw bytes. The frames are slices of the body.
+     */
+    private static class BytesFrameLines implements Lines {
+
+        private final BytesReference data;
+
+        private int from;
+
+        BytesFrameLines(BytesReference data) {
+            this.data = data;
+        }
+
+        @Override
+        public void close() {
+        }
+
+        @Override
+        public BytesReference next() {
+            int remaining = data.length() - from;
+            if (remaining == 0) {
+                return null;
+            }
+            if (remaining < 4) {
+                throw new ElasticsearchIllegalArgumentException("truncated frame length");
+            }
+            int length = ((data.get(from) & 0xff) << 24) | ((data.get(from + 1) & 0xff) << 16)
+                    | ((data.get(from + 2) & 0xff) << 8) | (data.get(from + 3) & 0xff);
+            if (length < 0 || length > remaining - 4) {
+                throw new ElasticsearchIllegalArgumentException("invalid frame length [" + length + "], "
+                        + (remaining - 4) + " bytes remaining");
+            }
+            BytesReference frame = data.slice(from + 4, length);
+            from += 4 + length;
+            return frame;
+        }
+    }
+
+    /**
+     * Frames of an inflated body. The length of a frame is checked against the maximum frame size before
+     * the frame is read, a frame can not ask for more memory than that.
+     */
+    private static class FrameLines implements Lines {
+
+        private final DataInputStream in;
+
+        private final long maxFrameSize;
+
+        FrameLines(InputStream in, long maxFrameSize) {
+            this.in = new DataInputStream(in);
+            this.maxFrameSize = maxFrameSize;
+        }
+
+        @Override
+        public void close() throws IOException {
+            in.close();
+        }
+
+        @Override
+        public BytesReference next() throws IOException {
+            int b = in.read();
+            if (b == -1) {
+                return null;
+            }
+            int length = (b << 24) | (in.readUnsignedByte() << 16) | (in.readUnsignedByte() << 8) | in.readUnsignedByte();
+            if (length < 0 || length > maxFrameSize) {
+                throw new ElasticsearchIllegalArgumentException("invalid frame length [" + length + "], the maximum is [" + maxFrameSize + "]");
+            }
+            byte[] frame = new byte[length];
+            in.readFully(frame);
+            return new BytesArray(frame);
+        }
+    }
+
+    /**
+     * Lines of an inflated body. A line longer than the maximum line size is rejected while it is read.
+     */
+    private static class StreamLines implements Lines {
+
+        private final InputStream in;
+
+        private final long maxLineSize;
+
+        private final byte[] buffer = new byte[BUFFER_SIZE];
+
+        private final ByteArrayOutputStream line = new ByteArrayOutputStream();
+
+        private int pos;
+
+        private int limit;
+
+        StreamLines(InputStream in, long maxLineSize) {
+            this.in = in;
+            this.maxLineSize = maxLineSize;
+        }
+
+        @Override
+        public void close() throws IOException {
+            in.close();
+        }
+
+        @Override
+        public BytesReference next() throws IOException {
+            line.reset();
+            while (true) {
+                if (pos == limit) {
+                    limit = in.read(buffer);
+                    pos = 0;
+                    if (limit <= 0) {
+                        limit = 0;
+                        return null;
+                    }
+                }
+                for (int i = pos; i < limit; i++) {
+                    if (buffer[i] == '\n') {
+                        checkLineSize(i - pos);
+                        line.write(buffer, pos, i - pos);
+                        pos = i + 1;
+                        return new BytesArray(line.toByteArray());
+                    }
+                }
+                checkLineSize(limit - pos);
+                line.write(buffer, pos, limit - pos);
+                pos = limit;
+            }
+        }
+
+        private void checkLineSize(int n) {
+            if (line.size() + n > maxLineSize) {
+                throw new ElasticsearchIllegalArgumentException("line is longer than the maximum of [" + maxLineSize + "] bytes");
             }
         }
-        return -1;
     }
 
     static final class Fields {
@@ -0,0 +1,66 @@
+package org.xbib.elasticsearch.rest.hex.action.hex;
+
+import org.elasticsearch.client.Client;
+import org.elasticsearch.common.inject.Inject;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.common.xcontent.XContentBuilder;
+import org.elasticsearch.common.xcontent.XContentBuilderString;
+import org.elasticsearch.rest.BaseRestHandler;
+import org.elasticsearch.rest.BytesRestResponse;
+import org.elasticsearch.rest.RestChannel;
+import org.elasticsearch.rest.RestController;
+import org.elasticsearch.rest.RestRequest;
+import org.xbib.elasticsearch.action.bulk.Base16CacheService;
+import org.xbib.elasticsearch.common.xcontent.Base16Cache;
+
+import static org.elasticsearch.rest.RestRequest.Method.GET;
+import static org.elasticsearch.rest.RestStatus.OK;
+
+/**
+ * Shows the metrics of the hex value cache of this node.
+ *
+ * <pre>
+ * GET /_bulkhex/_cache
+ * </pre>
+ */
+public class RestBulkHexCacheAction extends BaseRestHandler {
+
+    private final Base16CacheService cacheService;
+
+    @Inject
+    public RestBulkHexCacheAction(Settings settings, RestController controller, Client client, Base16CacheService cacheService) {
+        super(settings, controller, client);
+        this.cacheService = cacheService;
+        controller.registerHandler(GET, "/_bulkhex/_cache", this);
+    }
+
+    @Override
+    public void handleRequest(final RestRequest request, final RestChannel channel, final Client client) throws Exception {
+        Base16Cache cache = cacheService.cache();
+        XContentBuilder builder = channel.newBuilder();
+        builder.startObject();
+        builder.field(Fields.ENABLED, cache != null);
+        if (cache != null) {
+            long hits = cache.hits();
+            long misses = cache.misses();
+            builder.field(Fields.ENTRIES, cache.size());
+            builder.field(Fields.HITS, hits);
+            builder.field(Fields.MISSES, misses);
+            builder.field(Fields.COLLISIONS, cache.collisions());
+            builder.field(Fields.EVICTIONS, cache.evictions());
+            builder.field(Fields.HIT_RATE, hits + misses == 0 ? 1.0 : (double) hits / (hits + misses));
+        }
+        builder.endObject();
+        channel.sendResponse(new BytesRestResponse(OK, builder));
+    }
+
+    static final class Fields {
+        static final XContentBuilderString ENABLED = new XContentBuilderString("enabled");
+        static final XContentBuilderString ENTRIES = new XContentBuilderString("entries");
+        static final XContentBuilderString HITS = new XContentBuilderString("hits");
+        static final XContentBuilderString MISSES = new XContentBuilderString("misses");
+        static final XContentBuilderString COLLISIONS = new XContentBuilderString("collisions");
+        static final XContentBuilderString EVICTIONS = new XContentBuilderString("evictions");
+        static final XContentBuilderString HIT_RATE = new XContentBuilderString("hit_rate");
+    }
+}
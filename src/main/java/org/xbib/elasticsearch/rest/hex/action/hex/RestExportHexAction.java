@@ -0,0 +1,188 @@
+package org.xbib.elasticsearch.rest.hex.action.hex;
+
+import org.elasticsearch.action.ActionListener;
+import org.elasticsearch.action.search.ClearScrollResponse;
+import org.elasticsearch.action.search.SearchRequest;
+import org.elasticsearch.action.search.SearchResponse;
+import org.elasticsearch.action.search.SearchScrollRequest;
+import org.elasticsearch.action.search.SearchType;
+import org.elasticsearch.client.Client;
+import org.elasticsearch.common.Strings;
+import org.elasticsearch.common.bytes.BytesArray;
+import org.elasticsearch.common.collect.Sets;
+import org.elasticsearch.common.inject.Inject;
+import org.elasticsearch.common.io.stream.BytesStreamOutput;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.common.unit.TimeValue;
+import org.elasticsearch.common.xcontent.XContentBuilder;
+import org.elasticsearch.common.xcontent.XContentBuilderString;
+import org.elasticsearch.common.xcontent.XContentFactory;
+import org.elasticsearch.common.xcontent.XContentType;
+import org.elasticsearch.rest.BaseRestHandler;
+import org.elasticsearch.rest.BytesRestResponse;
+import org.elasticsearch.rest.RestChannel;
+import org.elasticsearch.rest.RestController;
+import org.elasticsearch.rest.RestRequest;
+import org.elasticsearch.rest.RestResponse;
+import org.elasticsearch.rest.action.support.RestResponseListener;
+import org.elasticsearch.search.SearchHit;
+import org.elasticsearch.search.SearchHitField;
+import org.elasticsearch.search.builder.SearchSourceBuilder;
+
+import java.util.Set;
+
+import static org.elasticsearch.rest.RestRequest.Method.GET;
+import static org.elasticsearch.rest.RestRequest.Method.POST;
+import static org.elasticsearch.rest.RestStatus.BAD_REQUEST;
+import static org.elasticsearch.rest.RestStatus.OK;
+
+/**
+ * Export the documents of an index in the format of <code>_bulkhex</code>, with the binary source fields
+ * given in the <code>hex_fields</code> parameter written as hex.
+ *
+ * The documents are exported by scan and scroll, one page per call. The first call on an index takes an
+ * optional query body and starts the scroll, later calls pass the scroll id from the
+ * <code>X-Scroll-Id</code> response header. An empty page without scroll id ends the export.
+ * A page is written as bytes, the hex values are written from the sources without intermediate strings.
+ * A document without source fails the export, and ends the scroll.
+ */
+public class RestExportHexAction extends BaseRestHandler {
+
+    public static final String SCROLL_ID_HEADER = "X-Scroll-Id";
+
+    private static final String CONTENT_TYPE = "application/x-ndjson";
+
+    private static final TimeValue DEFAULT_KEEP_ALIVE = TimeValue.timeValueMinutes(1);
+
+    private static final int DEFAULT_SIZE = 100;
+
+    @Inject
+    public RestExportHexAction(Settings settings, RestController controller, Client client) {
+        super(settings, controller, client);
+        controller.registerHandler(GET, "/_exporthex", this);
+        controller.registerHandler(POST, "/_exporthex", this);
+        controller.registerHandler(GET, "/{index}/_exporthex", this);
+        controller.registerHandler(POST, "/{index}/_exporthex", this);
+        controller.registerHandler(GET, "/{index}/{type}/_exporthex", this);
+        controller.registerHandler(POST, "/{index}/{type}/_exporthex", this);
+    }
+
+    @Override
+    public void handleRequest(final RestRequest request, final RestChannel channel, final Client client) {
+        final TimeValue keepAlive = request.paramAsTime("scroll", DEFAULT_KEEP_ALIVE);
+        final Set<String> fields = Sets.newHashSet(Strings.splitStringByCommaToArray(request.param("hex_fields")));
+        final RestResponseListener<SearchResponse> pageListener = new RestResponseListener<SearchResponse>(channel) {
+            @Override
+            public RestResponse buildResponse(SearchResponse response) throws Exception {
+                return page(response, fields, client);
+            }
+        };
+        String scrollId = request.param("scroll_id");
+        if (scrollId != null) {
+            scroll(client, scrollId, keepAlive, pageListener);
+            return;
+        }
+        if (request.param("index") == null) {
+            channel.sendResponse(new BytesRestResponse(BAD_REQUEST, "an index or a scroll_id is required"));
+            return;
+        }
+        SearchRequest searchRequest = new SearchRequest(Strings.splitStringByCommaToArray(request.param("index")));
+        searchRequest.listenerThreaded(false);
+        searchRequest.types(Strings.splitStringByCommaToArray(request.param("type")));
+        searchRequest.routing(request.param("routing"));
+        searchRequest.preference(request.param("preference"));
+        searchRequest.searchType(SearchType.SCAN);
+        searchRequest.scroll(keepAlive);
+        if (request.hasContent()) {
+            searchRequest.source(request.content());
+        }
+        // routing and parent are needed to index the documents again, the size is per shard
+        searchRequest.extraSource(new SearchSourceBuilder()
+                .size(request.paramAsInt("size", DEFAULT_SIZE))
+                .fields("_routing", "_parent")
+                .fetchSource(true));
+        client.search(searchRequest, new ActionListener<SearchResponse>() {
+            @Override
+            public void onResponse(SearchResponse response) {
+                // a scan returns no hits on the first round trip, fetch the first page right away
+                scroll(client, response.getScrollId(), keepAlive, pageListener);
+            }
+
+            @Override
+            public void onFailure(Throwable e) {
+                pageListener.onFailure(e);
+            }
+        });
+    }
+
+    private void scroll(Client client, String scrollId, TimeValue keepAlive, ActionListener<SearchResponse> listener) {
+        SearchScrollRequest searchScrollRequest = new SearchScrollRequest(scrollId).scroll(keepAlive);
+        searchScrollRequest.listenerThreaded(false);
+        client.searchScroll(searchScrollRequest, listener);
+    }
+
+    private RestResponse page(SearchResponse response, Set<String> fields, Client client) throws Exception {
+        SearchHit[] hits = response.getHits().getHits();
+        if (hits.length == 0) {
+            clearScroll(client, response.getScrollId());
+            return new BytesRestResponse(OK, CONTENT_TYPE, BytesArray.EMPTY);
+        }
+        HexSourceEncoder encoder = new HexSourceEncoder(fields);
+        BytesStreamOutput out = new BytesStreamOutput();
+        for (SearchHit hit : hits) {
+            if (hit.sourceRef() == null) {
+                // an empty source would replace the document on import
+                clearScroll(client, response.getScrollId());
+                throw new IllegalStateException("document [" + hit.index() + "][" + hit.type() + "][" + hit.id()
+                        + "] has no source and can not be exported");
+            }
+            XContentBuilder builder = XContentFactory.contentBuilder(XContentType.JSON, out);
+            builder.startObject();
+            builder.startObject(Fields.INDEX);
+            builder.field(Fields._INDEX, hit.index());
+            builder.field(Fields._TYPE, hit.type());
+            builder.field(Fields._ID, hit.id());
+            SearchHitField routing = hit.field("_routing");
+            if (routing != null) {
+                builder.field(Fields._ROUTING, routing.getValue().toString());
+            }
+            SearchHitField parent = hit.field("_parent");
+            if (parent != null) {
+                builder.field(Fields._PARENT, parent.getValue().toString());
+            }
+            builder.endObject();
+            builder.endObject();
+            builder.flush();
+            out.write('\n');
+            builder = XContentFactory.contentBuilder(XContentType.JSON, out);
+            encoder.encode(hit.sourceRef(), builder);
+            builder.flush();
+            out.write('\n');
+        }
+        BytesRestResponse restResponse = new BytesRestResponse(OK, CONTENT_TYPE, out.bytes());
+        restResponse.addHeader(SCROLL_ID_HEADER, response.getScrollId());
+        return restResponse;
+    }
+
+    private void clearScroll(Client client, final String scrollId) {
+        client.prepareClearScroll().addScrollId(scrollId).execute(new ActionListener<ClearScrollResponse>() {
+            @Override
+            public void onResponse(ClearScrollResponse response) {
+            }
+
+            @Override
+            public void onFailure(Throwable e) {
+                logger.debug("failed to clear scroll [{}]", e, scrollId);
+            }
+        });
+    }
+
+    static final class Fields {
+        static final XContentBuilderString INDEX = new XContentBuilderString("index");
+        static final XContentBuilderString _INDEX = new XContentBuilderString("_index");
+        static final XContentBuilderString _TYPE = new XContentBuilderString("_type");
+        static final XContentBuilderString _ID = new XContentBuilderString("_id");
+        static final XContentBuilderString _ROUTING = new XContentBuilderString("_routing");
+        static final XContentBuilderString _PARENT = new XContentBuilderString("_parent");
+    }
+}
@@ -0,0 +1,83 @@
+package org.xbib.elasticsearch.rest.hex.action.hex;
+
+import org.elasticsearch.action.get.GetRequest;
+import org.elasticsearch.action.get.GetResponse;
+import org.elasticsearch.client.Client;
+import org.elasticsearch.common.Strings;
+import org.elasticsearch.common.collect.Sets;
+import org.elasticsearch.common.inject.Inject;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.common.xcontent.XContentBuilder;
+import org.elasticsearch.common.xcontent.XContentBuilderString;
+import org.elasticsearch.rest.BaseRestHandler;
+import org.elasticsearch.rest.BytesRestResponse;
+import org.elasticsearch.rest.RestChannel;
+import org.elasticsearch.rest.RestController;
+import org.elasticsearch.rest.RestRequest;
+import org.elasticsearch.rest.RestResponse;
+import org.elasticsearch.rest.action.support.RestBuilderListener;
+
+import java.util.Set;
+
+import static org.elasticsearch.rest.RestRequest.Method.GET;
+import static org.elasticsearch.rest.RestStatus.NOT_FOUND;
+import static org.elasticsearch.rest.RestStatus.OK;
+
+/**
+ * Get a document with the binary source fields given in the <code>hex_fields</code> parameter rendered as hex.
+ * The source is encoded while it is written into the response.
+ */
+public class RestGetHexAction extends BaseRestHandler {
+
+    @Inject
+    public RestGetHexAction(Settings settings, RestController controller, Client client) {
+        super(settings, controller, client);
+        controller.registerHandler(GET, "/{index}/{type}/{id}/_gethex", this);
+    }
+
+    @Override
+    public void handleRequest(final RestRequest request, final RestChannel channel, final Client client) {
+        final GetRequest getRequest = new GetRequest(request.param("index"))
+                .type(request.param("type"))
+                .id(request.param("id"));
+        getRequest.listenerThreaded(false);
+        getRequest.operationThreaded(true);
+        getRequest.refresh(request.paramAsBoolean("refresh", getRequest.refresh()));
+        getRequest.routing(request.param("routing"));
+        getRequest.parent(request.param("parent"));
+        getRequest.preference(request.param("preference"));
+        getRequest.realtime(request.paramAsBoolean("realtime", null));
+        final Set<String> fields = Sets.newHashSet(Strings.splitStringByCommaToArray(request.param("hex_fields")));
+        client.get(getRequest, new RestBuilderListener<GetResponse>(channel) {
+            @Override
+            public RestResponse buildResponse(GetResponse response, XContentBuilder builder) throws Exception {
+                builder.startObject();
+                builder.field(Fields._INDEX, response.getIndex());
+                builder.field(Fields._TYPE, response.getType());
+                builder.field(Fields._ID, response.getId());
+                if (!response.isExists()) {
+                    builder.field(Fields.FOUND, false);
+                    builder.endObject();
+                    return new BytesRestResponse(NOT_FOUND, builder);
+                }
+                builder.field(Fields._VERSION, response.getVersion());
+                builder.field(Fields.FOUND, true);
+                if (!response.isSourceEmpty()) {
+                    builder.field(Fields._SOURCE);
+                    new HexSourceEncoder(fields).encode(response.getSourceInternal(), builder);
+                }
+                builder.endObject();
+                return new BytesRestResponse(OK, builder);
+            }
+        });
+    }
+
+    static final class Fields {
+        static final XContentBuilderString _INDEX = new XContentBuilderString("_index");
+        static final XContentBuilderString _TYPE = new XContentBuilderString("_type");
+        static final XContentBuilderString _ID = new XContentBuilderString("_id");
+        static final XContentBuilderString _VERSION = new XContentBuilderString("_version");
+        static final XContentBuilderString FOUND = new XContentBuilderString("found");
+        static final XContentBuilderString _SOURCE = new XContentBuilderString("_source");
+    }
+}
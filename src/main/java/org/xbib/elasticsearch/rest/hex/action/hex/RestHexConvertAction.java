@@ -0,0 +1,114 @@
+package org.xbib.elasticsearch.rest.hex.action.hex;
+
+import org.elasticsearch.action.ActionListener;
+import org.elasticsearch.client.Client;
+import org.elasticsearch.common.Strings;
+import org.elasticsearch.common.inject.Inject;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.common.xcontent.XContentBuilder;
+import org.elasticsearch.common.xcontent.XContentBuilderString;
+import org.elasticsearch.rest.BaseRestHandler;
+import org.elasticsearch.rest.BytesRestResponse;
+import org.elasticsearch.rest.RestChannel;
+import org.elasticsearch.rest.RestController;
+import org.elasticsearch.rest.RestRequest;
+import org.elasticsearch.rest.RestResponse;
+import org.elasticsearch.rest.action.support.RestBuilderListener;
+import org.xbib.elasticsearch.action.hexconvert.HexConvertJob;
+import org.xbib.elasticsearch.action.hexconvert.HexConvertService;
+
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+import static org.elasticsearch.rest.RestRequest.Method.GET;
+import static org.elasticsearch.rest.RestRequest.Method.POST;
+import static org.elasticsearch.rest.RestStatus.BAD_REQUEST;
+import static org.elasticsearch.rest.RestStatus.NOT_FOUND;
+import static org.elasticsearch.rest.RestStatus.OK;
+
+/**
+ * Starts, resumes, cancels and shows hex conversion jobs.
+ *
+ * <pre>
+ * POST /{index}/_hexconvert?target=...&amp;hex_fields=...
+ * GET /_hexconvert
+ * GET /_hexconvert/{id}
+ * POST /_hexconvert/{id}/_cancel
+ * POST /_hexconvert/{id}/_resume
+ * </pre>
+ */
+public class RestHexConvertAction extends BaseRestHandler {
+
+    private static final int DEFAULT_SIZE = 500;
+
+    private final HexConvertService hexConvertService;
+
+    @Inject
+    public RestHexConvertAction(Settings settings, RestController controller, Client client, HexConvertService hexConvertService) {
+        super(settings, controller, client);
+        this.hexConvertService = hexConvertService;
+        controller.registerHandler(POST, "/{index}/_hexconvert", this);
+        controller.registerHandler(POST, "/{index}/{type}/_hexconvert", this);
+        controller.registerHandler(GET, "/_hexconvert", this);
+        controller.registerHandler(GET, "/_hexconvert/{id}", this);
+        controller.registerHandler(POST, "/_hexconvert/{id}/_cancel", this);
+        controller.registerHandler(POST, "/_hexconvert/{id}/_resume", this);
+    }
+
+    @Override
+    public void handleRequest(final RestRequest request, final RestChannel channel, final Client client) throws Exception {
+        String id = request.param("id");
+        if (id == null) {
+            if (request.method() == GET) {
+                XContentBuilder builder = channel.newBuilder();
+                builder.startObject();
+                builder.startArray(Fields.JOBS);
+                for (HexConvertJob job : hexConvertService.jobs()) {
+                    job.toXContent(builder, request);
+                }
+                builder.endArray();
+                builder.endObject();
+                channel.sendResponse(new BytesRestResponse(OK, builder));
+            } else {
+                start(request, channel);
+            }
+        } else if (request.path().endsWith("/_resume")) {
+            hexConvertService.resume(id, new RestBuilderListener<HexConvertJob>(channel) {
+                @Override
+                public RestResponse buildResponse(HexConvertJob job, XContentBuilder builder) throws Exception {
+                    return new BytesRestResponse(OK, job.toXContent(builder, request));
+                }
+            });
+        } else {
+            HexConvertJob job = request.path().endsWith("/_cancel") ? hexConvertService.cancel(id) : hexConvertService.job(id);
+            if (job == null) {
+                channel.sendResponse(new BytesRestResponse(NOT_FOUND, "no hex conversion [" + id + "] on this node"));
+                return;
+            }
+            channel.sendResponse(new BytesRestResponse(OK, job.toXContent(channel.newBuilder(), request)));
+        }
+    }
+
+    private void start(RestRequest request, RestChannel channel) throws Exception {
+        String target = request.param("target");
+        Set<String> fields = new LinkedHashSet<>(Arrays.asList(Strings.splitStringByCommaToArray(request.param("hex_fields"))));
+        if (target == null || fields.isEmpty()) {
+            channel.sendResponse(new BytesRestResponse(BAD_REQUEST, "target and hex_fields are required"));
+            return;
+        }
+        HexConvertJob job = new HexConvertJob(HexConvertService.newId(),
+                Strings.splitStringByCommaToArray(request.param("index")),
+                Strings.splitStringByCommaToArray(request.param("type")),
+                target,
+                fields,
+                request.paramAsInt("size", DEFAULT_SIZE),
+                request.paramAsFloat("docs_per_second", -1f));
+        hexConvertService.start(job);
+        channel.sendResponse(new BytesRestResponse(OK, job.toXContent(channel.newBuilder(), request)));
+    }
+
+    static final class Fields {
+        static final XContentBuilderString JOBS = new XContentBuilderString("jobs");
+    }
+}
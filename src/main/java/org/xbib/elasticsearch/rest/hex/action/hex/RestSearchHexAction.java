@@ -0,0 +1,68 @@
+package org.xbib.elasticsearch.rest.hex.action.hex;
+
+import org.elasticsearch.action.search.SearchRequest;
+import org.elasticsearch.action.search.SearchResponse;
+import org.elasticsearch.client.Client;
+import org.elasticsearch.common.Strings;
+import org.elasticsearch.common.collect.Sets;
+import org.elasticsearch.common.inject.Inject;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.common.xcontent.XContentBuilder;
+import org.elasticsearch.rest.BaseRestHandler;
+import org.elasticsearch.rest.BytesRestResponse;
+import org.elasticsearch.rest.RestChannel;
+import org.elasticsearch.rest.RestController;
+import org.elasticsearch.rest.RestRequest;
+import org.elasticsearch.rest.RestResponse;
+import org.elasticsearch.rest.action.search.RestSearchAction;
+import org.elasticsearch.rest.action.support.RestBuilderListener;
+import org.elasticsearch.search.SearchHit;
+import org.elasticsearch.search.internal.InternalSearchHit;
+
+import java.util.Set;
+
+import static org.elasticsearch.rest.RestRequest.Method.GET;
+import static org.elasticsearch.rest.RestRequest.Method.POST;
+
+/**
+ * Search with the binary source fields given in the <code>hex_fields</code> parameter rendered as hex.
+ * Takes the same parameters and body as <code>_search</code>.
+ */
+public class RestSearchHexAction extends BaseRestHandler {
+
+    @Inject
+    public RestSearchHexAction(Settings settings, RestController controller, Client client) {
+        super(settings, controller, client);
+        controller.registerHandler(GET, "/_searchhex", this);
+        controller.registerHandler(POST, "/_searchhex", this);
+        controller.registerHandler(GET, "/{index}/_searchhex", this);
+        controller.registerHandler(POST, "/{index}/_searchhex", this);
+        controller.registerHandler(GET, "/{index}/{type}/_searchhex", this);
+        controller.registerHandler(POST, "/{index}/{type}/_searchhex", this);
+    }
+
+    @Override
+    public void handleRequest(final RestRequest request, final RestChannel channel, final Client client) {
+        SearchRequest searchRequest = RestSearchAction.parseSearchRequest(request);
+        searchRequest.listenerThreaded(false);
+        final Set<String> fields = Sets.newHashSet(Strings.splitStringByCommaToArray(request.param("hex_fields")));
+        client.search(searchRequest, new RestBuilderListener<SearchResponse>(channel) {
+            @Override
+            public RestResponse buildResponse(SearchResponse response, XContentBuilder builder) throws Exception {
+                if (!fields.isEmpty()) {
+                    HexSourceEncoder encoder = new HexSourceEncoder(fields);
+                    for (SearchHit hit : response.getHits().getHits()) {
+                        InternalSearchHit internalHit = (InternalSearchHit) hit;
+                        if (internalHit.sourceRef() != null) {
+                            internalHit.sourceRef(encoder.encode(internalHit.sourceRef()));
+                        }
+                    }
+                }
+                builder.startObject();
+                response.toXContent(builder, request);
+                builder.endObject();
+                return new BytesRestResponse(response.status(), builder);
+            }
+        });
+    }
+}
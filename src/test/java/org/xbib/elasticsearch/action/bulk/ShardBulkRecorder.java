@@ -0,0 +1,91 @@
+package org.xbib.elasticsearch.action.bulk;
+
+import org.elasticsearch.action.ActionListener;
+import org.elasticsearch.action.ActionRequest;
+import org.elasticsearch.action.ActionResponse;
+import org.elasticsearch.action.support.ActionFilter;
+import org.elasticsearch.action.support.ActionFilterChain;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Records the shard bulk requests a node sends, and how many of them are in flight at most.
+ * Registered by {@link ShardBulkRecorderPlugin}.
+ */
+public class ShardBulkRecorder implements ActionFilter {
+
+    private static final List<BulkShardRequest> requests = new ArrayList<>();
+
+    private static final AtomicInteger inFlight = new AtomicInteger();
+
+    private static final AtomicInteger maxInFlight = new AtomicInteger();
+
+    public static void reset() {
+        synchronized (requests) {
+            requests.clear();
+        }
+        inFlight.set(0);
+        maxInFlight.set(0);
+    }
+
+    public static List<BulkShardRequest> requests() {
+        synchronized (requests) {
+            return new ArrayList<>(requests);
+        }
+    }
+
+    /**
+     * The items of a recorded shard bulk request.
+     */
+    public static BulkItemRequest[] items(BulkShardRequest request) {
+        return request.items();
+    }
+
+    public static int maxInFlight() {
+        return maxInFlight.get();
+    }
+
+    @Override
+    public int order() {
+        return 0;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public void apply(String action, ActionRequest request, final ActionListener listener, ActionFilterChain chain) {
+        if (!(request instanceof BulkShardRequest)) {
+            chain.proceed(action, request, listener);
+            return;
+        }
+        synchronized (requests) {
+            requests.add((BulkShardRequest) request);
+        }
+        int n = inFlight.incrementAndGet();
+        while (true) {
+            int max = maxInFlight.get();
+            if (n <= max || maxInFlight.compareAndSet(max, n)) {
+                break;
+            }
+        }
+        chain.proceed(action, request, new ActionListener<ActionResponse>() {
+            @Override
+            public void onResponse(ActionResponse response) {
+                inFlight.decrementAndGet();
+                listener.onResponse(response);
+            }
+
+            @Override
+            public void onFailure(Throwable e) {
+                inFlight.decrementAndGet();
+                listener.onFailure(e);
+            }
+        });
+    }
+
+    @Override
+    public void apply(String action, ActionResponse response, ActionListener listener, ActionFilterChain chain) {
+        chain.proceed(action, response, listener);
+    }
+}
@@ -0,0 +1,24 @@
+package org.xbib.elasticsearch.action.bulk;
+
+import org.elasticsearch.action.ActionModule;
+import org.elasticsearch.plugins.AbstractPlugin;
+
+/**
+ * Load with the {@code plugin.types} setting to record shard bulk requests.
+ */
+public class ShardBulkRecorderPlugin extends AbstractPlugin {
+
+    @Override
+    public String name() {
+        return "shard-bulk-recorder";
+    }
+
+    @Override
+    public String description() {
+        return "Records shard bulk requests";
+    }
+
+    public void onModule(ActionModule module) {
+        module.registerFilter(ShardBulkRecorder.class);
+    }
+}
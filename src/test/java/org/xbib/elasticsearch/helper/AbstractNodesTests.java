@@ -4,18 +4,27 @@ import org.elasticsearch.action.admin.cluster.node.info.NodeInfo;
 import org.elasticsearch.action.admin.cluster.node.info.NodesInfoRequest;
 import org.elasticsearch.action.admin.cluster.node.info.NodesInfoResponse;
 import org.elasticsearch.client.Client;
+import org.elasticsearch.common.io.Streams;
 import org.elasticsearch.common.network.NetworkUtils;
 import org.elasticsearch.common.settings.ImmutableSettings;
 import org.elasticsearch.common.settings.Settings;
 import org.elasticsearch.common.transport.InetSocketTransportAddress;
 import org.elasticsearch.node.Node;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
 import java.net.URI;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
 import java.util.Map;
 
 import static org.elasticsearch.common.collect.Maps.newHashMap;
 import static org.elasticsearch.common.settings.ImmutableSettings.settingsBuilder;
 import static org.elasticsearch.node.NodeBuilder.nodeBuilder;
+import static org.junit.Assert.assertTrue;
 
 public abstract class AbstractNodesTests {
 
@@ -37,9 +46,55 @@ public abstract class AbstractNodesTests {
         return URI.create("http://" + address.address().getHostName() + ":" + (address.address().getPort()));
     }
 
+    /**
+     * Opens a HTTP connection to node0.
+     */
+    protected HttpURLConnection open(String path) throws IOException {
+        return open("node0", "GET", path);
+    }
+
+    protected HttpURLConnection open(String id, String method, String path) throws IOException {
+        URL url = new URL(getHttpAddressOfNode(id).toURL(), path);
+        HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+        connection.setRequestMethod(method);
+        return connection;
+    }
+
+    /**
+     * Posts a body to node0, the connection holds the response.
+     */
+    protected HttpURLConnection post(String path, byte[] body) throws IOException {
+        HttpURLConnection connection = open("node0", "POST", path);
+        connection.setDoOutput(true);
+        OutputStream out = connection.getOutputStream();
+        out.write(body);
+        out.close();
+        return connection;
+    }
+
+    protected HttpURLConnection post(String path, String body) throws IOException {
+        return post(path, body.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Posts a bulk body to node0, and checks that no item failed.
+     */
+    protected void bulk(String path, String body) throws IOException {
+        String response = read(post(path, body));
+        assertTrue(response, response.contains("\"errors\":false"));
+    }
+
+    /**
+     * The response body of a connection, or its error body.
+     */
+    protected static String read(HttpURLConnection connection) throws IOException {
+        InputStream in = connection.getResponseCode() < 400 ? connection.getInputStream() : connection.getErrorStream();
+        return in != null ? Streams.copyToString(new InputStreamReader(in, StandardCharsets.UTF_8)) : "";
+    }
+
     public Node startNode(String id, Settings settings) {
         Node node = buildNode(id, settings).start();
-        NodesInfoRequest nodesInfoRequest = new NodesInfoRequest().transport(true);
+        NodesInfoRequest nodesInfoRequest = new NodesInfoRequest("_local").transport(true);
         NodesInfoResponse response = client(id).admin().cluster().nodesInfo(nodesInfoRequest).actionGet();
         NodeInfo nodeInfo = response.iterator().next();
         Object obj = nodeInfo.getTransport().getAddress().publishAddress();
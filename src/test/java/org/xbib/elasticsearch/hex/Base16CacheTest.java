@@ -0,0 +1,31 @@
+package org.xbib.elasticsearch.hex;
+
+import org.junit.Test;
+import org.xbib.elasticsearch.common.xcontent.Base16Cache;
+
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.Assert.assertEquals;
+
+public class Base16CacheTest {
+
+    @Test
+    public void testCollision() throws Exception {
+        // all values of a length collide
+        Base16Cache cache = new Base16Cache(1024 * 1024, 0) {
+            @Override
+            protected long fingerprint(char[] text, int offset, int length) {
+                return 0L;
+            }
+        };
+        char[] a = "xx48656C6C6Fxx".toCharArray();
+        char[] b = "576F726C64".toCharArray();
+        assertEquals("SGVsbG8=", new String(cache.encode(a, 2, 10), StandardCharsets.UTF_8));
+        assertEquals("V29ybGQ=", new String(cache.encode(b, 0, 10), StandardCharsets.UTF_8));
+        assertEquals("V29ybGQ=", new String(cache.encode(b, 0, 10), StandardCharsets.UTF_8));
+        assertEquals("SGVsbG8=", new String(cache.encode(a, 2, 10), StandardCharsets.UTF_8));
+        assertEquals(1L, cache.hits());
+        assertEquals(3L, cache.misses());
+        assertEquals(2L, cache.collisions());
+    }
+}
@@ -0,0 +1,30 @@
+package org.xbib.elasticsearch.hex;
+
+import org.junit.Test;
+import org.xbib.elasticsearch.common.xcontent.Base16Detector;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class Base16DetectorTest {
+
+    @Test
+    public void testMaxPaths() throws Exception {
+        Base16Detector detector = new Base16Detector(2, 1000, 2);
+        for (int i = 0; i < 10; i++) {
+            for (String path : new String[]{"a", "b", "c"}) {
+                if (detector.shouldDecode(path)) {
+                    detector.record(path, false);
+                }
+            }
+        }
+        assertEquals(2, detector.size());
+        assertFalse(detector.shouldDecode("a"));
+        assertFalse(detector.shouldDecode("b"));
+        // paths beyond the bound are not learned and always tried
+        assertTrue(detector.shouldDecode("c"));
+        assertTrue(detector.shouldDecode("d"));
+        assertEquals(2, detector.size());
+    }
+}
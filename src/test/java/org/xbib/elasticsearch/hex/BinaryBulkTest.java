@@ -0,0 +1,50 @@
+package org.xbib.elasticsearch.hex;
+
+import org.elasticsearch.action.admin.indices.delete.DeleteIndexRequest;
+import org.elasticsearch.action.index.IndexRequest;
+import org.elasticsearch.client.Client;
+import org.elasticsearch.common.settings.ImmutableSettings;
+import org.elasticsearch.common.settings.Settings;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.xbib.elasticsearch.action.bulk.BinaryBulkAction;
+import org.xbib.elasticsearch.action.bulk.BinaryBulkRequest;
+import org.xbib.elasticsearch.action.bulk.BulkResponse;
+import org.xbib.elasticsearch.helper.AbstractNodesTests;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+public class BinaryBulkTest extends AbstractNodesTests {
+
+    private Client client;
+
+    @Before
+    public void createNodes() throws Exception {
+        Settings settings = ImmutableSettings.settingsBuilder()
+                .put("index.number_of_shards", 1)
+                .put("index.number_of_replicas", 0)
+                .build();
+        startNode("node0", settings);
+        client = client("node0");
+    }
+
+    @After
+    public void closeNodes() {
+        client.admin().indices().delete(new DeleteIndexRequest("test")).actionGet();
+        closeAllNodes();
+    }
+
+    @Test
+    public void testBinaryAttachments() throws Exception {
+        byte[] b = new byte[]{(byte) 0x4A, (byte) 0xC3, (byte) 0xB6, (byte) 0x72, (byte) 0x67};
+        BinaryBulkRequest request = new BinaryBulkRequest();
+        request.add(new IndexRequest("test", "test", "1")
+                .source("{\"blob\":{\"$binary\":0},\"list\":[{\"$binary\":1}],\"nothex\":\"Hello World\"}"), b, b);
+        BulkResponse response = client.execute(BinaryBulkAction.INSTANCE, request).actionGet();
+        assertFalse(response.buildFailureMessage(), response.hasFailures());
+        assertEquals("{\"blob\":\"SsO2cmc=\",\"list\":[\"SsO2cmc=\"],\"nothex\":\"Hello World\"}",
+                client.prepareGet("test", "test", "1").execute().actionGet().getSourceAsString());
+    }
+}
@@ -0,0 +1,73 @@
+package org.xbib.elasticsearch.hex;
+
+import org.elasticsearch.ExceptionsHelper;
+import org.elasticsearch.action.ActionFuture;
+import org.elasticsearch.action.admin.indices.delete.DeleteIndexRequest;
+import org.elasticsearch.action.index.IndexRequest;
+import org.elasticsearch.client.Client;
+import org.elasticsearch.common.settings.ImmutableSettings;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.common.util.concurrent.EsRejectedExecutionException;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.xbib.elasticsearch.action.bulk.BulkAction;
+import org.xbib.elasticsearch.action.bulk.BulkRequest;
+import org.xbib.elasticsearch.action.bulk.BulkResponse;
+import org.xbib.elasticsearch.helper.AbstractNodesTests;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class BulkAdmissionTest extends AbstractNodesTests {
+
+    private Client client;
+
+    @Before
+    public void createNodes() throws Exception {
+        Settings settings = ImmutableSettings.settingsBuilder()
+                .put("index.number_of_shards", 1)
+                .put("index.number_of_replicas", 0)
+                .put("action.bulkhex.admission.shard.max_actions", 5)
+                .build();
+        startNode("node0", settings);
+        client = client("node0");
+    }
+
+    @After
+    public void closeNodes() {
+        client.admin().indices().delete(new DeleteIndexRequest("test")).actionGet();
+        closeAllNodes();
+    }
+
+    @Test
+    public void testAdmission() throws Exception {
+        client.admin().indices().prepareCreate("test").execute().actionGet();
+        List<ActionFuture<BulkResponse>> futures = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            futures.add(client.execute(BulkAction.INSTANCE, bulk(i)));
+        }
+        for (ActionFuture<BulkResponse> future : futures) {
+            try {
+                BulkResponse response = future.actionGet();
+                assertFalse(response.buildFailureMessage(), response.hasFailures());
+            } catch (Exception e) {
+                assertTrue(e.toString(), ExceptionsHelper.unwrapCause(e) instanceof EsRejectedExecutionException);
+            }
+        }
+        // everything admitted has been released again
+        BulkResponse response = client.execute(BulkAction.INSTANCE, bulk(20)).actionGet();
+        assertFalse(response.buildFailureMessage(), response.hasFailures());
+    }
+
+    private static BulkRequest bulk(int i) {
+        BulkRequest bulkRequest = new BulkRequest();
+        for (int j = 0; j < 5; j++) {
+            bulkRequest.add(new IndexRequest("test", "test", i + "-" + j).source("{\"hex\":\"4AC3B67267\"}"));
+        }
+        return bulkRequest;
+    }
+}
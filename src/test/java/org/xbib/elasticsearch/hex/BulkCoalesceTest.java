@@ -0,0 +1,97 @@
+package org.xbib.elasticsearch.hex;
+
+import org.elasticsearch.action.ActionFuture;
+import org.elasticsearch.action.index.IndexRequest;
+import org.elasticsearch.action.admin.indices.delete.DeleteIndexRequest;
+import org.elasticsearch.client.Client;
+import org.elasticsearch.common.settings.ImmutableSettings;
+import org.elasticsearch.common.settings.Settings;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.xbib.elasticsearch.action.bulk.BulkAction;
+import org.xbib.elasticsearch.action.bulk.BulkItemRequest;
+import org.xbib.elasticsearch.action.bulk.BulkItemResponse;
+import org.xbib.elasticsearch.action.bulk.BulkRequest;
+import org.xbib.elasticsearch.action.bulk.BulkResponse;
+import org.xbib.elasticsearch.action.bulk.BulkShardRequest;
+import org.xbib.elasticsearch.action.bulk.ShardBulkRecorder;
+import org.xbib.elasticsearch.action.bulk.ShardBulkRecorderPlugin;
+import org.xbib.elasticsearch.helper.AbstractNodesTests;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class BulkCoalesceTest extends AbstractNodesTests {
+
+    private Client client;
+
+    @Before
+    public void createNodes() throws Exception {
+        Settings settings = ImmutableSettings.settingsBuilder()
+                .put("index.number_of_shards", 2)
+                .put("index.number_of_replicas", 0)
+                .put("plugin.types", ShardBulkRecorderPlugin.class.getName())
+                .put("action.bulkhex.coalesce.enabled", true)
+                .put("action.bulkhex.coalesce.interval", "50ms")
+                .build();
+        startNode("node0", settings);
+        client = client("node0");
+        ShardBulkRecorder.reset();
+    }
+
+    @After
+    public void closeNodes() {
+        client.admin().indices().delete(new DeleteIndexRequest("test")).actionGet();
+        closeAllNodes();
+    }
+
+    @Test
+    public void testConcurrentBulks() throws Exception {
+        // create the index up front, so all bulks take the same path
+        client.index(new IndexRequest("test", "test", "0").source("{\"hex\":\"00\"}")).actionGet();
+        ShardBulkRecorder.reset();
+        List<ActionFuture<BulkResponse>> futures = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            BulkRequest bulkRequest = new BulkRequest();
+            for (int j = 0; j < 5; j++) {
+                bulkRequest.add(new IndexRequest("test", "test", i + "-" + j)
+                        .source("{\"hex\":\"4AC3B67267\"}"));
+            }
+            futures.add(client.execute(BulkAction.INSTANCE, bulkRequest));
+        }
+        for (int i = 0; i < futures.size(); i++) {
+            BulkResponse response = futures.get(i).actionGet();
+            assertFalse(response.buildFailureMessage(), response.hasFailures());
+            assertEquals(5, response.getItems().length);
+            for (int j = 0; j < 5; j++) {
+                BulkItemResponse itemResponse = response.getItems()[j];
+                assertEquals(j, itemResponse.getItemId());
+                assertEquals(i + "-" + j, itemResponse.getId());
+            }
+        }
+        // the shard requests of the bulks were coalesced
+        List<BulkShardRequest> requests = ShardBulkRecorder.requests();
+        int total = 0;
+        boolean mixed = false;
+        for (BulkShardRequest request : requests) {
+            Set<String> bulks = new HashSet<>();
+            for (BulkItemRequest item : ShardBulkRecorder.items(request)) {
+                String id = ((IndexRequest) item.request()).id();
+                bulks.add(id.substring(0, id.indexOf('-')));
+                total++;
+            }
+            mixed |= bulks.size() > 1;
+        }
+        assertEquals(50, total);
+        // without coalescing, every bulk sends one shard request per shard
+        assertTrue(Integer.toString(requests.size()), requests.size() < 10 * 2);
+        assertTrue("no shard request carries items of more than one bulk", mixed);
+    }
+}
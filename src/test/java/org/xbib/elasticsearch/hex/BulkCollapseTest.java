@@ -0,0 +1,100 @@
+package org.xbib.elasticsearch.hex;
+
+import org.elasticsearch.action.admin.indices.delete.DeleteIndexRequest;
+import org.elasticsearch.action.get.GetResponse;
+import org.elasticsearch.action.index.IndexRequest;
+import org.elasticsearch.action.update.UpdateRequest;
+import org.elasticsearch.client.Client;
+import org.elasticsearch.common.settings.ImmutableSettings;
+import org.elasticsearch.common.settings.Settings;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.xbib.elasticsearch.action.bulk.BulkAction;
+import org.xbib.elasticsearch.action.bulk.BulkItemResponse;
+import org.xbib.elasticsearch.action.bulk.BulkRequest;
+import org.xbib.elasticsearch.action.bulk.BulkResponse;
+import org.xbib.elasticsearch.helper.AbstractNodesTests;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class BulkCollapseTest extends AbstractNodesTests {
+
+    private Client client;
+
+    @Before
+    public void createNodes() throws Exception {
+        Settings settings = ImmutableSettings.settingsBuilder()
+                .put("index.number_of_shards", 1)
+                .put("index.number_of_replicas", 0)
+                .build();
+        startNode("node0", settings);
+        client = client("node0");
+    }
+
+    @After
+    public void closeNodes() {
+        client.admin().indices().delete(new DeleteIndexRequest("test")).actionGet();
+        closeAllNodes();
+    }
+
+    @Test
+    public void testCollapse() throws Exception {
+        client.index(new IndexRequest("test", "test", "0").source("{\"hex\":\"00\"}")).actionGet();
+        BulkRequest bulkRequest = new BulkRequest().collapse(true);
+        bulkRequest.add(new IndexRequest("test", "test", "1").source("{\"a\":\"1\"}"));
+        bulkRequest.add(new IndexRequest("test", "test", "1").source("{\"a\":\"2\"}"));
+        bulkRequest.add(new UpdateRequest("test", "test", "1").doc("{\"b\":\"3\"}"));
+        UpdateRequest upsert1 = new UpdateRequest("test", "test", "2").doc("{\"c\":\"4\"}");
+        upsert1.docAsUpsert(true);
+        bulkRequest.add(upsert1);
+        UpdateRequest upsert2 = new UpdateRequest("test", "test", "2").doc("{\"d\":\"5\"}");
+        upsert2.docAsUpsert(true);
+        bulkRequest.add(upsert2);
+        bulkRequest.add(new UpdateRequest("test", "test", "3").doc("{\"e\":\"6\"}"));
+        bulkRequest.add(new UpdateRequest("test", "test", "3").doc("{\"f\":\"7\"}"));
+        BulkResponse response = client.execute(BulkAction.INSTANCE, bulkRequest).actionGet();
+        BulkItemResponse[] items = response.getItems();
+        assertEquals(7, items.length);
+        String[] opTypes = { "index", "index", "update", "update", "update", "update", "update" };
+        String[] ids = { "1", "1", "1", "2", "2", "3", "3" };
+        for (int i = 0; i < items.length; i++) {
+            assertEquals(i, items[i].getItemId());
+            assertEquals(opTypes[i], items[i].getOpType());
+            assertEquals(ids[i], items[i].getId());
+            assertEquals(i >= 5, items[i].isFailed());
+        }
+        GetResponse doc1 = client.prepareGet("test", "test", "1").execute().actionGet();
+        assertEquals("2", doc1.getSource().get("a"));
+        assertEquals("3", doc1.getSource().get("b"));
+        GetResponse doc2 = client.prepareGet("test", "test", "2").execute().actionGet();
+        assertEquals("4", doc2.getSource().get("c"));
+        assertEquals("5", doc2.getSource().get("d"));
+        assertTrue(client.prepareGet("test", "test", "0").execute().actionGet().isExists());
+        assertFalse(client.prepareGet("test", "test", "3").execute().actionGet().isExists());
+    }
+
+    @Test
+    public void testCollapseKeepsTtl() throws Exception {
+        client.admin().indices().prepareCreate("test")
+                .addMapping("test", "{\"test\":{\"_ttl\":{\"enabled\":true}}}")
+                .execute().actionGet();
+        BulkRequest bulkRequest = new BulkRequest().collapse(true);
+        for (String doc : new String[] { "{\"a\":\"1\"}", "{\"b\":\"2\"}" }) {
+            UpdateRequest updateRequest = new UpdateRequest("test", "test", "1").doc(doc);
+            updateRequest.doc().ttl(3600000L);
+            updateRequest.docAsUpsert(true);
+            bulkRequest.add(updateRequest);
+        }
+        BulkResponse response = client.execute(BulkAction.INSTANCE, bulkRequest).actionGet();
+        assertFalse(response.buildFailureMessage(), response.hasFailures());
+        // both items report the version after the collapsed operation
+        assertEquals(response.getItems()[0].getVersion(), response.getItems()[1].getVersion());
+        GetResponse doc = client.prepareGet("test", "test", "1").setFields("_ttl", "a", "b").execute().actionGet();
+        assertTrue(doc.getField("_ttl") != null);
+        assertEquals("1", doc.getField("a").getValue());
+        assertEquals("2", doc.getField("b").getValue());
+    }
+}
@@ -0,0 +1,86 @@
+package org.xbib.elasticsearch.hex;
+
+import org.elasticsearch.action.admin.indices.delete.DeleteIndexRequest;
+import org.elasticsearch.action.admin.indices.refresh.RefreshRequest;
+import org.elasticsearch.action.index.IndexRequest;
+import org.elasticsearch.client.Client;
+import org.elasticsearch.common.settings.ImmutableSettings;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.common.unit.TimeValue;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.xbib.elasticsearch.action.bulk.BulkProcessor;
+import org.xbib.elasticsearch.action.bulk.BulkRequest;
+import org.xbib.elasticsearch.action.bulk.BulkResponse;
+import org.xbib.elasticsearch.helper.AbstractNodesTests;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class BulkProcessorTest extends AbstractNodesTests {
+
+    private Client client;
+
+    @Before
+    public void createNodes() throws Exception {
+        Settings settings = ImmutableSettings.settingsBuilder()
+                .put("index.number_of_shards", 2)
+                .put("index.number_of_replicas", 0)
+                .put("threadpool.bulk.size", 1)
+                .put("threadpool.bulk.queue_size", 1)
+                .build();
+        startNode("node0", settings);
+        client = client("node0");
+    }
+
+    @After
+    public void closeNodes() {
+        client.admin().indices().delete(new DeleteIndexRequest("test")).actionGet();
+        closeAllNodes();
+    }
+
+    @Test
+    public void testBulkProcessor() throws Exception {
+        client.admin().indices().prepareCreate("test").execute().actionGet();
+        final AtomicInteger failures = new AtomicInteger();
+        final AtomicInteger items = new AtomicInteger();
+        BulkProcessor bulkProcessor = BulkProcessor.builder(client, new BulkProcessor.Listener() {
+            @Override
+            public void beforeBulk(long executionId, BulkRequest request) {
+            }
+
+            @Override
+            public void afterBulk(long executionId, BulkRequest request, BulkResponse response) {
+                items.addAndGet(response.getItems().length);
+                if (response.hasFailures()) {
+                    failures.incrementAndGet();
+                }
+            }
+
+            @Override
+            public void afterBulk(long executionId, BulkRequest request, Throwable failure) {
+                failures.incrementAndGet();
+            }
+        })
+                .setConcurrentRequests(4)
+                .setBulkActions(20)
+                .setFlushInterval(TimeValue.timeValueMillis(100))
+                .setMaxRetries(50)
+                .setRetryInitialDelay(TimeValue.timeValueMillis(10))
+                .setRetryMaxDelay(TimeValue.timeValueMillis(200))
+                .build();
+        for (int i = 0; i < 210; i++) {
+            bulkProcessor.add(new IndexRequest("test", "test", Integer.toString(i)).source("{\"hex\":\"4AC3B67267\"}"));
+        }
+        assertTrue(bulkProcessor.awaitClose(30, TimeUnit.SECONDS));
+        // the small bulk queue rejects items, the retries get them through
+        assertEquals(0, failures.get());
+        assertEquals(210, items.get());
+        client.admin().indices().refresh(new RefreshRequest("test")).actionGet();
+        assertEquals(210L, client.prepareCount("test").execute().actionGet().getCount());
+    }
+}
@@ -0,0 +1,68 @@
+package org.xbib.elasticsearch.hex;
+
+import org.elasticsearch.action.ActionFuture;
+import org.elasticsearch.action.admin.indices.delete.DeleteIndexRequest;
+import org.elasticsearch.action.index.IndexRequest;
+import org.elasticsearch.client.Client;
+import org.elasticsearch.common.settings.ImmutableSettings;
+import org.elasticsearch.common.settings.Settings;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.xbib.elasticsearch.action.bulk.BulkAction;
+import org.xbib.elasticsearch.action.bulk.BulkRequest;
+import org.xbib.elasticsearch.action.bulk.BulkResponse;
+import org.xbib.elasticsearch.helper.AbstractNodesTests;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+public class BulkRefreshTest extends AbstractNodesTests {
+
+    private Client client;
+
+    @Before
+    public void createNodes() throws Exception {
+        Settings settings = ImmutableSettings.settingsBuilder()
+                .put("index.number_of_shards", 2)
+                .put("index.number_of_replicas", 0)
+                .put("index.refresh_interval", -1)
+                .put("action.bulkhex.refresh.interval", "100ms")
+                .build();
+        startNode("node0", settings);
+        client = client("node0");
+    }
+
+    @After
+    public void closeNodes() {
+        client.admin().indices().delete(new DeleteIndexRequest("test", "other")).actionGet();
+        closeAllNodes();
+    }
+
+    @Test
+    public void testWaitForRefresh() throws Exception {
+        client.admin().indices().prepareCreate("test").execute().actionGet();
+        client.admin().indices().prepareCreate("other").execute().actionGet();
+        client.prepareIndex("other", "test", "1").setSource("{\"hex\":\"4AC3B67267\"}").execute().actionGet();
+        List<ActionFuture<BulkResponse>> futures = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            BulkRequest bulkRequest = new BulkRequest().waitForRefresh(true);
+            for (int j = 0; j < 5; j++) {
+                bulkRequest.add(new IndexRequest("test", "test", i + "-" + j)
+                        .source("{\"hex\":\"4AC3B67267\"}"));
+            }
+            futures.add(client.execute(BulkAction.INSTANCE, bulkRequest));
+        }
+        for (ActionFuture<BulkResponse> future : futures) {
+            BulkResponse response = future.actionGet();
+            assertFalse(response.buildFailureMessage(), response.hasFailures());
+        }
+        // the automatic refresh is disabled, so the documents are only visible by the shared refresh
+        assertEquals(50L, client.prepareCount("test").execute().actionGet().getCount());
+        // only the written shards are refreshed
+        assertEquals(0L, client.prepareCount("other").execute().actionGet().getCount());
+    }
+}
@@ -0,0 +1,96 @@
+package org.xbib.elasticsearch.hex;
+
+import org.elasticsearch.action.ActionFuture;
+import org.elasticsearch.action.admin.indices.delete.DeleteIndexRequest;
+import org.elasticsearch.action.index.IndexRequest;
+import org.elasticsearch.action.support.replication.ReplicationType;
+import org.elasticsearch.common.settings.ImmutableSettings;
+import org.elasticsearch.common.settings.Settings;
+import org.junit.After;
+import org.junit.Test;
+import org.xbib.elasticsearch.action.bulk.BulkAction;
+import org.xbib.elasticsearch.action.bulk.BulkRequest;
+import org.xbib.elasticsearch.action.bulk.BulkResponse;
+import org.xbib.elasticsearch.action.bulk.BulkShardRequest;
+import org.xbib.elasticsearch.action.bulk.ShardBulkRecorder;
+import org.xbib.elasticsearch.action.bulk.ShardBulkRecorderPlugin;
+import org.xbib.elasticsearch.helper.AbstractNodesTests;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class BulkReplicationTest extends AbstractNodesTests {
+
+    private static final String BULK = "{\"index\":{\"_index\":\"test\",\"_type\":\"test\"}}\n{\"hex\":\"4AC3B67267\"}\n";
+
+    @After
+    public void closeNodes() {
+        client("node0").admin().indices().delete(new DeleteIndexRequest("test")).actionGet();
+        closeAllNodes();
+    }
+
+    @Test
+    public void testAsyncReplication() throws Exception {
+        startNode(false);
+        BulkRequest bulkRequest = new BulkRequest().replicationType(ReplicationType.ASYNC);
+        for (int i = 0; i < 10; i++) {
+            bulkRequest.add(new IndexRequest("test", "test", Integer.toString(i)).source("{\"hex\":\"4AC3B67267\"}"));
+        }
+        assertFalse(client("node0").execute(BulkAction.INSTANCE, bulkRequest).actionGet().hasFailures());
+        assertReplicationType(ReplicationType.ASYNC);
+        bulk("/_bulkhex?replication=async", BULK);
+        assertReplicationType(ReplicationType.ASYNC);
+        bulk("/_bulkhex", BULK);
+        assertReplicationType(ReplicationType.DEFAULT);
+    }
+
+    @Test
+    public void testAsyncReplicationCoalesced() throws Exception {
+        startNode(true);
+        List<ActionFuture<BulkResponse>> futures = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            BulkRequest bulkRequest = new BulkRequest().replicationType(ReplicationType.ASYNC);
+            for (int j = 0; j < 5; j++) {
+                bulkRequest.add(new IndexRequest("test", "test", i + "-" + j).source("{\"hex\":\"4AC3B67267\"}"));
+            }
+            futures.add(client("node0").execute(BulkAction.INSTANCE, bulkRequest));
+        }
+        for (ActionFuture<BulkResponse> future : futures) {
+            assertFalse(future.actionGet().hasFailures());
+        }
+        // the bulks were merged, and the merged shard requests keep the replication type
+        List<BulkShardRequest> requests = ShardBulkRecorder.requests();
+        assertTrue(requests.toString(), requests.size() < futures.size());
+        assertReplicationType(ReplicationType.ASYNC);
+        bulk("/_bulkhex?replication=async", BULK);
+        assertReplicationType(ReplicationType.ASYNC);
+    }
+
+    private void startNode(boolean coalesce) throws Exception {
+        Settings settings = ImmutableSettings.settingsBuilder()
+                .put("index.number_of_shards", 1)
+                .put("index.number_of_replicas", 0)
+                .put("plugin.types", ShardBulkRecorderPlugin.class.getName())
+                .put("action.bulkhex.coalesce.enabled", coalesce)
+                .put("action.bulkhex.coalesce.interval", "200ms")
+                .build();
+        startNode("node0", settings);
+        // create the index up front, so all bulks take the same path
+        client("node0").admin().indices().prepareCreate("test").execute().actionGet();
+        client("node0").admin().cluster().prepareHealth("test").setWaitForYellowStatus().execute().actionGet();
+        ShardBulkRecorder.reset();
+    }
+
+    private void assertReplicationType(ReplicationType replicationType) {
+        List<BulkShardRequest> requests = ShardBulkRecorder.requests();
+        assertFalse(requests.isEmpty());
+        for (BulkShardRequest request : requests) {
+            assertEquals(replicationType, request.replicationType());
+        }
+        ShardBulkRecorder.reset();
+    }
+}
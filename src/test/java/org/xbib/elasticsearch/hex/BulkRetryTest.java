@@ -0,0 +1,64 @@
+package org.xbib.elasticsearch.hex;
+
+import org.elasticsearch.action.ActionFuture;
+import org.elasticsearch.action.admin.indices.delete.DeleteIndexRequest;
+import org.elasticsearch.action.index.IndexRequest;
+import org.elasticsearch.client.Client;
+import org.elasticsearch.common.settings.ImmutableSettings;
+import org.elasticsearch.common.settings.Settings;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.xbib.elasticsearch.action.bulk.BulkAction;
+import org.xbib.elasticsearch.action.bulk.BulkRequest;
+import org.xbib.elasticsearch.action.bulk.BulkResponse;
+import org.xbib.elasticsearch.helper.AbstractNodesTests;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertFalse;
+
+public class BulkRetryTest extends AbstractNodesTests {
+
+    private Client client;
+
+    @Before
+    public void createNodes() throws Exception {
+        Settings settings = ImmutableSettings.settingsBuilder()
+                .put("index.number_of_shards", 2)
+                .put("index.number_of_replicas", 0)
+                .put("threadpool.bulk.size", 1)
+                .put("threadpool.bulk.queue_size", 1)
+                .put("action.bulkhex.shard.max_retries", 50)
+                .put("action.bulkhex.shard.retry_initial_delay", "10ms")
+                .put("action.bulkhex.shard.retry_max_delay", "200ms")
+                .build();
+        startNode("node0", settings);
+        client = client("node0");
+    }
+
+    @After
+    public void closeNodes() {
+        client.admin().indices().delete(new DeleteIndexRequest("test")).actionGet();
+        closeAllNodes();
+    }
+
+    @Test
+    public void testRetryRejectedShardRequests() throws Exception {
+        client.admin().indices().prepareCreate("test").execute().actionGet();
+        List<ActionFuture<BulkResponse>> futures = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            BulkRequest bulkRequest = new BulkRequest();
+            for (int j = 0; j < 10; j++) {
+                bulkRequest.add(new IndexRequest("test", "test", i + "-" + j).source("{\"hex\":\"4AC3B67267\"}"));
+            }
+            futures.add(client.execute(BulkAction.INSTANCE, bulkRequest));
+        }
+        // the small bulk queue rejects shard requests, the retries get them through
+        for (ActionFuture<BulkResponse> future : futures) {
+            BulkResponse response = future.actionGet();
+            assertFalse(response.buildFailureMessage(), response.hasFailures());
+        }
+    }
+}
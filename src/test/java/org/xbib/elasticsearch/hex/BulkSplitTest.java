@@ -0,0 +1,93 @@
+package org.xbib.elasticsearch.hex;
+
+import org.elasticsearch.action.admin.indices.delete.DeleteIndexRequest;
+import org.elasticsearch.action.admin.indices.refresh.RefreshRequest;
+import org.elasticsearch.action.index.IndexRequest;
+import org.elasticsearch.client.Client;
+import org.elasticsearch.common.settings.ImmutableSettings;
+import org.elasticsearch.common.settings.Settings;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.xbib.elasticsearch.action.bulk.BulkAction;
+import org.xbib.elasticsearch.action.bulk.BulkItemRequest;
+import org.xbib.elasticsearch.action.bulk.BulkItemResponse;
+import org.xbib.elasticsearch.action.bulk.BulkRequest;
+import org.xbib.elasticsearch.action.bulk.BulkResponse;
+import org.xbib.elasticsearch.action.bulk.BulkShardRequest;
+import org.xbib.elasticsearch.action.bulk.ShardBulkRecorder;
+import org.xbib.elasticsearch.action.bulk.ShardBulkRecorderPlugin;
+import org.xbib.elasticsearch.helper.AbstractNodesTests;
+
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class BulkSplitTest extends AbstractNodesTests {
+
+    private Client client;
+
+    @Before
+    public void createNodes() throws Exception {
+        Settings settings = ImmutableSettings.settingsBuilder()
+                .put("index.number_of_shards", 1)
+                .put("index.number_of_replicas", 0)
+                .put("plugin.types", ShardBulkRecorderPlugin.class.getName())
+                .put("action.bulkhex.shard.max_actions", 10)
+                .put("action.bulkhex.shard.max_size", "2kb")
+                .put("action.bulkhex.shard.concurrent_requests", 2)
+                .build();
+        startNode("node0", settings);
+        client = client("node0");
+        ShardBulkRecorder.reset();
+    }
+
+    @After
+    public void closeNodes() {
+        client.admin().indices().delete(new DeleteIndexRequest("test")).actionGet();
+        closeAllNodes();
+    }
+
+    @Test
+    public void testSplit() throws Exception {
+        client.admin().indices().prepareCreate("test").execute().actionGet();
+        char[] large = new char[700];
+        Arrays.fill(large, 'a');
+        BulkRequest bulkRequest = new BulkRequest();
+        for (int i = 0; i < 70; i++) {
+            String value = i < 50 ? "4AC3B67267" : new String(large);
+            bulkRequest.add(new IndexRequest("test", "test", Integer.toString(i)).source("{\"n\":" + i + ",\"v\":\"" + value + "\"}"));
+        }
+        BulkResponse response = client.execute(BulkAction.INSTANCE, bulkRequest).actionGet();
+        assertFalse(response.buildFailureMessage(), response.hasFailures());
+        // all item responses, in the order of the bulk request
+        BulkItemResponse[] items = response.getItems();
+        assertEquals(70, items.length);
+        for (int i = 0; i < items.length; i++) {
+            assertEquals(i, items[i].getItemId());
+            assertEquals(Integer.toString(i), items[i].getId());
+        }
+        // the shard requests do not exceed the action and size limits
+        List<BulkShardRequest> requests = ShardBulkRecorder.requests();
+        int total = 0;
+        for (BulkShardRequest request : requests) {
+            int largeItems = 0;
+            for (BulkItemRequest item : ShardBulkRecorder.items(request)) {
+                if (((IndexRequest) item.request()).source().length() > 700) {
+                    largeItems++;
+                }
+            }
+            assertTrue(ShardBulkRecorder.items(request).length <= 10);
+            assertTrue(largeItems <= 2);
+            total += ShardBulkRecorder.items(request).length;
+        }
+        assertEquals(70, total);
+        assertTrue(Integer.toString(requests.size()), requests.size() >= 15);
+        assertTrue(Integer.toString(ShardBulkRecorder.maxInFlight()), ShardBulkRecorder.maxInFlight() <= 2);
+        client.admin().indices().refresh(new RefreshRequest("test")).actionGet();
+        assertEquals(70L, client.prepareCount("test").execute().actionGet().getCount());
+    }
+}
@@ -0,0 +1,106 @@
+package org.xbib.elasticsearch.hex;
+
+import org.elasticsearch.action.admin.indices.delete.DeleteIndexRequest;
+import org.elasticsearch.action.admin.indices.refresh.RefreshRequest;
+import org.elasticsearch.client.Client;
+import org.elasticsearch.common.settings.ImmutableSettings;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.node.internal.InternalNode;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.xbib.elasticsearch.action.bulk.BulkAdmissionController;
+import org.xbib.elasticsearch.helper.AbstractNodesTests;
+
+import java.io.ByteArrayOutputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPOutputStream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class CompressedBulkTest extends AbstractNodesTests {
+
+    private Client client;
+
+    @Before
+    public void createNodes() throws Exception {
+        Settings settings = ImmutableSettings.settingsBuilder()
+                .put("index.number_of_shards", 1)
+                .put("index.number_of_replicas", 0)
+                .put("action.bulkhex.admission.max_bytes", "4kb")
+                .put("action.bulkhex.inflated.max_size", "1mb")
+                .put("action.bulkhex.inflated.max_line_size", "64kb")
+                .build();
+        startNode("node0", settings);
+        client = client("node0");
+    }
+
+    @After
+    public void closeNodes() {
+        client.admin().indices().delete(new DeleteIndexRequest("test")).actionGet();
+        closeAllNodes();
+    }
+
+    @Test
+    public void testCompressedBody() throws Exception {
+        post("gzip", 0);
+        post("deflate", 100);
+        client.admin().indices().refresh(new RefreshRequest("test")).actionGet();
+        assertEquals(200L, client.prepareCount("test").execute().actionGet().getCount());
+        assertEquals("{\"hex\":\"SsO2cmc=\",\"nothex\":\"Hello HTTP World\"}",
+                client.prepareGet("test", "test", "150").execute().actionGet().getSourceAsString());
+    }
+
+    @Test
+    public void testInflatedBytesAdmission() throws Exception {
+        BulkAdmissionController admissionController =
+                ((InternalNode) node("node0")).injector().getInstance(BulkAdmissionController.class);
+        // another request in flight, the body is small, but its inflated bytes exceed the limit
+        assertTrue(admissionController.tryAcquireBytes(1));
+        assertEquals(429, connect("gzip", 0).getResponseCode());
+        admissionController.releaseBytes(1);
+        // alone in flight, the request is admitted, and all of its bytes are released
+        post("gzip", 0);
+        post("gzip", 100);
+    }
+
+    @Test
+    public void testHighRatioBody() throws Exception {
+        client.admin().indices().prepareCreate("test").execute().actionGet();
+        // a few kilobytes of gzip which inflate to 8mb of newlines
+        assertEquals(413, post("/_bulkhex?content_encoding=gzip", gzip(new byte[8 * 1024 * 1024], (byte) '\n')).getResponseCode());
+        // a line without newline is rejected before it exceeds the maximum line size
+        assertEquals(400, post("/_bulkhex?content_encoding=gzip", gzip(new byte[512 * 1024], (byte) ' ')).getResponseCode());
+        post("gzip", 0);
+    }
+
+    private static byte[] gzip(byte[] b, byte fill) throws Exception {
+        Arrays.fill(b, fill);
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        OutputStream out = new GZIPOutputStream(bytes);
+        out.write(b);
+        out.close();
+        return bytes.toByteArray();
+    }
+
+    private void post(String contentEncoding, int start) throws Exception {
+        String response = read(connect(contentEncoding, start));
+        assertTrue(response, response.contains("\"errors\":false"));
+    }
+
+    private HttpURLConnection connect(String contentEncoding, int start) throws Exception {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        OutputStream out = "gzip".equals(contentEncoding) ? new GZIPOutputStream(bytes) : new DeflaterOutputStream(bytes);
+        for (int i = start; i < start + 100; i++) {
+            out.write(("{\"index\":{\"_index\":\"test\",\"_type\":\"test\",\"_id\":\"" + i + "\"}\n" +
+                    "{\"hex\":\"4AC3B67267\",\"nothex\":\"Hello HTTP World\"}\n").getBytes(StandardCharsets.UTF_8));
+        }
+        out.close();
+        return post("/_bulkhex?content_encoding=" + contentEncoding, bytes.toByteArray());
+    }
+}
@@ -0,0 +1,89 @@
+package org.xbib.elasticsearch.hex;
+
+import org.elasticsearch.action.admin.indices.delete.DeleteIndexRequest;
+import org.elasticsearch.action.admin.indices.refresh.RefreshRequest;
+import org.elasticsearch.client.Client;
+import org.elasticsearch.common.settings.ImmutableSettings;
+import org.elasticsearch.common.settings.Settings;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.xbib.elasticsearch.helper.AbstractNodesTests;
+import org.xbib.elasticsearch.rest.hex.action.hex.RestExportHexAction;
+
+import java.net.HttpURLConnection;
+import java.net.URLEncoder;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class ExportHexTest extends AbstractNodesTests {
+
+    private Client client;
+
+    @Before
+    public void createNodes() throws Exception {
+        Settings settings = ImmutableSettings.settingsBuilder()
+                .put("index.number_of_shards", 2)
+                .put("index.number_of_replicas", 0)
+                .build();
+        startNode("node0", settings);
+        client = client("node0");
+    }
+
+    @After
+    public void closeNodes() {
+        client.admin().indices().delete(new DeleteIndexRequest("test")).actionGet();
+        closeAllNodes();
+    }
+
+    @Test
+    public void testExportRoundTrip() throws Exception {
+        StringBuilder bulk = new StringBuilder();
+        for (int i = 0; i < 250; i++) {
+            bulk.append("{\"index\":{\"_index\":\"test\",\"_type\":\"test\",\"_id\":\"").append(i)
+                    .append("\",\"_routing\":\"r").append(i % 3).append("\"}}\n")
+                    .append("{\"hex\":\"4AC3B67267\",\"nothex\":\"Hello HTTP World\"}\n");
+        }
+        bulk("/_bulkhex?refresh=true", bulk.toString());
+        StringBuilder exported = new StringBuilder();
+        int pages = 0;
+        HttpURLConnection connection = open("/test/_exporthex?size=20&hex_fields=hex");
+        while (true) {
+            String page = read(connection);
+            String scrollId = connection.getHeaderField(RestExportHexAction.SCROLL_ID_HEADER);
+            if (scrollId == null) {
+                assertEquals("", page);
+                break;
+            }
+            pages++;
+            exported.append(page);
+            connection = open("/_exporthex?hex_fields=hex&scroll_id=" + URLEncoder.encode(scrollId, "UTF-8"));
+        }
+        // 250 documents in pages of at most 20 documents per shard
+        assertTrue(Integer.toString(pages), pages >= 7);
+        String export = exported.toString();
+        assertTrue(export, export.contains("{\"hex\":\"4AC3B67267\",\"nothex\":\"Hello HTTP World\"}\n"));
+        assertTrue(export, export.contains("\"_id\":\"150\",\"_routing\":\"r0\"}}\n"));
+        // the export is indexed again by _bulkhex
+        client.admin().indices().delete(new DeleteIndexRequest("test")).actionGet();
+        bulk("/_bulkhex?refresh=true", export);
+        client.admin().indices().refresh(new RefreshRequest("test")).actionGet();
+        assertEquals(250L, client.prepareCount("test").execute().actionGet().getCount());
+        assertEquals("{\"hex\":\"SsO2cmc=\",\"nothex\":\"Hello HTTP World\"}",
+                client.prepareGet("test", "test", "150").setRouting("r0").execute().actionGet().getSourceAsString());
+    }
+
+    @Test
+    public void testExportWithoutSource() throws Exception {
+        client.admin().indices().prepareCreate("test")
+                .addMapping("test", "{\"test\":{\"_source\":{\"enabled\":false}}}")
+                .execute().actionGet();
+        bulk("/_bulkhex?refresh=true", "{\"index\":{\"_index\":\"test\",\"_type\":\"test\",\"_id\":\"1\"}}\n{\"hex\":\"CAFE\"}\n");
+        // an empty source would replace the document on import
+        HttpURLConnection connection = open("/test/_exporthex?hex_fields=hex");
+        assertEquals(500, connection.getResponseCode());
+        String error = read(connection);
+        assertTrue(error, error.contains("[test][test][1] has no source"));
+    }
+}
@@ -0,0 +1,75 @@
+package org.xbib.elasticsearch.hex;
+
+import org.elasticsearch.action.admin.indices.delete.DeleteIndexRequest;
+import org.elasticsearch.client.Client;
+import org.elasticsearch.common.settings.ImmutableSettings;
+import org.elasticsearch.common.settings.Settings;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.xbib.elasticsearch.helper.AbstractNodesTests;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.GZIPOutputStream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class FramedBulkTest extends AbstractNodesTests {
+
+    private Client client;
+
+    @Before
+    public void createNodes() throws Exception {
+        Settings settings = ImmutableSettings.settingsBuilder()
+                .put("index.number_of_shards", 1)
+                .put("index.number_of_replicas", 0)
+                .put("action.bulkhex.framed.max_frame_size", "1kb")
+                .build();
+        startNode("node0", settings);
+        client = client("node0");
+    }
+
+    @After
+    public void closeNodes() {
+        client.admin().indices().delete(new DeleteIndexRequest("test")).actionGet();
+        closeAllNodes();
+    }
+
+    @Test
+    public void testFramedBody() throws Exception {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        frame(out, "{\"index\":{\"_index\":\"test\",\"_type\":\"test\",\"_id\":\"1\",\"_attachments\":1}}".getBytes(StandardCharsets.UTF_8));
+        frame(out, "{\"blob\":{\"$binary\":0},\"hex\":\"4AC3B67267\"}".getBytes(StandardCharsets.UTF_8));
+        // a raw frame, newlines included
+        frame(out, new byte[]{(byte) 0x4A, (byte) 0x0A, (byte) 0xB6, (byte) 0x72, (byte) 0x67});
+        frame(out, "{\"delete\":{\"_index\":\"test\",\"_type\":\"test\",\"_id\":\"2\"}}".getBytes(StandardCharsets.UTF_8));
+        out.close();
+        String response = read(post("/_bulkhex?format=framed&refresh=true", bytes.toByteArray()));
+        assertTrue(response, response.contains("\"errors\":false"));
+        assertEquals("{\"blob\":\"Sgq2cmc=\",\"hex\":\"SsO2cmc=\"}",
+                client.prepareGet("test", "test", "1").execute().actionGet().getSourceAsString());
+    }
+
+    @Test
+    public void testOversizedFrames() throws Exception {
+        client.admin().indices().prepareCreate("test").execute().actionGet();
+        // a frame length larger than the body
+        assertEquals(400, post("/_bulkhex?format=framed", new byte[]{(byte) 0x7F, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, 0}).getResponseCode());
+        // a frame length larger than the maximum frame size in a compressed body
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(new GZIPOutputStream(bytes));
+        out.writeInt(0x7FFFFFFF);
+        out.write(0);
+        out.close();
+        assertEquals(400, post("/_bulkhex?format=framed&content_encoding=gzip", bytes.toByteArray()).getResponseCode());
+    }
+
+    private static void frame(DataOutputStream out, byte[] b) throws Exception {
+        out.writeInt(b.length);
+        out.write(b);
+    }
+}
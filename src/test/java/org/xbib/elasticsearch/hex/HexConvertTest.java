@@ -0,0 +1,231 @@
+package org.xbib.elasticsearch.hex;
+
+import org.elasticsearch.action.admin.indices.delete.DeleteIndexRequest;
+import org.elasticsearch.action.admin.indices.refresh.RefreshRequest;
+import org.elasticsearch.action.bulk.BulkRequestBuilder;
+import org.elasticsearch.client.Client;
+import org.elasticsearch.common.settings.ImmutableSettings;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.common.xcontent.XContentHelper;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.xbib.elasticsearch.action.hexconvert.HexConvertService;
+import org.xbib.elasticsearch.helper.AbstractNodesTests;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class HexConvertTest extends AbstractNodesTests {
+
+    private final Settings settings = ImmutableSettings.settingsBuilder()
+            .put("index.number_of_shards", 2)
+            .put("index.number_of_replicas", 0)
+            .build();
+
+    private Client client;
+
+    @Before
+    public void createNodes() throws Exception {
+        startNode("node0", settings);
+        client = client("node0");
+    }
+
+    @After
+    public void closeNodes() {
+        client.admin().indices().delete(new DeleteIndexRequest("_all")).actionGet();
+        closeAllNodes();
+    }
+
+    @Test
+    public void testConvert() throws Exception {
+        BulkRequestBuilder bulk = client.prepareBulk().setRefresh(true);
+        for (int i = 0; i < 120; i++) {
+            bulk.add(client.prepareIndex("old", "test", Integer.toString(i))
+                    .setSource("{\"hex\":\"4AC3B67267\",\"nothex\":\"CAFE\"}"));
+        }
+        bulk.execute().actionGet();
+        Map<String, Object> job = request("POST", "/old/_hexconvert?target=new&hex_fields=hex&size=50&docs_per_second=1000");
+        String id = (String) job.get("id");
+        for (int i = 0; i < 100 && "running".equals(job.get("status")); i++) {
+            Thread.sleep(100L);
+            job = request("GET", "/_hexconvert/" + id);
+        }
+        assertEquals(job.toString(), "done", job.get("status"));
+        assertEquals(120, job.get("processed"));
+        assertEquals(0, job.get("failed"));
+        client.admin().indices().refresh(new RefreshRequest("new")).actionGet();
+        assertEquals(120L, client.prepareCount("new").execute().actionGet().getCount());
+        assertEquals("{\"hex\":\"SsO2cmc=\",\"nothex\":\"CAFE\"}",
+                client.prepareGet("new", "test", "42").execute().actionGet().getSourceAsString());
+        // the checkpoint keeps the final state
+        Map<String, Object> checkpoint = client.prepareGet(HexConvertService.CHECKPOINT_INDEX, HexConvertService.CHECKPOINT_TYPE, id)
+                .execute().actionGet().getSource();
+        assertEquals("done", checkpoint.get("status"));
+        assertNull(checkpoint.get("scroll_id"));
+        assertEquals(Arrays.asList(0, 1), ((Map) checkpoint.get("completed_shards")).get("old"));
+    }
+
+    @Test
+    public void testFailedDocuments() throws Exception {
+        index(20);
+        // the converted values are not numbers, every document fails
+        client.admin().indices().prepareCreate("new")
+                .addMapping("test", "{\"test\":{\"properties\":{\"hex\":{\"type\":\"long\"}}}}")
+                .execute().actionGet();
+        Map<String, Object> job = request("POST", "/old/_hexconvert?target=new&hex_fields=hex&size=50");
+        String id = (String) job.get("id");
+        job = await("node0", id);
+        assertEquals(job.toString(), "failed", job.get("status"));
+        assertEquals(20, job.get("failed"));
+        assertEquals(0, job.get("processed"));
+        Map<String, Object> checkpoint = checkpoint(id);
+        assertEquals("failed", checkpoint.get("status"));
+        // the job does not continue after the failed documents
+        assertNull(checkpoint.get("scroll_id"));
+    }
+
+    @Test
+    public void testWithoutSource() throws Exception {
+        client.admin().indices().prepareCreate("old")
+                .addMapping("test", "{\"test\":{\"_source\":{\"enabled\":false}}}")
+                .execute().actionGet();
+        index(20);
+        Map<String, Object> job = request("POST", "/old/_hexconvert?target=new&hex_fields=hex&size=50");
+        String id = (String) job.get("id");
+        job = await("node0", id);
+        // the document would be lost in the target index
+        assertEquals(job.toString(), "failed", job.get("status"));
+        assertEquals(0, job.get("processed"));
+        assertTrue(job.toString(), ((String) job.get("failure")).contains("has no source"));
+        assertEquals("failed", checkpoint(id).get("status"));
+    }
+
+    @Test
+    public void testCancelAndResume() throws Exception {
+        startNode("node1", settings);
+        index(120);
+        Map<String, Object> job = request("node0", "POST", "/old/_hexconvert?target=new&hex_fields=hex&size=10&docs_per_second=50");
+        String id = (String) job.get("id");
+        String node0 = (String) job.get("node");
+        request("node0", "POST", "/_hexconvert/" + id + "/_cancel");
+        job = await("node0", id);
+        assertEquals(job.toString(), "cancelled", job.get("status"));
+        int processed = (Integer) job.get("processed");
+        assertTrue(job.toString(), processed > 0 && processed < 120);
+        Map<String, Object> checkpoint = checkpoint(id);
+        assertEquals("cancelled", checkpoint.get("status"));
+        assertEquals(node0, checkpoint.get("node"));
+        // another node continues after the checkpoint
+        job = request("node1", "POST", "/_hexconvert/" + id + "/_resume");
+        assertEquals(processed, job.get("processed"));
+        assertFalse(node0.equals(job.get("node")));
+        job = await("node1", id);
+        assertEquals(job.toString(), "done", job.get("status"));
+        assertEquals(120, job.get("processed"));
+        assertEquals(0, job.get("failed"));
+        client.admin().indices().refresh(new RefreshRequest("new")).actionGet();
+        assertEquals(120L, client.prepareCount("new").execute().actionGet().getCount());
+        assertEquals(job.get("node"), checkpoint(id).get("node"));
+        // a done job is not resumed
+        assertEquals(500, status("node0", "POST", "/_hexconvert/" + id + "/_resume"));
+    }
+
+    @Test
+    public void testResumeLostScroll() throws Exception {
+        startNode("node1", settings);
+        index(120);
+        Map<String, Object> job = request("node0", "POST", "/old/_hexconvert?target=new&hex_fields=hex&size=10&docs_per_second=50");
+        String id = (String) job.get("id");
+        // cancel after the first shard is completed
+        for (int i = 0; i < 100 && (checkpoint(id) == null || ((Map) checkpoint(id).get("completed_shards")).isEmpty()); i++) {
+            Thread.sleep(50L);
+        }
+        request("node0", "POST", "/_hexconvert/" + id + "/_cancel");
+        job = await("node0", id);
+        assertEquals(job.toString(), "cancelled", job.get("status"));
+        Map<String, Object> checkpoint = checkpoint(id);
+        assertEquals(Arrays.asList(0), ((Map) checkpoint.get("completed_shards")).get("old"));
+        // the scroll is gone, the job skips the completed shard and starts the other shard over
+        String scrollId = (String) checkpoint.get("scroll_id");
+        if (scrollId != null) {
+            client.prepareClearScroll().addScrollId(scrollId).execute().actionGet();
+        }
+        request("node1", "POST", "/_hexconvert/" + id + "/_resume");
+        job = await("node1", id);
+        assertEquals(job.toString(), "done", job.get("status"));
+        assertEquals(120, job.get("processed"));
+        client.admin().indices().refresh(new RefreshRequest("new")).actionGet();
+        assertEquals(120L, client.prepareCount("new").execute().actionGet().getCount());
+    }
+
+    @Test
+    public void testResumeRunning() throws Exception {
+        startNode("node1", settings);
+        index(120);
+        Map<String, Object> job = request("node0", "POST", "/old/_hexconvert?target=new&hex_fields=hex&size=10&docs_per_second=20");
+        String id = (String) job.get("id");
+        for (int i = 0; i < 100 && checkpoint(id) == null; i++) {
+            Thread.sleep(50L);
+        }
+        // the job is still running on node0, neither node resumes it
+        assertEquals(500, status("node1", "POST", "/_hexconvert/" + id + "/_resume"));
+        assertEquals(500, status("node0", "POST", "/_hexconvert/" + id + "/_resume"));
+        assertEquals("running", checkpoint(id).get("status"));
+        assertEquals(job.get("node"), checkpoint(id).get("node"));
+        assertEquals(404, status("node1", "GET", "/_hexconvert/" + id));
+        request("node0", "POST", "/_hexconvert/" + id + "/_cancel");
+        job = await("node0", id);
+        assertEquals(job.toString(), "cancelled", job.get("status"));
+    }
+
+    private void index(int n) {
+        BulkRequestBuilder bulk = client.prepareBulk().setRefresh(true);
+        for (int i = 0; i < n; i++) {
+            bulk.add(client.prepareIndex("old", "test", Integer.toString(i))
+                    .setSource("{\"hex\":\"4AC3B67267\",\"nothex\":\"CAFE\"}"));
+        }
+        bulk.execute().actionGet();
+    }
+
+    private Map<String, Object> await(String node, String id) throws Exception {
+        Map<String, Object> job = request(node, "GET", "/_hexconvert/" + id);
+        for (int i = 0; i < 200 && "running".equals(job.get("status")); i++) {
+            Thread.sleep(100L);
+            job = request(node, "GET", "/_hexconvert/" + id);
+        }
+        // the final checkpoint is written after the status changed
+        for (int i = 0; i < 100 && "running".equals(checkpoint(id).get("status")); i++) {
+            Thread.sleep(50L);
+        }
+        return job;
+    }
+
+    private Map<String, Object> checkpoint(String id) {
+        if (!client.admin().indices().prepareExists(HexConvertService.CHECKPOINT_INDEX).execute().actionGet().isExists()) {
+            return null;
+        }
+        client.admin().cluster().prepareHealth(HexConvertService.CHECKPOINT_INDEX).setWaitForYellowStatus().execute().actionGet();
+        return client.prepareGet(HexConvertService.CHECKPOINT_INDEX, HexConvertService.CHECKPOINT_TYPE, id)
+                .execute().actionGet().getSource();
+    }
+
+    private Map<String, Object> request(String method, String path) throws Exception {
+        return request("node0", method, path);
+    }
+
+    private Map<String, Object> request(String node, String method, String path) throws Exception {
+        String response = read(open(node, method, path));
+        return XContentHelper.convertToMap(response.getBytes(StandardCharsets.UTF_8), false).v2();
+    }
+
+    private int status(String node, String method, String path) throws Exception {
+        return open(node, method, path).getResponseCode();
+    }
+}
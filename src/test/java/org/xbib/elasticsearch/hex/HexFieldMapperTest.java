@@ -0,0 +1,96 @@
+package org.xbib.elasticsearch.hex;
+
+import org.elasticsearch.action.admin.indices.delete.DeleteIndexRequest;
+import org.elasticsearch.action.admin.indices.refresh.RefreshRequest;
+import org.elasticsearch.action.get.GetResponse;
+import org.elasticsearch.client.Client;
+import org.elasticsearch.common.bytes.BytesReference;
+import org.elasticsearch.common.settings.ImmutableSettings;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.index.mapper.MapperParsingException;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.xbib.elasticsearch.helper.AbstractNodesTests;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+public class HexFieldMapperTest extends AbstractNodesTests {
+
+    private Client client;
+
+    @Before
+    public void createNodes() throws Exception {
+        Settings settings = ImmutableSettings.settingsBuilder()
+                .put("index.number_of_shards", 1)
+                .put("index.number_of_replicas", 0)
+                .build();
+        startNode("node0", settings);
+        client = client("node0");
+    }
+
+    @After
+    public void closeNodes() {
+        client.admin().indices().delete(new DeleteIndexRequest("test")).actionGet();
+        closeAllNodes();
+    }
+
+    @Test
+    public void testHexField() throws Exception {
+        client.admin().indices().prepareCreate("test")
+                .addMapping("test", "{\"test\":{\"properties\":{\"hex\":{\"type\":\"hex\",\"store\":true,\"format\":\"hex\"}," +
+                        "\"b64\":{\"type\":\"hex\",\"store\":true}}}}")
+                .execute().actionGet();
+        // the standard index API, hex and base64
+        client.prepareIndex("test", "test", "1").setSource("{\"hex\":\"4AC3B67267\",\"b64\":\"SsO2cmc=\"}").execute().actionGet();
+        // base64 of three bytes, which is also a valid hex string, is not taken as hex
+        client.prepareIndex("test", "test", "2").setSource("{\"b64\":\"ABCD\"}").execute().actionGet();
+        client.admin().indices().refresh(new RefreshRequest("test")).actionGet();
+        byte[] b = new byte[]{(byte) 0x4A, (byte) 0xC3, (byte) 0xB6, (byte) 0x72, (byte) 0x67};
+        GetResponse response = client.prepareGet("test", "test", "1").setFields("hex", "b64").setRealtime(false)
+                .execute().actionGet();
+        assertArrayEquals(b, ((BytesReference) response.getField("hex").getValue()).toBytes());
+        assertArrayEquals(b, ((BytesReference) response.getField("b64").getValue()).toBytes());
+        response = client.prepareGet("test", "test", "2").setFields("b64").setRealtime(false).execute().actionGet();
+        assertArrayEquals(new byte[]{(byte) 0x00, (byte) 0x10, (byte) 0x83},
+                ((BytesReference) response.getField("b64").getValue()).toBytes());
+        // the source is not transcoded
+        assertEquals("{\"hex\":\"4AC3B67267\",\"b64\":\"SsO2cmc=\"}",
+                client.prepareGet("test", "test", "1").execute().actionGet().getSourceAsString());
+        // values which are not in the format of the field are rejected
+        try {
+            client.prepareIndex("test", "test", "3").setSource("{\"hex\":\"SsO2cmc=\"}").execute().actionGet();
+            fail();
+        } catch (MapperParsingException e) {
+            // expected
+        }
+        assertEquals("{\"test\":{\"properties\":{\"b64\":{\"type\":\"hex\",\"store\":true}," +
+                        "\"hex\":{\"type\":\"hex\",\"store\":true,\"format\":\"hex\"}}}}",
+                client.admin().indices().prepareGetMappings("test").execute().actionGet()
+                        .getMappings().get("test").get("test").source().string());
+    }
+
+    @Test
+    public void testHexTerms() throws Exception {
+        client.admin().indices().prepareCreate("test")
+                .addMapping("test", "{\"test\":{\"properties\":{\"hex\":{\"type\":\"hex\",\"format\":\"hex\",\"index\":\"not_analyzed\"}}}}")
+                .execute().actionGet();
+        client.prepareIndex("test", "test", "1").setSource("{\"hex\":\"4AC3B67267\"}").execute().actionGet();
+        client.prepareIndex("test", "test", "2").setSource("{\"hex\":\"4AC3FF\"}").execute().actionGet();
+        client.prepareIndex("test", "test", "3").setSource("{\"hex\":\"4AD0\"}").execute().actionGet();
+        client.admin().indices().refresh(new RefreshRequest("test")).actionGet();
+        assertEquals(1L, count("{\"hex_term\":{\"hex\":\"4ac3b67267\"}}"));
+        assertEquals(1L, count("{\"term\":{\"hex\":\"4AC3FF\"}}"));
+        assertEquals(2L, count("{\"hex_prefix\":{\"hex\":{\"value\":\"4AC3\"}}}"));
+        // an odd number of digits
+        assertEquals(2L, count("{\"hex_prefix\":{\"hex\":\"4AC\"}}"));
+        assertEquals(1L, count("{\"hex_prefix\":{\"hex\":\"4AD\"}}"));
+        assertEquals(3L, count("{\"hex_prefix\":{\"hex\":\"4\"}}"));
+    }
+
+    private long count(String query) {
+        return client.prepareSearch("test").setQuery(query).execute().actionGet().getHits().getTotalHits();
+    }
+}
@@ -0,0 +1,166 @@
+package org.xbib.elasticsearch.hex;
+
+import org.elasticsearch.action.admin.indices.delete.DeleteIndexRequest;
+import org.elasticsearch.client.Client;
+import org.elasticsearch.common.settings.ImmutableSettings;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.index.query.QueryBuilders;
+import org.elasticsearch.node.internal.InternalNode;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.xbib.elasticsearch.action.bulk.Base16DetectorService;
+import org.xbib.elasticsearch.helper.AbstractNodesTests;
+
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class HexMarkerTest extends AbstractNodesTests {
+
+    private Client client;
+
+    @Before
+    public void createNodes() throws Exception {
+        Settings settings = ImmutableSettings.settingsBuilder()
+                .put("index.number_of_shards", 1)
+                .put("index.number_of_replicas", 0)
+                .put("action.bulkhex.hex_prefix", "0x")
+                .put("action.bulkhex.detector.warmup", 8)
+                .put("action.bulkhex.cache.min_length", 16)
+                .build();
+        startNode("node0", settings);
+        client = client("node0");
+    }
+
+    @After
+    public void closeNodes() {
+        client.admin().indices().delete(new DeleteIndexRequest("test")).actionGet();
+        closeAllNodes();
+    }
+
+    @Test
+    public void testMarkers() throws Exception {
+        bulk("/_bulkhex?hex=marked&refresh=true",
+                "{\"index\":{\"_index\":\"test\",\"_type\":\"test\",\"_id\":\"1\"}}\n" +
+                "{\"a\":\"deadbeef\",\"b\":{\"$hex\":\"4AC3B67267\"},\"c\":\"0x4AC3B67267\",\"d\":{\"x\":1}}\n");
+        assertEquals("{\"a\":\"deadbeef\",\"b\":\"SsO2cmc=\",\"c\":\"SsO2cmc=\",\"d\":{\"x\":1}}",
+                client.prepareGet("test", "test", "1").execute().actionGet().getSourceAsString());
+        // unmarked hex strings are still decoded by default
+        bulk("/_bulkhex?refresh=true",
+                "{\"index\":{\"_index\":\"test\",\"_type\":\"test\",\"_id\":\"2\"}}\n" +
+                "{\"a\":\"deadbeef\",\"b\":{\"$hex\":\"00\"},\"c\":\"Hello\"}\n");
+        assertEquals("{\"a\":\"3q2+7w==\",\"b\":\"AA==\",\"c\":\"Hello\"}",
+                client.prepareGet("test", "test", "2").execute().actionGet().getSourceAsString());
+    }
+
+    @Test
+    public void testAdaptive() throws Exception {
+        StringBuilder bulk = new StringBuilder();
+        for (int i = 0; i < 20; i++) {
+            bulk.append("{\"index\":{\"_index\":\"test\",\"_type\":\"test\",\"_id\":\"").append(i).append("\"}}\n")
+                    .append("{\"text\":\"Hello World\",\"hex\":\"4AC3B67267\"}\n");
+        }
+        bulk("/_bulkhex?hex=adaptive", bulk.toString());
+        // the detector has learned that text never holds hex
+        bulk("/_bulkhex?hex=adaptive",
+                "{\"index\":{\"_index\":\"test\",\"_type\":\"test\",\"_id\":\"20\"}}\n" +
+                "{\"text\":\"CAFE\",\"hex\":\"00\",\"marked\":{\"$hex\":\"00\"}}\n");
+        assertEquals("{\"text\":\"CAFE\",\"hex\":\"AA==\",\"marked\":\"AA==\"}",
+                client.prepareGet("test", "test", "20").execute().actionGet().getSourceAsString());
+    }
+
+    @Test
+    public void testAdaptiveIndexDeleted() throws Exception {
+        Base16DetectorService detectorService =
+                ((InternalNode) node("node0")).injector().getInstance(Base16DetectorService.class);
+        bulk("/_bulkhex?hex=adaptive&refresh=true",
+                "{\"index\":{\"_index\":\"other\",\"_type\":\"test\",\"_id\":\"1\"}}\n" +
+                "{\"hex\":\"4AC3B67267\"}\n" +
+                "{\"index\":{\"_index\":\"test\",\"_type\":\"test\",\"_id\":\"1\"}}\n" +
+                "{\"hex\":\"4AC3B67267\"}\n");
+        assertTrue(detectorService.hasDetector("other"));
+        client.admin().indices().delete(new DeleteIndexRequest("other")).actionGet();
+        // the detector of the deleted index is dropped
+        assertFalse(detectorService.hasDetector("other"));
+        assertTrue(detectorService.hasDetector("test"));
+    }
+
+    @Test
+    public void testTargets() throws Exception {
+        client.admin().indices().prepareCreate("test")
+                .addMapping("test", "{\"test\":{\"properties\":{\"addr\":{\"type\":\"ip\"}}}}")
+                .execute().actionGet();
+        bulk("/_bulkhex?refresh=true&hex_targets=hash:unsigned_long,counter:long,addr:ip,addr6:ip",
+                "{\"index\":{\"_index\":\"test\",\"_type\":\"test\",\"_id\":\"1\"}}\n" +
+                "{\"hash\":\"FFFFFFFFFFFFFFFF\",\"counter\":\"0x00FF\",\"addr\":\"C0A80001\"," +
+                "\"addr6\":{\"$hex\":\"20010DB8000000000000000000000001\"}}\n");
+        assertEquals("{\"hash\":-1,\"counter\":255,\"addr\":\"192.168.0.1\",\"addr6\":\"2001:db8::1\"}",
+                client.prepareGet("test", "test", "1").execute().actionGet().getSourceAsString());
+        assertEquals(1L, client.prepareCount("test").setQuery(QueryBuilders.rangeQuery("counter").gte(200)).execute().actionGet().getCount());
+        assertEquals(1L, client.prepareCount("test").setQuery(QueryBuilders.rangeQuery("addr").gte("192.168.0.0").lte("192.168.0.255"))
+                .execute().actionGet().getCount());
+        // the targets match the fields below doc and upsert of an update
+        bulk("/_bulkhex?refresh=true&hex_targets=hash:unsigned_long",
+                "{\"update\":{\"_index\":\"test\",\"_type\":\"test\",\"_id\":\"1\"}}\n" +
+                "{\"doc\":{\"hash\":\"FFFFFFFFFFFFFFFE\"}}\n" +
+                "{\"update\":{\"_index\":\"test\",\"_type\":\"test\",\"_id\":\"2\"}}\n" +
+                "{\"doc\":{\"n\":2},\"upsert\":{\"hash\":\"0000000000000001\"}}\n");
+        assertEquals(-2, client.prepareGet("test", "test", "1").execute().actionGet().getSource().get("hash"));
+        assertEquals(1, client.prepareGet("test", "test", "2").execute().actionGet().getSource().get("hash"));
+    }
+
+    @Test
+    public void testContentAddressedIds() throws Exception {
+        String bulk = "{\"index\":{\"_index\":\"test\",\"_type\":\"test\"}}\n" +
+                "{\"hex\":\"4AC3B67267\",\"n\":1}\n" +
+                "{\"index\":{\"_index\":\"test\",\"_type\":\"test\"}}\n" +
+                "{\"hex\":\"CAFE\",\"n\":2}\n";
+        // the retry overwrites the documents of the first request
+        bulk("/_bulkhex?hash_fields=hex", bulk);
+        bulk("/_bulkhex?hash_fields=hex&refresh=true", bulk);
+        assertEquals(2L, client.prepareCount("test").execute().actionGet().getCount());
+        String id = client.prepareSearch("test").setQuery(QueryBuilders.termQuery("n", 1)).execute().actionGet().getHits().getAt(0).getId();
+        assertTrue(id, id.matches("[0-9a-f]{32}"));
+        assertEquals(2L, client.prepareGet("test", "test", id).execute().actionGet().getVersion());
+    }
+
+    @Test
+    public void testContentAddressedIdsAdaptive() throws Exception {
+        // the detector learns to skip the hashed field
+        StringBuilder bulk = new StringBuilder();
+        for (int i = 0; i < 20; i++) {
+            bulk.append("{\"index\":{\"_index\":\"test\",\"_type\":\"test\",\"_id\":\"").append(i).append("\"}}\n")
+                    .append("{\"hex\":\"Hello World\"}\n");
+        }
+        bulk("/_bulkhex?hex=adaptive", bulk.toString());
+        String doc = "{\"index\":{\"_index\":\"test\",\"_type\":\"test\"}}\n{\"hex\":\"4AC3B67267\",\"n\":1}\n";
+        bulk("/_bulkhex?hex=adaptive&hash_fields=hex", doc);
+        bulk("/_bulkhex?hex=adaptive&hash_fields=hex&refresh=true", doc);
+        // both requests got the same content-addressed id
+        assertEquals(21L, client.prepareCount("test").execute().actionGet().getCount());
+        String id = client.prepareSearch("test").setQuery(QueryBuilders.termQuery("n", 1)).execute().actionGet().getHits().getAt(0).getId();
+        assertTrue(id, id.matches("[0-9a-f]{32}"));
+        assertEquals(2L, client.prepareGet("test", "test", id).execute().actionGet().getVersion());
+    }
+
+    @Test
+    public void testCache() throws Exception {
+        StringBuilder bulk = new StringBuilder();
+        for (int i = 0; i < 3; i++) {
+            bulk.append("{\"index\":{\"_index\":\"test\",\"_type\":\"test\",\"_id\":\"").append(i).append("\"}}\n")
+                    .append("{\"a\":\"48656C6C6F20576F726C6421\",\"b\":{\"$hex\":\"48656C6C6F20576F726C6421\"},")
+                    .append("\"c\":\"0x48656C6C6F20576F726C6421\",\"d\":\"Hello World, no hex\",\"e\":\"CAFE\"}\n");
+        }
+        bulk("/_bulkhex?refresh=true", bulk.toString());
+        for (int i = 0; i < 3; i++) {
+            assertEquals("{\"a\":\"SGVsbG8gV29ybGQh\",\"b\":\"SGVsbG8gV29ybGQh\",\"c\":\"SGVsbG8gV29ybGQh\"," +
+                    "\"d\":\"Hello World, no hex\",\"e\":\"yv4=\"}",
+                    client.prepareGet("test", "test", Integer.toString(i)).execute().actionGet().getSourceAsString());
+        }
+        // the first occurrence of the value is a miss, the others are hits, text which is not hex is a miss and never cached
+        String stats = read(open("/_bulkhex/_cache"));
+        assertTrue(stats, stats.contains("\"entries\":1,\"hits\":8,\"misses\":4"));
+    }
+}
@@ -11,12 +11,15 @@ import org.elasticsearch.common.logging.ESLoggerFactory;
 import org.elasticsearch.common.settings.ImmutableSettings;
 import org.elasticsearch.common.settings.Settings;
 import org.elasticsearch.common.xcontent.XContent;
+import org.elasticsearch.rest.RestStatus;
 import org.elasticsearch.search.SearchHit;
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
 import org.xbib.elasticsearch.action.bulk.BulkAction;
+import org.xbib.elasticsearch.action.bulk.BulkItemResponse;
 import org.xbib.elasticsearch.action.bulk.BulkRequest;
+import org.xbib.elasticsearch.action.bulk.BulkResponse;
 import org.xbib.elasticsearch.common.xcontent.XContentBuilder;
 import org.xbib.elasticsearch.common.xcontent.XContentFactory;
 import org.xbib.elasticsearch.common.xcontent.XContentParser;
@@ -31,6 +34,7 @@ import java.net.URL;
 import java.net.URLConnection;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.xbib.elasticsearch.common.xcontent.XContentFactory.jsonBuilder;
 
 public class HexPluginTest extends AbstractNodesTests {
@@ -69,6 +73,20 @@ public class HexPluginTest extends AbstractNodesTests {
         return client("node0");
     }
 
+    @Test
+    public void testCreateConflict() throws Exception {
+        Client client = getClient();
+        BulkRequest bulkRequest = new BulkRequest();
+        bulkRequest.add(new IndexRequest("conflict", "test", "1").create(true).source("{\"hex\":\"00\"}"));
+        bulkRequest.add(new IndexRequest("conflict", "test", "1").create(true).source("{\"hex\":\"00\"}"));
+        BulkResponse response = client.execute(BulkAction.INSTANCE, bulkRequest).actionGet();
+        assertFalse(response.getItems()[0].isFailed());
+        BulkItemResponse.Failure failure = response.getItems()[1].getFailure();
+        assertEquals(RestStatus.CONFLICT, failure.getStatus());
+        assertEquals("DocumentAlreadyExistsException[[conflict][0] [test][1]: document already exists]", failure.getMessage());
+        client.admin().indices().delete(new DeleteIndexRequest("conflict")).actionGet();
+    }
+
     @Test
     public void testBulkAction() throws Exception {
         Client client = getClient();
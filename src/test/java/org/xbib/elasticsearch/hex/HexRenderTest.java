@@ -0,0 +1,56 @@
+package org.xbib.elasticsearch.hex;
+
+import org.elasticsearch.action.admin.indices.delete.DeleteIndexRequest;
+import org.elasticsearch.client.Client;
+import org.elasticsearch.common.io.Streams;
+import org.elasticsearch.common.settings.ImmutableSettings;
+import org.elasticsearch.common.settings.Settings;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.xbib.elasticsearch.helper.AbstractNodesTests;
+
+import java.io.InputStreamReader;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.Assert.assertTrue;
+
+public class HexRenderTest extends AbstractNodesTests {
+
+    private Client client;
+
+    @Before
+    public void createNodes() throws Exception {
+        Settings settings = ImmutableSettings.settingsBuilder()
+                .put("index.number_of_shards", 1)
+                .put("index.number_of_replicas", 0)
+                .build();
+        startNode("node0", settings);
+        client = client("node0");
+    }
+
+    @After
+    public void closeNodes() {
+        client.admin().indices().delete(new DeleteIndexRequest("test")).actionGet();
+        closeAllNodes();
+    }
+
+    @Test
+    public void testRenderHex() throws Exception {
+        client.prepareIndex("test", "test", "1")
+                .setSource("{\"hex\":\"SsO2cmc=\",\"nothex\":\"Hello\",\"obj\":{\"hex\":[\"SsO2cmc=\",\"AA==\",\"AAAA=\",\"AA=\"]},\"n\":1}")
+                .setRefresh(true)
+                .execute().actionGet();
+        // malformed padding is not base64, the values are kept as they are
+        String search = get("/test/_searchhex?hex_fields=hex,obj.hex,nothex");
+        assertTrue(search, search.contains("\"_source\":{\"hex\":\"4AC3B67267\",\"nothex\":\"Hello\",\"obj\":{\"hex\":[\"4AC3B67267\",\"00\",\"AAAA=\",\"AA=\"]},\"n\":1}"));
+        String doc = get("/test/test/1/_gethex?hex_fields=obj.hex");
+        assertTrue(doc, doc.contains("\"_source\":{\"hex\":\"SsO2cmc=\",\"nothex\":\"Hello\",\"obj\":{\"hex\":[\"4AC3B67267\",\"00\",\"AAAA=\",\"AA=\"]},\"n\":1}"));
+    }
+
+    private String get(String path) throws Exception {
+        URL url = new URL(getHttpAddressOfNode("node0").toURL(), path);
+        return Streams.copyToString(new InputStreamReader(url.openStream(), StandardCharsets.UTF_8));
+    }
+}
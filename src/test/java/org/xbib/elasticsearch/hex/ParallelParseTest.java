@@ -0,0 +1,102 @@
+package org.xbib.elasticsearch.hex;
+
+import org.elasticsearch.action.admin.cluster.node.info.NodeInfo;
+import org.elasticsearch.action.admin.indices.delete.DeleteIndexRequest;
+import org.elasticsearch.action.admin.indices.refresh.RefreshRequest;
+import org.elasticsearch.action.index.IndexRequest;
+import org.elasticsearch.action.search.SearchResponse;
+import org.elasticsearch.client.Client;
+import org.elasticsearch.common.settings.ImmutableSettings;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.search.SearchHit;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.xbib.elasticsearch.action.bulk.BulkAction;
+import org.xbib.elasticsearch.action.bulk.BulkItemResponse;
+import org.xbib.elasticsearch.action.bulk.BulkRequest;
+import org.xbib.elasticsearch.action.bulk.BulkResponse;
+import org.xbib.elasticsearch.helper.AbstractNodesTests;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+public class ParallelParseTest extends AbstractNodesTests {
+
+    private Client client;
+
+    @Before
+    public void createNodes() throws Exception {
+        Settings settings = ImmutableSettings.settingsBuilder()
+                .put("index.number_of_shards", 2)
+                .put("index.number_of_replicas", 1)
+                .put("action.bulkhex.primary.parse_parallelism", 4)
+                .put("action.bulkhex.replica.parse_parallelism", 4)
+                .build();
+        startNode("node0", settings);
+        startNode("node1", settings);
+        client = client("node0");
+    }
+
+    @After
+    public void closeNodes() {
+        client.admin().indices().delete(new DeleteIndexRequest("test")).actionGet();
+        closeAllNodes();
+    }
+
+    @Test
+    public void testParallelParse() throws Exception {
+        client.admin().indices().prepareCreate("test")
+                .addMapping("test", "{\"test\":{\"properties\":{\"n\":{\"type\":\"integer\"}}}}")
+                .execute().actionGet();
+        client.admin().cluster().prepareHealth("test").setWaitForGreenStatus().execute().actionGet();
+        BulkRequest bulkRequest = new BulkRequest();
+        for (int i = 0; i < 50; i++) {
+            String n = i == 25 ? "\"not a number\"" : Integer.toString(i);
+            bulkRequest.add(new IndexRequest("test", "test", Integer.toString(i)).source("{\"n\":" + n + ",\"hex\":\"4AC3B67267\"}"));
+        }
+        // the same documents again, applied after the first ones
+        for (int i = 0; i < 10; i++) {
+            bulkRequest.add(new IndexRequest("test", "test", Integer.toString(i)).source("{\"n\":" + (100 + i) + "}"));
+        }
+        BulkResponse response = client.execute(BulkAction.INSTANCE, bulkRequest).actionGet();
+        BulkItemResponse[] items = response.getItems();
+        assertEquals(60, items.length);
+        for (int i = 0; i < items.length; i++) {
+            assertEquals(i, items[i].getItemId());
+            assertEquals(Integer.toString(i % 50), items[i].getId());
+            // only the item which can not be parsed fails, the items after it are applied
+            assertEquals(items[i].getFailureMessage(), i == 25, items[i].isFailed());
+            if (!items[i].isFailed()) {
+                assertEquals(i < 50 ? 1L : 2L, items[i].getVersion());
+            }
+        }
+        client.admin().indices().refresh(new RefreshRequest("test")).actionGet();
+        // the replicas hold the same documents as the primaries
+        Map<String, String> expected = null;
+        for (NodeInfo nodeInfo : client.admin().cluster().prepareNodesInfo().execute().actionGet().getNodes()) {
+            SearchResponse searchResponse = client.prepareSearch("test").setSize(100).setVersion(true)
+                    .setPreference("_only_node:" + nodeInfo.getNode().getId()).execute().actionGet();
+            assertEquals(0, searchResponse.getFailedShards());
+            Map<String, String> docs = new HashMap<>();
+            for (SearchHit hit : searchResponse.getHits()) {
+                docs.put(hit.getId(), hit.getVersion() + " " + hit.getSourceAsString());
+            }
+            assertEquals(49, docs.size());
+            assertEquals("2 {\"n\":103}", docs.get("3"));
+            if (expected == null) {
+                expected = docs;
+            } else {
+                assertEquals(expected, docs);
+            }
+        }
+        assertNotNull(expected);
+        assertFalse(expected.containsKey("25"));
+        assertTrue(expected.get("30").startsWith("1 {\"n\":30,"));
+    }
+}